@@ -24,6 +24,7 @@ fun environment(key: String) = providers.environmentVariable(key)
 plugins {
   id("codegpt.java-conventions")
   alias(libs.plugins.changelog)
+  alias(libs.plugins.jmh)
 }
 
 group = properties("pluginGroup").get()
@@ -33,6 +34,10 @@ checkstyle {
   toolVersion = libs.versions.checkstyle.get()
 }
 
+jmh {
+  jmhVersion.set(libs.versions.jmh.get())
+}
+
 repositories {
   mavenCentral()
   gradlePluginPortal()
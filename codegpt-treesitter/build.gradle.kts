@@ -1,5 +1,10 @@
 plugins {
     id("codegpt.java-conventions")
+    alias(libs.plugins.jmh)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
 }
 
 dependencies {
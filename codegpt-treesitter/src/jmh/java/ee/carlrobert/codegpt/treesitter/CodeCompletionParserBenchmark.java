@@ -0,0 +1,122 @@
+package ee.carlrobert.codegpt.treesitter;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.treesitter.TSLanguage;
+import org.treesitter.TSNode;
+import org.treesitter.TSParser;
+import org.treesitter.TreeSitterJava;
+
+/**
+ * Trims a completion of about 200 characters, whose valid part is its first statement, in the
+ * middle of a Java file. The baseline is the previous implementation, which removed one character
+ * at a time and parsed the whole text from scratch for each.
+ *
+ * <p>Run with {@code ./gradlew :codegpt-treesitter:jmh}; the results are written to
+ * {@code codegpt-treesitter/build/results/jmh/results.txt}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodeCompletionParserBenchmark {
+
+  private static final String METHOD = """
+        public int getValue%d(int offset) {
+          var value = offset * 31;
+          if (value > 100) {
+            return value - offset;
+          }
+          return value + offset;
+        }
+
+      """;
+
+  private static final String OUTPUT = """
+      value + offset;}
+        }
+
+        public int getNextValue(int offset) {
+          for (int i = 0; i < offset; i++) {
+            offset += i * 31;
+          }
+          return getValue(offset
+      """;
+
+  @Param({"2000", "10000"})
+  private int contextSize;
+
+  private TSLanguage language;
+  private String prefix;
+  private String suffix;
+
+  @Setup
+  public void setUp() {
+    language = new TreeSitterJava();
+    var prefixBuilder = new StringBuilder("class Main {\n\n");
+    var suffixBuilder = new StringBuilder();
+    for (int i = 0; prefixBuilder.length() + suffixBuilder.length() < contextSize; i++) {
+      (i % 2 == 0 ? prefixBuilder : suffixBuilder).append(METHOD.formatted(i));
+    }
+    prefix = prefixBuilder.append("  public int getValue(int offset) {\n    return ").toString();
+    suffix = suffixBuilder.insert(0, "\n  }\n\n").append("}\n").toString();
+  }
+
+  @Benchmark
+  public String parseIncrementally() {
+    return new CodeCompletionParser(language).parse(prefix, suffix, OUTPUT);
+  }
+
+  @Benchmark
+  public String parseEveryCharacter() {
+    return parseEveryCharacter(prefix, suffix, OUTPUT);
+  }
+
+  private String parseEveryCharacter(String prefix, String suffix, String output) {
+    var result = new StringBuilder(output);
+    while (!result.isEmpty()) {
+      if (containsSyntaxErrors(prefix + result + suffix)) {
+        result.deleteCharAt(result.length() - 1);
+      } else {
+        return result.toString();
+      }
+    }
+
+    if (output.contains("\n")) {
+      return parseEveryCharacter(prefix, suffix, output.substring(0, output.indexOf("\n")));
+    }
+
+    return output;
+  }
+
+  private boolean containsSyntaxErrors(String input) {
+    var parser = new TSParser();
+    parser.setLanguage(language);
+    return containsSyntaxErrors(parser.parseString(null, input).getRootNode());
+  }
+
+  private static boolean containsSyntaxErrors(TSNode node) {
+    if (node.isMissing() || node.hasError()) {
+      return true;
+    }
+
+    for (int i = 0; i < node.getChildCount(); i++) {
+      if (containsSyntaxErrors(node.getChild(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
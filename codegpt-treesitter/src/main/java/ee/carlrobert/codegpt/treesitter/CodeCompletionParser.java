@@ -1,55 +1,342 @@
 package ee.carlrobert.codegpt.treesitter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.treesitter.TSInputEdit;
 import org.treesitter.TSLanguage;
 import org.treesitter.TSNode;
 import org.treesitter.TSParser;
+import org.treesitter.TSPoint;
 import org.treesitter.TSTree;
 
+/**
+ * Finds the part of a code completion that fits in between the prefix and the suffix.
+ *
+ * <p>The context, the prefix followed by the suffix, is parsed once and kept. A candidate, the
+ * context with a prefix of the output inserted, is then parsed incrementally from it, so that
+ * tree-sitter only parses the inserted text and the nodes around it again. Candidates end at the
+ * token boundaries of the output, and are valid if their tree has no syntax errors other than those
+ * of the context. The prefix and the suffix are usually cut out of a larger file, so the context
+ * often starts and ends in the middle of a construct; its errors are kept, at their positions
+ * shifted by the inserted text, and a candidate's error counts as its own if the context doesn't
+ * have it, or if it starts in or right after the inserted text.
+ *
+ * <p>The parser isn't thread-safe on its own, its methods are synchronized.
+ */
 public class CodeCompletionParser {
 
   protected final TSLanguage language;
+  private final TSParser parser = new TSParser();
+  private Context context;
 
   public CodeCompletionParser(TSLanguage language) {
     this.language = language;
+    parser.setLanguage(language);
   }
 
-  public String parse(String prefix, String suffix, String output) {
-    var result = new StringBuilder(output);
-    while (!result.isEmpty()) {
-      if (containsSyntaxErrors(prefix + result + suffix)) {
-        result.deleteCharAt(result.length() - 1);
+  /**
+   * Returns the longest prefix of the output that ends at a token boundary and can be inserted
+   * without adding syntax errors, or the first line of the output if there's none.
+   */
+  public synchronized String parse(String prefix, String suffix, String output) {
+    if (output.isEmpty()) {
+      return output;
+    }
+
+    var search = new Search(getContext(prefix, suffix), output);
+    if (search.isValid(output.length())) {
+      return output;
+    }
+
+    var boundaries = search.getTokenBoundaries();
+    // Validity isn't monotonic over the prefixes of the output, but being free of errors of its
+    // own is: once the output contains an error, every longer prefix of it does too. The longest
+    // such prefix is found by binary search, and the valid ones are looked for below it.
+    var low = -1;
+    var high = boundaries.size() - 1;
+    if (!search.containsErrors(output.length())) {
+      low = high;
+    }
+    while (high - low > 1) {
+      var middle = (low + high) >>> 1;
+      if (search.containsErrors(boundaries.get(middle))) {
+        high = middle;
       } else {
-        return result.toString();
+        low = middle;
       }
     }
-
-    if (output.contains("\n")) {
-      return parse(prefix, suffix, output.substring(0, output.indexOf("\n")));
+    for (int i = low; i >= 0; i--) {
+      var length = boundaries.get(i);
+      if (length < output.length() && search.isValid(length)) {
+        return output.substring(0, length);
+      }
     }
 
-    return output;
+    var lineEnd = output.indexOf('\n');
+    return lineEnd == -1 ? output : output.substring(0, lineEnd);
   }
 
-  private boolean containsSyntaxErrors(String input) {
-    return containsSyntaxErrors(getTree(input).getRootNode());
+  /**
+   * Returns whether the output can be inserted between the prefix and the suffix without adding
+   * any syntax errors, meaning that whatever it started is complete.
+   */
+  public synchronized boolean isComplete(String prefix, String suffix, String output) {
+    return !output.isBlank() && new Search(getContext(prefix, suffix), output)
+        .isValid(output.length());
   }
 
-  private boolean containsSyntaxErrors(TSNode node) {
-    if (node.isMissing() || node.hasError()) {
-      return true;
+  private Context getContext(String prefix, String suffix) {
+    // the completions of one request are checked against the same context
+    if (context == null || !context.prefix.equals(prefix) || !context.suffix.equals(suffix)) {
+      context = new Context(prefix, suffix, parser.parseString(null, prefix + suffix));
     }
+    return context;
+  }
 
+  private static void collectErrors(TSNode node, List<TSNode> errors) {
+    if (!node.hasError()) {
+      return;
+    }
+    if (node.isError() || node.isMissing()) {
+      errors.add(node);
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      collectErrors(node.getChild(i), errors);
+    }
+  }
+
+  private static boolean containsErrors(TSNode node, int startByte, int endByte) {
+    if (!node.hasError() || node.getEndByte() < startByte || node.getStartByte() >= endByte) {
+      return false;
+    }
+    if ((node.isError() || node.isMissing()) && node.getStartByte() >= startByte) {
+      return true;
+    }
     for (int i = 0; i < node.getChildCount(); i++) {
-      if (containsSyntaxErrors(node.getChild(i))) {
+      if (containsErrors(node.getChild(i), startByte, endByte)) {
         return true;
       }
     }
     return false;
   }
 
-  private TSTree getTree(String input) {
-    var parser = new TSParser();
-    parser.setLanguage(language);
-    return parser.parseString(null, input);
+  private static void collectTokenEnds(
+      TSNode node,
+      int startByte,
+      int endByte,
+      List<Integer> tokenEnds) {
+    if (node.getEndByte() <= startByte || node.getStartByte() >= endByte) {
+      return;
+    }
+    var childCount = node.getChildCount();
+    if (childCount == 0) {
+      if (node.getEndByte() <= endByte) {
+        tokenEnds.add(node.getEndByte());
+      }
+      return;
+    }
+    for (int i = 0; i < childCount; i++) {
+      collectTokenEnds(node.getChild(i), startByte, endByte, tokenEnds);
+    }
+  }
+
+  // offsets in tree-sitter are those of the UTF-8 encoded text
+  private static int getByteLength(CharSequence text, int start, int end) {
+    var length = 0;
+    for (int i = start; i < end; i++) {
+      var character = text.charAt(i);
+      if (character < 0x80) {
+        length++;
+      } else if (character < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(character)
+          && i + 1 < end
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(character)) {
+        // encoded as a replacement character
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static TSPoint getEndPoint(TSPoint startPoint, String text, int end) {
+    var lineStart = text.lastIndexOf('\n', end - 1) + 1;
+    if (lineStart == 0) {
+      return new TSPoint(
+          startPoint.getRow(),
+          startPoint.getColumn() + getByteLength(text, 0, end));
+    }
+    var lines = 0;
+    for (int i = 0; i < lineStart; i++) {
+      if (text.charAt(i) == '\n') {
+        lines++;
+      }
+    }
+    return new TSPoint(startPoint.getRow() + lines, getByteLength(text, lineStart, end));
+  }
+
+  private static final class Context {
+
+    private final String prefix;
+    private final String suffix;
+    private final TSTree tree;
+    private final int insertionByte;
+    private final TSPoint insertionPoint;
+    // the errors of the suffix's first token are the ones the inserted text should fix
+    private final int suffixIndentBytes;
+    private final Map<SyntaxError, Integer> errors = new HashMap<>();
+
+    Context(String prefix, String suffix, TSTree tree) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+      this.tree = tree;
+      insertionByte = getByteLength(prefix, 0, prefix.length());
+      insertionPoint = getEndPoint(new TSPoint(0, 0), prefix, prefix.length());
+      var indent = 0;
+      while (indent < suffix.length() && Character.isWhitespace(suffix.charAt(indent))) {
+        indent++;
+      }
+      suffixIndentBytes = getByteLength(suffix, 0, indent);
+
+      var errorNodes = new ArrayList<TSNode>();
+      collectErrors(tree.getRootNode(), errorNodes);
+      for (var node : errorNodes) {
+        errors.merge(SyntaxError.of(node, node.getStartByte(), node.getEndByte()), 1, Integer::sum);
+      }
+    }
+  }
+
+  /**
+   * An error or missing node, at its position in the context.
+   */
+  private record SyntaxError(String type, int startByte, int endByte) {
+
+    static SyntaxError of(TSNode node, int startByte, int endByte) {
+      return new SyntaxError(node.getType(), startByte, endByte);
+    }
+  }
+
+  /**
+   * The candidates of one output, parsed at most once each.
+   */
+  private final class Search {
+
+    private final Context context;
+    private final String output;
+    private final Map<Integer, TSTree> trees = new HashMap<>();
+
+    Search(Context context, String output) {
+      this.context = context;
+      this.output = output;
+    }
+
+    /**
+     * Returns whether the candidate's syntax errors are all errors of the context.
+     */
+    boolean isValid(int length) {
+      var root = getTree(length).getRootNode();
+      if (!root.hasError()) {
+        return true;
+      }
+
+      var insertedBytes = getInsertedByteLength(length);
+      var insertionEnd = context.insertionByte + insertedBytes;
+      var errorNodes = new ArrayList<TSNode>();
+      collectErrors(root, errorNodes);
+      var contextErrors = new HashMap<>(context.errors);
+      for (var node : errorNodes) {
+        var startByte = node.getStartByte();
+        var endByte = node.getEndByte();
+        // caused by the inserted text, whether or not the context has an error there
+        if ((startByte >= context.insertionByte
+            && startByte <= insertionEnd + context.suffixIndentBytes)
+            || (endByte > context.insertionByte && endByte <= insertionEnd)) {
+          return false;
+        }
+
+        var error = SyntaxError.of(
+            node,
+            startByte < context.insertionByte ? startByte : startByte - insertedBytes,
+            endByte <= context.insertionByte ? endByte : endByte - insertedBytes);
+        var count = contextErrors.getOrDefault(error, 0);
+        if (count == 0) {
+          return false;
+        }
+        contextErrors.put(error, count - 1);
+      }
+      return true;
+    }
+
+    /**
+     * Returns whether the syntax errors of the candidate include ones that start within the
+     * inserted text, rather than ones caused by what comes after it.
+     */
+    boolean containsErrors(int length) {
+      var root = getTree(length).getRootNode();
+      return CodeCompletionParser.containsErrors(
+          root,
+          context.insertionByte,
+          context.insertionByte + getInsertedByteLength(length));
+    }
+
+    /**
+     * Returns the lengths of the output's prefixes that end at a token boundary, as tokenized in
+     * the tree of the whole output, in ascending order. The last one is the whole output.
+     */
+    List<Integer> getTokenBoundaries() {
+      var outputByteLength = getInsertedByteLength(output.length());
+      var tokenEnds = new ArrayList<Integer>();
+      collectTokenEnds(
+          getTree(output.length()).getRootNode(),
+          context.insertionByte,
+          context.insertionByte + outputByteLength,
+          tokenEnds);
+      tokenEnds.add(context.insertionByte + outputByteLength);
+
+      var boundaries = new ArrayList<Integer>(tokenEnds.size());
+      var index = 0;
+      var byteOffset = context.insertionByte;
+      for (int tokenEnd : tokenEnds) {
+        while (byteOffset < tokenEnd && index < output.length()) {
+          var end = Character.isHighSurrogate(output.charAt(index))
+              && index + 1 < output.length() ? index + 2 : index + 1;
+          byteOffset += getByteLength(output, index, end);
+          index = end;
+        }
+        if (byteOffset == tokenEnd && index > 0
+            && (boundaries.isEmpty() || boundaries.get(boundaries.size() - 1) < index)) {
+          boundaries.add(index);
+        }
+      }
+      return boundaries;
+    }
+
+    private TSTree getTree(int length) {
+      return trees.computeIfAbsent(length, this::parseCandidate);
+    }
+
+    private TSTree parseCandidate(int length) {
+      var insertedText = output.substring(0, length);
+      var tree = context.tree.copy();
+      tree.edit(new TSInputEdit(
+          context.insertionByte,
+          context.insertionByte,
+          context.insertionByte + getInsertedByteLength(length),
+          context.insertionPoint,
+          context.insertionPoint,
+          getEndPoint(context.insertionPoint, insertedText, length)));
+      return parser.parseString(tree, context.prefix + insertedText + context.suffix);
+    }
+
+    private int getInsertedByteLength(int length) {
+      return getByteLength(output, 0, length);
+    }
   }
 }
@@ -1,5 +1,7 @@
 package ee.carlrobert.codegpt.treesitter;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.treesitter.TSLanguage;
 import org.treesitter.TreeSitterCSharp;
 import org.treesitter.TreeSitterCpp;
@@ -36,9 +38,14 @@ import org.treesitter.TreeSitterYaml;
 
 public class CodeCompletionParserFactory {
 
+  // a parser keeps the tree of the last context, which the next completion is likely to share
+  private static final Map<String, CodeCompletionParser> PARSERS = new ConcurrentHashMap<>();
+
   public static CodeCompletionParser getParserForFileExtension(String extension)
       throws IllegalArgumentException {
-    return new CodeCompletionParser(getLanguageForExtension(extension));
+    return PARSERS.computeIfAbsent(
+        extension,
+        key -> new CodeCompletionParser(getLanguageForExtension(key)));
   }
 
   private static TSLanguage getLanguageForExtension(String extension) {
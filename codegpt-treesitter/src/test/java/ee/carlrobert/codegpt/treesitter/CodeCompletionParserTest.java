@@ -92,4 +92,96 @@ public class CodeCompletionParserTest {
 
     assertThat(result).isEqualTo("int prevNumber");
   }
+
+  @Test
+  public void shouldTellWhenBlockIsComplete() {
+    var prefix = """
+            class Main {
+              public void run(boolean ready) {
+                \s""";
+    var suffix = """
+
+              }
+            }""";
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+
+    assertThat(parser.isComplete(prefix, suffix, "if (ready) {\n      start();")).isFalse();
+    assertThat(parser.isComplete(prefix, suffix, "if (ready) {\n      start();\n    }")).isTrue();
+  }
+
+  @Test
+  public void shouldTellWhenBlockIsCompleteInTruncatedContext() {
+    var prefix = """
+                    .filter(value -> value > 0)
+                    .count();
+              }
+
+              public int sum(int[] values) {
+                var total = 0;
+                for (var value : values) {
+                  \s""";
+    var suffix = """
+
+                }
+                return total;
+              }
+
+              public int max(int[] values) {
+                var max = Integer.MIN_VALUE;
+                for (var value : val""";
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+
+    var statement = parser.parse(prefix, suffix, "total += value;\n    }\n    return total;");
+
+    assertThat(parser.isComplete(prefix, suffix, "total += value;")).isTrue();
+    assertThat(parser.isComplete(prefix, suffix, "if (value > 0) {\n        total += value;"))
+        .isFalse();
+    assertThat(parser.isComplete(
+        prefix,
+        suffix,
+        "if (value > 0) {\n        total += value;\n      }")).isTrue();
+    assertThat(statement).isEqualTo("total += value;");
+  }
+
+  @Test
+  public void shouldGetValidBlockBeforeIncompleteCode() {
+    var prefix = """
+            class Main {
+              public void run(boolean ready) {
+                \s""";
+    var suffix = """
+
+              }
+            }""";
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+
+    var block = parser.parse(prefix, suffix, "if (ready) {\n      start();\n    }\n    stop(");
+    var statement = parser.parse(prefix, suffix, "start();\n    if (ready) {");
+
+    assertThat(block).isEqualTo("if (ready) {\n      start();\n    }");
+    assertThat(statement).isEqualTo("start();");
+  }
+
+  @Test
+  public void shouldHandleNonAsciiCharacters() {
+    var prefix = """
+            class Main {
+              private final String greeting = "héllo wörld \uD83D\uDC4B";
+
+              public int getGreetingLength() {
+                return\s""";
+    var suffix = """
+
+              }
+            }""";
+    var output = """
+            "ünïcödé \uD83D\uDC4B".length() + greeting.length();}
+            }""";
+
+    var result = CodeCompletionParserFactory
+        .getParserForFileExtension("java")
+        .parse(prefix, suffix, output);
+
+    assertThat(result).isEqualTo("\"ünïcödé \uD83D\uDC4B\".length() + greeting.length();");
+  }
 }
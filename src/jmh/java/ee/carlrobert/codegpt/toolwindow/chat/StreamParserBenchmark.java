@@ -0,0 +1,82 @@
+package ee.carlrobert.codegpt.toolwindow.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Streams a multi-megabyte markdown response through {@link StreamParser} in chunks of the size
+ * the providers usually send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamParserBenchmark {
+
+  private static final String TEXT_SECTION = """
+      Here is an example of how to read a file line by line. The `readLines` method
+      returns the lines lazily, so it also works for ``very large`` files.
+
+      ~~~
+      not a fence: ```inline``` and ``double``
+      ~~~
+
+      """;
+
+  private static final String CODE_SECTION = """
+      ```java title="Example.java"
+      public class Example {
+        public static void main(String[] args) throws IOException {
+          try (var lines = Files.lines(Path.of(args[0]))) {
+            lines.map(String::trim).filter(line -> !line.isEmpty()).forEach(System.out::println);
+          }
+        }
+      }
+      ```
+      """;
+
+  @Param({"1048576", "4194304"})
+  private int responseSize;
+
+  @Param({"4", "32"})
+  private int chunkSize;
+
+  private List<String> chunks;
+
+  @Setup
+  public void setUp() {
+    var response = new StringBuilder(responseSize + CODE_SECTION.length());
+    while (response.length() < responseSize) {
+      response.append(TEXT_SECTION).append(CODE_SECTION);
+    }
+
+    chunks = new ArrayList<>(response.length() / chunkSize + 1);
+    for (int i = 0; i < response.length(); i += chunkSize) {
+      chunks.add(response.substring(i, Math.min(response.length(), i + chunkSize)));
+    }
+  }
+
+  @Benchmark
+  public void parseStream(Blackhole blackhole) {
+    var parser = new StreamParser();
+    for (var chunk : chunks) {
+      blackhole.consume(parser.parse(chunk));
+    }
+    blackhole.consume(parser.flush());
+  }
+}
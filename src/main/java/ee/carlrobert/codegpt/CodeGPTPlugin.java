@@ -34,6 +34,18 @@ public final class CodeGPTPlugin {
     return getPluginOptionsPath() + File.separator + "indexes";
   }
 
+  public static @NotNull String getConversationStorePath() {
+    return getPluginOptionsPath() + File.separator + "conversations";
+  }
+
+  public static @NotNull String getImageAttachmentStorePath() {
+    return getPluginOptionsPath() + File.separator + "attachments";
+  }
+
+  public static @NotNull String getConversationSearchIndexPath() {
+    return getPluginOptionsPath() + File.separator + "conversation-search-index";
+  }
+
   public static @NotNull String getLlamaSourcePath() {
     return getPluginBasePath() + File.separator + "llama.cpp";
   }
@@ -42,6 +54,10 @@ public final class CodeGPTPlugin {
     return Paths.get(System.getProperty("user.home"), ".codegpt/models/gguf").toString();
   }
 
+  public static @NotNull String getLlamaSlotSnapshotsPath() {
+    return Paths.get(System.getProperty("user.home"), ".codegpt/slots").toString();
+  }
+
   public static @NotNull String getProjectIndexStorePath(@NotNull Project project) {
     return getIndexStorePath() + File.separator + project.getName();
   }
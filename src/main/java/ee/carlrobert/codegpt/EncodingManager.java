@@ -3,27 +3,30 @@ package ee.carlrobert.codegpt;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
-import com.knuddels.jtokkit.Encodings;
-import com.knuddels.jtokkit.api.Encoding;
-import com.knuddels.jtokkit.api.EncodingRegistry;
-import com.knuddels.jtokkit.api.EncodingType;
-import com.knuddels.jtokkit.api.IntArrayList;
 import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.conversations.message.Message;
+import ee.carlrobert.codegpt.conversations.message.MessageTokenCounts;
+import ee.carlrobert.codegpt.tokenizer.TokenCache;
+import ee.carlrobert.codegpt.tokenizer.Tokenizer;
+import ee.carlrobert.codegpt.tokenizer.TokenizerRegistry;
+import ee.carlrobert.codegpt.tokenizer.VocabularyTokenizer;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionDetailedMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionStandardMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIMessageTextContent;
-import java.util.List;
 import java.util.stream.Stream;
 
+/**
+ * Counts and truncates text with the tokenizer of the model that is currently used, see
+ * {@link TokenizerRegistry}.
+ */
 @Service
 public final class EncodingManager {
 
   private static final Logger LOG = Logger.getInstance(EncodingManager.class);
+  private static final int INITIAL_WINDOW_CHARS_PER_TOKEN = 4;
 
-  private final EncodingRegistry registry = Encodings.newDefaultEncodingRegistry();
-  private final Encoding encoding = registry.getEncoding(EncodingType.CL100K_BASE);
+  private final TokenCache tokenCache = new TokenCache();
 
   private EncodingManager() {
   }
@@ -34,11 +37,46 @@ public final class EncodingManager {
 
   public int countConversationTokens(Conversation conversation) {
     return (conversation == null ? Stream.<Message>empty() : conversation.getMessages().stream())
-        .mapToInt(
-            message -> countTokens(message.getPrompt()) + countTokens(message.getResponse()))
+        .mapToInt(this::countTokens)
         .sum();
   }
 
+  /**
+   * Returns the number of tokens in the prompt and the response of the message. The counts are
+   * stored on the message, so they are computed only once for each version of the text.
+   */
+  public int countTokens(Message message) {
+    var tokenizer = getTokenizer();
+    var prompt = message.getPrompt();
+    var response = message.getResponse();
+    var counts = message.getTokenCounts().get(tokenizer.getName());
+    if (counts != null
+        && counts.isPromptCountValid(prompt)
+        && counts.isResponseCountValid(response)) {
+      return counts.getTotalTokens();
+    }
+
+    var promptTokens = counts != null && counts.isPromptCountValid(prompt)
+        ? counts.promptTokens()
+        : countNullableTokens(tokenizer, prompt);
+    var responseTokens = counts != null && counts.isResponseCountValid(response)
+        ? counts.responseTokens()
+        : countNullableTokens(tokenizer, response);
+    counts = MessageTokenCounts.of(prompt, promptTokens, response, responseTokens);
+    message.getTokenCounts().put(tokenizer.getName(), counts);
+    return counts.getTotalTokens();
+  }
+
+  /**
+   * Creates a counter for streamed text that only encodes the newly received chunks.
+   */
+  public StreamingTokenCounter createStreamingTokenCounter() {
+    var tokenizer = getTokenizer();
+    return new StreamingTokenCounter(
+        text -> countTokens(tokenizer, text),
+        text -> countContinuationTokens(tokenizer, text));
+  }
+
   public int countMessageTokens(OpenAIChatCompletionMessage message) {
     if (message instanceof OpenAIChatCompletionStandardMessage standardMessage) {
       return countMessageTokens(standardMessage.getRole(), standardMessage.getContent());
@@ -58,13 +96,11 @@ public final class EncodingManager {
   }
 
   public int countTokens(String text) {
-    try {
-      // #444: Cl100kParser.split() throws AssertionError "Input is not UTF-8: "
-      return encoding.countTokens(text);
-    } catch (Exception | Error ex) {
-      LOG.warn("Could not count tokens for: " + text, ex);
-      return 0;
-    }
+    return countTokens(getTokenizer(), text);
+  }
+
+  public Tokenizer getTokenizer() {
+    return TokenizerRegistry.getInstance().getCurrentTokenizer();
   }
 
   /**
@@ -76,17 +112,103 @@ public final class EncodingManager {
    * @return The truncated text.
    */
   public String truncateText(String text, int maxTokens, boolean fromStart) {
-    var tokens = encoding.encode(text);
-    int tokensToRetrieve = Math.min(maxTokens, tokens.size());
-    int startIndex = fromStart ? 0 : tokens.size() - tokensToRetrieve;
-    var truncatedList =
-        tokens.boxed().subList(startIndex, startIndex + tokensToRetrieve);
-    return encoding.decode(convertToIntArrayList(truncatedList));
-  }
-
-  private IntArrayList convertToIntArrayList(List<Integer> tokens) {
-    var result = new IntArrayList(tokens.size());
-    tokens.forEach(result::add);
-    return result;
+    var tokenizer = getTokenizer();
+    if (tokenizer instanceof VocabularyTokenizer vocabularyTokenizer) {
+      var tokens = tokenCache.encode(vocabularyTokenizer, text);
+      return vocabularyTokenizer.truncate(tokens, text, maxTokens, fromStart);
+    }
+    return tokenizer.truncate(text, maxTokens, fromStart);
+  }
+
+  /**
+   * Returns the text before the offset, truncated to its last {@code maxTokens} tokens.
+   *
+   * <p>Unlike {@link #truncateText}, only a window before the offset is encoded. The window starts
+   * at a few characters per token and is doubled until it holds more tokens than needed, so the
+   * cost depends on the token budget rather than on the length of the text. The window is cut at
+   * a pre-tokenization boundary, where the tokens are the same as in the full text; a long run
+   * without one (e.g. minified code) widens the window up to the whole text.
+   */
+  public String truncatePrefix(CharSequence text, int offset, int maxTokens) {
+    return truncateWindow(text, offset, maxTokens, true);
+  }
+
+  /**
+   * Returns the text after the offset, truncated to its first {@code maxTokens} tokens. See
+   * {@link #truncatePrefix}.
+   */
+  public String truncateSuffix(CharSequence text, int offset, int maxTokens) {
+    return truncateWindow(text, offset, maxTokens, false);
+  }
+
+  /**
+   * Returns the hit rate and the size of the token cache.
+   */
+  public TokenCache.Stats getTokenCacheStats() {
+    return tokenCache.getStats();
+  }
+
+  private String truncateWindow(
+      CharSequence text,
+      int offset,
+      int maxTokens,
+      boolean beforeOffset) {
+    var tokenizer = getTokenizer();
+    var windowSize = Math.max(1, maxTokens) * INITIAL_WINDOW_CHARS_PER_TOKEN;
+    while (true) {
+      var start = beforeOffset
+          ? findSafeBoundary(text, Math.max(0, offset - windowSize), -1)
+          : offset;
+      var end = beforeOffset
+          ? offset
+          : findSafeBoundary(text, Math.min(text.length(), offset + windowSize), 1);
+      var window = text.subSequence(start, end).toString();
+      var isWholeText = beforeOffset ? start == 0 : end == text.length();
+      // the merges never cross the boundary at the cut, but the token right at it may still
+      // differ (e.g. a SentencePiece space prefix), so the window must hold more tokens than
+      // needed for that token to be dropped
+      if (tokenizer instanceof VocabularyTokenizer vocabularyTokenizer) {
+        var tokens = vocabularyTokenizer.encode(window);
+        if (isWholeText || tokens.length > maxTokens) {
+          return vocabularyTokenizer.truncate(tokens, window, maxTokens, !beforeOffset);
+        }
+      } else if (isWholeText || tokenizer.countTokens(window) > maxTokens) {
+        return tokenizer.truncate(window, maxTokens, !beforeOffset);
+      }
+      windowSize *= 2;
+    }
+  }
+
+  private static int findSafeBoundary(CharSequence text, int index, int step) {
+    while (index > 0 && index < text.length()
+        && !StreamingTokenCounter.isSafeBoundary(text, index)) {
+      index += step;
+    }
+    return index;
+  }
+
+  private int countTokens(Tokenizer tokenizer, String text) {
+    try {
+      // #444: Cl100kParser.split() throws AssertionError "Input is not UTF-8: "
+      return tokenizer instanceof VocabularyTokenizer
+          ? tokenCache.countTokens(tokenizer, text)
+          : tokenizer.countTokens(text);
+    } catch (Exception | Error ex) {
+      LOG.warn("Could not count tokens for: " + text, ex);
+      return 0;
+    }
+  }
+
+  private int countContinuationTokens(Tokenizer tokenizer, String text) {
+    try {
+      return tokenizer.countContinuationTokens(text);
+    } catch (Exception | Error ex) {
+      LOG.warn("Could not count tokens for: " + text, ex);
+      return 0;
+    }
+  }
+
+  private int countNullableTokens(Tokenizer tokenizer, String text) {
+    return text == null ? 0 : countTokens(tokenizer, text);
   }
 }
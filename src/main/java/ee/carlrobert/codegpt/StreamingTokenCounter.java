@@ -0,0 +1,101 @@
+package ee.carlrobert.codegpt;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Counts the tokens of a streamed response without re-encoding the whole response on every
+ * chunk.
+ *
+ * <p>The tokenizer never merges tokens across a pre-tokenization boundary, so the text before
+ * such a boundary can be counted once and forgotten. Only the unstable tail after the last safe
+ * boundary is re-encoded when new text arrives.
+ */
+public class StreamingTokenCounter {
+
+  private final ToIntFunction<String> tokenCounter;
+  private final ToIntFunction<String> continuationTokenCounter;
+  private final StringBuilder tail = new StringBuilder();
+  private int committedTokens;
+  private int tailTokens;
+  private boolean committed;
+
+  public StreamingTokenCounter(ToIntFunction<String> tokenCounter) {
+    this(tokenCounter, tokenCounter);
+  }
+
+  /**
+   * Creates a counter that counts the text following a committed part with the continuation
+   * counter, for tokenizers that prefix the text they encode, see
+   * {@link ee.carlrobert.codegpt.tokenizer.Tokenizer#countContinuationTokens}.
+   */
+  public StreamingTokenCounter(
+      ToIntFunction<String> tokenCounter,
+      ToIntFunction<String> continuationTokenCounter) {
+    this.tokenCounter = tokenCounter;
+    this.continuationTokenCounter = continuationTokenCounter;
+  }
+
+  /**
+   * Appends the given chunk and returns the token count of all the text appended so far.
+   */
+  public int append(String chunk) {
+    if (chunk == null || chunk.isEmpty()) {
+      return getTokenCount();
+    }
+
+    var searchFrom = Math.max(1, tail.length() - 1);
+    tail.append(chunk);
+
+    var boundary = findLastSafeBoundary(searchFrom);
+    if (boundary > 0) {
+      committedTokens += countTokens(tail.substring(0, boundary));
+      tail.delete(0, boundary);
+      committed = true;
+    }
+    tailTokens = tail.isEmpty() ? 0 : countTokens(tail.toString());
+    return getTokenCount();
+  }
+
+  public int getTokenCount() {
+    return committedTokens + tailTokens;
+  }
+
+  public void reset() {
+    tail.setLength(0);
+    committedTokens = 0;
+    tailTokens = 0;
+    committed = false;
+  }
+
+  private int countTokens(String text) {
+    return committed
+        ? continuationTokenCounter.applyAsInt(text)
+        : tokenCounter.applyAsInt(text);
+  }
+
+  private int findLastSafeBoundary(int searchFrom) {
+    for (int i = tail.length() - 1; i >= searchFrom; i--) {
+      if (isSafeBoundary(tail, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * A position is safe to split at if no pre-tokenized piece can span it: either a newline
+   * followed by a non-whitespace character, or a single space between a letter or a digit and a
+   * letter (e.g. the boundary between {@code "foo"} and {@code " bar"}).
+   */
+  static boolean isSafeBoundary(CharSequence text, int index) {
+    var previous = text.charAt(index - 1);
+    var current = text.charAt(index);
+    if (previous == '\n') {
+      return !Character.isWhitespace(current);
+    }
+    return current == ' '
+        && index + 1 < text.length()
+        && Character.isLetterOrDigit(previous)
+        && Character.isLetter(text.charAt(index + 1));
+  }
+}
@@ -37,7 +37,9 @@ import java.awt.Dimension;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -110,6 +112,7 @@ public class IncludeFilesInContextAction extends AnAction {
 
     private static final EncodingManager encodingManager = EncodingManager.getInstance();
 
+    private final Map<CheckedTreeNode, Integer> nodeTokenCounts = new HashMap<>();
     private int fileCount;
     private int totalTokens;
 
@@ -120,9 +123,8 @@ public class IncludeFilesInContextAction extends AnAction {
     }
 
     void updateState(CheckedTreeNode checkedNode) {
-      var fileContent = getNodeFileContent(checkedNode);
-      if (fileContent != null) {
-        int tokenCount = encodingManager.countTokens(fileContent);
+      var tokenCount = getNodeTokenCount(checkedNode);
+      if (tokenCount != null) {
         if (checkedNode.isChecked()) {
           totalTokens += tokenCount;
           fileCount++;
@@ -135,6 +137,18 @@ public class IncludeFilesInContextAction extends AnAction {
       }
     }
 
+    private @Nullable Integer getNodeTokenCount(CheckedTreeNode checkedNode) {
+      var tokenCount = nodeTokenCounts.get(checkedNode);
+      if (tokenCount == null) {
+        var fileContent = getNodeFileContent(checkedNode);
+        if (fileContent != null) {
+          tokenCount = encodingManager.countTokens(fileContent);
+          nodeTokenCounts.put(checkedNode, tokenCount);
+        }
+      }
+      return tokenCount;
+    }
+
     private @Nullable String getNodeFileContent(CheckedTreeNode checkedNode) {
       var userObject = checkedNode.getUserObject();
       if (userObject instanceof PsiElement psiElement) {
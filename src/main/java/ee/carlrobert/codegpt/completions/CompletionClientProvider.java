@@ -4,7 +4,6 @@ import ee.carlrobert.codegpt.CodeGPTPlugin;
 import ee.carlrobert.codegpt.completions.you.YouUserManager;
 import ee.carlrobert.codegpt.credentials.CredentialsStore;
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey;
-import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings;
 import ee.carlrobert.codegpt.settings.service.anthropic.AnthropicSettings;
 import ee.carlrobert.codegpt.settings.service.azure.AzureSettings;
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
@@ -16,10 +15,7 @@ import ee.carlrobert.llm.client.llama.LlamaClient;
 import ee.carlrobert.llm.client.openai.OpenAIClient;
 import ee.carlrobert.llm.client.you.UTMParameters;
 import ee.carlrobert.llm.client.you.YouClient;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.util.concurrent.TimeUnit;
-import okhttp3.Credentials;
+import java.util.UUID;
 import okhttp3.OkHttpClient;
 import org.jetbrains.annotations.Nullable;
 
@@ -30,19 +26,40 @@ public class CompletionClientProvider {
   }
 
   public static OpenAIClient getOpenAIClient() {
+    return getOpenAIClient(null);
+  }
+
+  /**
+   * Returns an OpenAI client whose prompt cache usage is recorded for the given conversation.
+   */
+  public static OpenAIClient getOpenAIClient(@Nullable UUID conversationId) {
     return new OpenAIClient.Builder(getCredential(CredentialKey.OPENAI_API_KEY))
         .setOrganization(OpenAISettings.getCurrentState().getOrganization())
-        .build(getDefaultClientBuilder());
+        .build(getChatClientBuilder(conversationId));
   }
 
   public static ClaudeClient getClaudeClient() {
+    return getClaudeClient(null);
+  }
+
+  /**
+   * Returns an Anthropic client whose prompt cache usage is recorded for the given conversation.
+   */
+  public static ClaudeClient getClaudeClient(@Nullable UUID conversationId) {
     return new ClaudeClient(
         getCredential(CredentialKey.ANTHROPIC_API_KEY),
         AnthropicSettings.getCurrentState().getApiVersion(),
-        getDefaultClientBuilder());
+        getChatClientBuilder(conversationId));
   }
 
   public static AzureClient getAzureClient() {
+    return getAzureClient(null);
+  }
+
+  /**
+   * Returns an Azure client whose prompt cache usage is recorded for the given conversation.
+   */
+  public static AzureClient getAzureClient(@Nullable UUID conversationId) {
     var settings = AzureSettings.getCurrentState();
     var params = new AzureCompletionRequestParams(
         settings.getResourceName(),
@@ -54,7 +71,7 @@ public class CompletionClientProvider {
         : getCredential(CredentialKey.AZURE_OPENAI_API_KEY);
     return new AzureClient.Builder(credential, params)
         .setActiveDirectoryAuthentication(useAzureActiveDirectoryAuthentication)
-        .build(getDefaultClientBuilder());
+        .build(getChatClientBuilder(conversationId));
   }
 
   public static YouClient getYouClient() {
@@ -79,6 +96,29 @@ public class CompletionClientProvider {
   }
 
   public static LlamaClient getLlamaClient() {
+    return getLlamaClient(null);
+  }
+
+  /**
+   * Returns a llama.cpp client whose requests reuse the prompt cache of the given server slot.
+   *
+   * @param slotId the slot to use, or {@code null} to let the server pick one
+   */
+  public static LlamaClient getLlamaClient(@Nullable Integer slotId) {
+    return getLlamaClient(slotId, null);
+  }
+
+  /**
+   * Returns a llama.cpp client whose requests reuse the prompt cache of the given server slot,
+   * restoring the saved KV cache of the prompt prefix into the slot first.
+   *
+   * @param slotId       the slot to use, or {@code null} to let the server pick one
+   * @param promptPrefix the fixed start of the prompts, see
+   *                     {@link CompletionRequestProvider#getLlamaPromptPrefix}
+   */
+  public static LlamaClient getLlamaClient(
+      @Nullable Integer slotId,
+      @Nullable String promptPrefix) {
     var llamaSettings = LlamaSettings.getCurrentState();
     var builder = new LlamaClient.Builder()
         .setPort(llamaSettings.getServerPort());
@@ -89,30 +129,29 @@ public class CompletionClientProvider {
         builder.setApiKey(apiKey);
       }
     }
-    return builder.build(getDefaultClientBuilder());
+    return builder.build(
+        getDefaultClientBuilder().addInterceptor(new LlamaSlotInterceptor(slotId, promptPrefix)));
   }
 
+  /**
+   * Returns a builder derived from the shared application-wide client. Clients built from it
+   * share the same connection pool and dispatcher.
+   */
   public static OkHttpClient.Builder getDefaultClientBuilder() {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder();
-    var advancedSettings = AdvancedSettings.getCurrentState();
-    var proxyHost = advancedSettings.getProxyHost();
-    var proxyPort = advancedSettings.getProxyPort();
-    if (!proxyHost.isEmpty() && proxyPort != 0) {
-      builder.proxy(
-          new Proxy(advancedSettings.getProxyType(), new InetSocketAddress(proxyHost, proxyPort)));
-      if (advancedSettings.isProxyAuthSelected()) {
-        builder.proxyAuthenticator((route, response) ->
-            response.request()
-                .newBuilder()
-                .header("Proxy-Authorization", Credentials.basic(
-                    advancedSettings.getProxyUsername(),
-                    advancedSettings.getProxyPassword()))
-                .build());
-      }
-    }
+    return getDefaultClient().newBuilder();
+  }
+
+  /**
+   * Returns a builder of the shared client that structures the chat requests for the prompt
+   * caches of the providers, see {@link PromptCacheInterceptor}.
+   *
+   * @param conversationId the conversation whose prompt cache usage is recorded, or {@code null}
+   */
+  public static OkHttpClient.Builder getChatClientBuilder(@Nullable UUID conversationId) {
+    return getDefaultClientBuilder().addInterceptor(new PromptCacheInterceptor(conversationId));
+  }
 
-    return builder
-        .connectTimeout(advancedSettings.getConnectTimeout(), TimeUnit.SECONDS)
-        .readTimeout(advancedSettings.getReadTimeout(), TimeUnit.SECONDS);
+  public static OkHttpClient getDefaultClient() {
+    return HttpClientRegistry.getInstance().getClient();
   }
 }
@@ -13,9 +13,8 @@ import okhttp3.sse.EventSource;
 
 public class CompletionRequestHandler {
 
-  private final StringBuilder messageBuilder = new StringBuilder();
   private final CompletionResponseEventListener completionResponseEventListener;
-  private SwingWorker<Void, String> swingWorker;
+  private SwingWorker<Void, Void> swingWorker;
   private EventSource eventSource;
 
   public CompletionRequestHandler(CompletionResponseEventListener completionResponseEventListener) {
@@ -56,7 +55,7 @@ public class CompletionRequestHandler {
     completionResponseEventListener.handleError(new ErrorDetails(errorMessage), ex);
   }
 
-  private class CompletionRequestWorker extends SwingWorker<Void, String> {
+  private class CompletionRequestWorker extends SwingWorker<Void, Void> {
 
     private final CallParameters callParameters;
 
@@ -78,14 +77,6 @@ public class CompletionRequestHandler {
       return null;
     }
 
-    protected void process(List<String> chunks) {
-      callParameters.getMessage().setResponse(messageBuilder.toString());
-      for (String text : chunks) {
-        messageBuilder.append(text);
-        completionResponseEventListener.handleMessage(text);
-      }
-    }
-
     class YouRequestCompletionEventListener implements YouCompletionEventListener {
 
       @Override
@@ -95,7 +86,7 @@ public class CompletionRequestHandler {
 
       @Override
       public void onMessage(String message, EventSource eventSource) {
-        publish(message);
+        completionResponseEventListener.handleMessage(message);
       }
 
       @Override
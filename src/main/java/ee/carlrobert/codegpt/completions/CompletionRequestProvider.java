@@ -13,10 +13,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intellij.openapi.application.ApplicationManager;
 import ee.carlrobert.codegpt.EncodingManager;
 import ee.carlrobert.codegpt.ReferencedFile;
+import ee.carlrobert.codegpt.completions.ContextBudgetPlanner.Budget;
+import ee.carlrobert.codegpt.completions.ContextBudgetPlanner.HistoryPlan;
 import ee.carlrobert.codegpt.completions.llama.LlamaModel;
 import ee.carlrobert.codegpt.completions.llama.PromptTemplate;
 import ee.carlrobert.codegpt.conversations.Conversation;
-import ee.carlrobert.codegpt.conversations.ConversationsState;
+import ee.carlrobert.codegpt.conversations.ImageAttachmentStore;
 import ee.carlrobert.codegpt.conversations.message.Message;
 import ee.carlrobert.codegpt.credentials.CredentialsStore;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
@@ -31,7 +33,6 @@ import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings;
 import ee.carlrobert.codegpt.settings.service.you.YouSettings;
 import ee.carlrobert.codegpt.telemetry.core.configuration.TelemetryConfiguration;
 import ee.carlrobert.codegpt.telemetry.core.service.UserId;
-import ee.carlrobert.codegpt.util.file.FileUtil;
 import ee.carlrobert.llm.client.anthropic.completion.ClaudeBase64Source;
 import ee.carlrobert.llm.client.anthropic.completion.ClaudeCompletionDetailedMessage;
 import ee.carlrobert.llm.client.anthropic.completion.ClaudeCompletionMessage;
@@ -40,7 +41,6 @@ import ee.carlrobert.llm.client.anthropic.completion.ClaudeCompletionStandardMes
 import ee.carlrobert.llm.client.anthropic.completion.ClaudeMessageImageContent;
 import ee.carlrobert.llm.client.anthropic.completion.ClaudeMessageTextContent;
 import ee.carlrobert.llm.client.llama.completion.LlamaCompletionRequest;
-import ee.carlrobert.llm.client.openai.completion.OpenAIChatCompletionModel;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionDetailedMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionRequest;
@@ -52,13 +52,9 @@ import ee.carlrobert.llm.client.you.completion.YouCompletionRequest;
 import ee.carlrobert.llm.client.you.completion.YouCompletionRequestMessage;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -147,24 +143,8 @@ public class CompletionRequestProvider {
       Message message,
       ConversationType conversationType) {
     var settings = LlamaSettings.getCurrentState();
-    PromptTemplate promptTemplate;
-    if (settings.isRunLocalServer()) {
-      promptTemplate = settings.isUseCustomModel()
-          ? settings.getLocalModelPromptTemplate()
-          : LlamaModel.findByHuggingFaceModel(settings.getHuggingFaceModel()).getPromptTemplate();
-    } else {
-      promptTemplate = settings.getRemoteModelPromptTemplate();
-    }
-
-    var systemPrompt = conversationType == FIX_COMPILE_ERRORS
-            ? FIX_COMPILE_ERRORS_SYSTEM_PROMPT : ConfigurationSettings.getSystemPrompt();
-
-    var prompt = promptTemplate.buildPrompt(
-        systemPrompt,
-        message.getPrompt(),
-        conversation.getMessages());
     var configuration = ConfigurationSettings.getCurrentState();
-    return new LlamaCompletionRequest.Builder(prompt)
+    return new LlamaCompletionRequest.Builder(buildLlamaPrompt(message, conversationType))
         .setN_predict(configuration.getMaxTokens())
         .setTemperature(configuration.getTemperature())
         .setTop_k(settings.getTopK())
@@ -174,6 +154,48 @@ public class CompletionRequestProvider {
         .build();
   }
 
+  /**
+   * Returns the llama.cpp prompt of the message, following the conversation so far.
+   */
+  public String buildLlamaPrompt(Message message, ConversationType conversationType) {
+    var systemPrompt = getLlamaSystemPrompt(conversationType);
+    var history = planHistory(
+        ContextBudgetPlanner.getContextSize(ServiceType.LLAMA_CPP, null),
+        conversation.getMessages(),
+        systemPrompt,
+        message.getPrompt(),
+        false);
+    return getLlamaPromptTemplate().buildPrompt(
+        withSummary(systemPrompt, history),
+        message.getPrompt(),
+        history.messages());
+  }
+
+  /**
+   * Returns the start of the llama.cpp chat prompts that depends only on the system prompt. The
+   * server keeps its KV cache in snapshots, see
+   * {@link ee.carlrobert.codegpt.completions.llama.LlamaSlotSnapshots}.
+   */
+  public static String getLlamaPromptPrefix(ConversationType conversationType) {
+    return getLlamaPromptTemplate()
+        .buildPrompt(getLlamaSystemPrompt(conversationType), "", List.of());
+  }
+
+  private static PromptTemplate getLlamaPromptTemplate() {
+    var settings = LlamaSettings.getCurrentState();
+    if (!settings.isRunLocalServer()) {
+      return settings.getRemoteModelPromptTemplate();
+    }
+    return settings.isUseCustomModel()
+        ? settings.getLocalModelPromptTemplate()
+        : LlamaModel.findByHuggingFaceModel(settings.getHuggingFaceModel()).getPromptTemplate();
+  }
+
+  private static String getLlamaSystemPrompt(ConversationType conversationType) {
+    return conversationType == FIX_COMPILE_ERRORS
+        ? FIX_COMPILE_ERRORS_SYSTEM_PROMPT : ConfigurationSettings.getSystemPrompt();
+  }
+
   public YouCompletionRequest buildYouCompletionRequest(Message message) {
     var requestBuilder = new YouCompletionRequest.Builder(message.getPrompt())
         .setUseGPT4Model(YouSettings.getCurrentState().isUseGPT4Model())
@@ -205,9 +227,14 @@ public class CompletionRequestProvider {
   public Request buildCustomOpenAIChatCompletionRequest(
       CustomServiceSettingsState customConfiguration,
       CallParameters callParameters) {
+    var model = customConfiguration.getBody().get("model");
     return buildCustomOpenAIChatCompletionRequest(
         customConfiguration,
-        buildMessages(callParameters),
+        buildMessages(
+            ContextBudgetPlanner.getContextSize(
+                ServiceType.CUSTOM_OPENAI,
+                model instanceof String modelCode ? modelCode : null),
+            callParameters),
         true);
   }
 
@@ -260,16 +287,24 @@ public class CompletionRequestProvider {
     request.setModel(settings.getModel());
     request.setMaxTokens(configuration.getMaxTokens());
     request.setStream(true);
-    request.setSystem(ConfigurationSettings.getSystemPrompt());
-    List<ClaudeCompletionMessage> messages = conversation.getMessages().stream()
-        .filter(prevMessage -> prevMessage.getResponse() != null
-            && !prevMessage.getResponse().isEmpty())
+    var systemPrompt = ConfigurationSettings.getSystemPrompt();
+    var history = planHistory(
+        ContextBudgetPlanner.getContextSize(ServiceType.ANTHROPIC, settings.getModel()),
+        conversation.getMessages().stream()
+            .filter(prevMessage -> prevMessage.getResponse() != null
+                && !prevMessage.getResponse().isEmpty())
+            .toList(),
+        systemPrompt,
+        callParameters.getMessage().getPrompt(),
+        hasImage(callParameters));
+    request.setSystem(withSummary(systemPrompt, history));
+    List<ClaudeCompletionMessage> messages = history.messages().stream()
         .flatMap(prevMessage -> Stream.of(
             new ClaudeCompletionStandardMessage("user", prevMessage.getPrompt()),
             new ClaudeCompletionStandardMessage("assistant", prevMessage.getResponse())))
         .collect(toList());
 
-    if (callParameters.getImageMediaType() != null && callParameters.getImageData().length > 0) {
+    if (hasImage(callParameters)) {
       messages.add(new ClaudeCompletionDetailedMessage("user",
           List.of(
               new ClaudeMessageImageContent(new ClaudeBase64Source(
@@ -284,28 +319,43 @@ public class CompletionRequestProvider {
     return request;
   }
 
-  private List<OpenAIChatCompletionMessage> buildMessages(CallParameters callParameters) {
+  private List<OpenAIChatCompletionMessage> buildMessages(
+      @Nullable Integer contextSize,
+      CallParameters callParameters) {
     var message = callParameters.getMessage();
     var messages = new ArrayList<OpenAIChatCompletionMessage>();
+    String systemPrompt = null;
     if (OPENAI_SYSTEM_CONVERSATION_TYPES.contains(callParameters.getConversationType())) {
-      String content = DEFAULT == callParameters.getConversationType()
+      systemPrompt = DEFAULT == callParameters.getConversationType()
               ? ConfigurationSettings.getSystemPrompt() : FIX_COMPILE_ERRORS_SYSTEM_PROMPT;
-      messages.add(new OpenAIChatCompletionStandardMessage("system", content));
+      messages.add(new OpenAIChatCompletionStandardMessage("system", systemPrompt));
     }
 
+    var previousMessages = new ArrayList<Message>();
     for (var prevMessage : conversation.getMessages()) {
       if (callParameters.isRetry() && prevMessage.getId().equals(message.getId())) {
         break;
       }
+      previousMessages.add(prevMessage);
+    }
+    var history = planHistory(
+        contextSize,
+        previousMessages,
+        systemPrompt,
+        message.getPrompt(),
+        hasImage(callParameters));
+    if (history.summary() != null) {
+      messages.add(new OpenAIChatCompletionStandardMessage("system", history.summary()));
+    }
+
+    for (var prevMessage : history.messages()) {
       var prevMessageImageFilePath = prevMessage.getImageFilePath();
       if (prevMessageImageFilePath != null && !prevMessageImageFilePath.isEmpty()) {
         try {
-          var imageFilePath = Path.of(prevMessageImageFilePath);
-          var imageData = Files.readAllBytes(imageFilePath);
-          var imageMediaType = FileUtil.getImageMediaType(imageFilePath.getFileName().toString());
+          var image = ImageAttachmentStore.getInstance().get(prevMessageImageFilePath);
           messages.add(new OpenAIChatCompletionDetailedMessage("user",
               List.of(
-                  new OpenAIMessageImageURLContent(new OpenAIImageUrl(imageMediaType, imageData)),
+                  new OpenAIMessageImageURLContent(image.getOpenAIImageUrl()),
                   new OpenAIMessageTextContent(prevMessage.getPrompt()))));
         } catch (IOException e) {
           throw new RuntimeException(e);
@@ -316,7 +366,7 @@ public class CompletionRequestProvider {
       messages.add(new OpenAIChatCompletionStandardMessage("assistant", prevMessage.getResponse()));
     }
 
-    if (callParameters.getImageMediaType() != null && callParameters.getImageData().length > 0) {
+    if (hasImage(callParameters)) {
       messages.add(new OpenAIChatCompletionDetailedMessage("user",
           List.of(
               new OpenAIMessageImageURLContent(
@@ -332,52 +382,43 @@ public class CompletionRequestProvider {
   private List<OpenAIChatCompletionMessage> buildMessages(
       @Nullable String model,
       CallParameters callParameters) {
-    var messages = buildMessages(callParameters);
-
-    if (model == null
-        || GeneralSettings.getCurrentState().getSelectedService() == ServiceType.YOU) {
-      return messages;
-    }
-
-    int totalUsage = messages.parallelStream()
-        .mapToInt(encodingManager::countMessageTokens)
-        .sum() + ConfigurationSettings.getCurrentState().getMaxTokens();
-    int modelMaxTokens;
-    try {
-      modelMaxTokens = OpenAIChatCompletionModel.findByCode(model).getMaxTokens();
-
-      if (totalUsage <= modelMaxTokens) {
-        return messages;
-      }
-    } catch (NoSuchElementException ex) {
-      return messages;
+    if (GeneralSettings.getCurrentState().getSelectedService() == ServiceType.YOU) {
+      return buildMessages(null, callParameters);
     }
-    return tryReducingMessagesOrThrow(messages, totalUsage, modelMaxTokens);
+    return buildMessages(
+        ContextBudgetPlanner.getContextSize(ServiceType.OPENAI, model),
+        callParameters);
   }
 
-  private List<OpenAIChatCompletionMessage> tryReducingMessagesOrThrow(
-      List<OpenAIChatCompletionMessage> messages,
-      int totalUsage,
-      int modelMaxTokens) {
-    if (!ConversationsState.getInstance().discardAllTokenLimits) {
-      if (!conversation.isDiscardTokenLimit()) {
-        throw new TotalUsageExceededException();
-      }
+  private HistoryPlan planHistory(
+      @Nullable Integer contextSize,
+      List<Message> history,
+      @Nullable String systemPrompt,
+      String prompt,
+      boolean hasImage) {
+    if (contextSize == null) {
+      return new HistoryPlan(history, null);
     }
 
-    // skip the system prompt
-    for (int i = 1; i < messages.size(); i++) {
-      if (totalUsage <= modelMaxTokens) {
-        break;
-      }
+    var budget = new Budget(
+        contextSize,
+        systemPrompt == null ? 0 : encodingManager.countMessageTokens("system", systemPrompt),
+        encodingManager.countMessageTokens("user", prompt),
+        hasImage ? ContextBudgetPlanner.TOKENS_PER_IMAGE : 0,
+        ConfigurationSettings.getCurrentState().getMaxTokens());
+    return ContextBudgetPlanner.getInstance().plan(conversation, history, budget);
+  }
 
-      var message = messages.get(i);
-      if (message instanceof OpenAIChatCompletionStandardMessage) {
-        totalUsage -= encodingManager.countMessageTokens(message);
-        messages.set(i, null);
-      }
+  private static String withSummary(String systemPrompt, HistoryPlan history) {
+    if (history.summary() == null) {
+      return systemPrompt;
     }
+    return systemPrompt == null || systemPrompt.isEmpty()
+        ? history.summary()
+        : systemPrompt + "\n\n" + history.summary();
+  }
 
-    return messages.stream().filter(Objects::nonNull).toList();
+  private static boolean hasImage(CallParameters callParameters) {
+    return callParameters.getImageMediaType() != null && callParameters.getImageData().length > 0;
   }
 }
@@ -13,6 +13,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory;
 import ee.carlrobert.codegpt.codecompletions.InfillRequestDetails;
 import ee.carlrobert.codegpt.completions.llama.LlamaModel;
+import ee.carlrobert.codegpt.completions.llama.LlamaSlotManager;
 import ee.carlrobert.codegpt.completions.llama.PromptTemplate;
 import ee.carlrobert.codegpt.credentials.CredentialsStore;
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey;
@@ -39,9 +40,11 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
 import okhttp3.Request;
 import okhttp3.sse.EventSource;
 import okhttp3.sse.EventSources;
+import org.jetbrains.annotations.Nullable;
 
 @Service
 public final class CompletionRequestService {
@@ -58,7 +61,14 @@ public final class CompletionRequestService {
   public EventSource getCustomOpenAIChatCompletionAsync(
       Request customRequest,
       CompletionEventListener<String> eventListener) {
-    var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+    return getCustomOpenAIChatCompletionAsync(customRequest, null, eventListener);
+  }
+
+  private EventSource getCustomOpenAIChatCompletionAsync(
+      Request customRequest,
+      @Nullable UUID conversationId,
+      CompletionEventListener<String> eventListener) {
+    var httpClient = CompletionClientProvider.getChatClientBuilder(conversationId).build();
     return EventSources.createFactory(httpClient).newEventSource(
         customRequest,
         new OpenAIChatCompletionEventSourceListener(eventListener));
@@ -68,31 +78,40 @@ public final class CompletionRequestService {
       CallParameters callParameters,
       CompletionEventListener<String> eventListener) {
     var requestProvider = new CompletionRequestProvider(callParameters.getConversation());
+    var conversationId = callParameters.getConversation().getId();
     return switch (GeneralSettings.getCurrentState().getSelectedService()) {
-      case OPENAI -> CompletionClientProvider.getOpenAIClient().getChatCompletionAsync(
-          requestProvider.buildOpenAIChatCompletionRequest(
-              OpenAISettings.getCurrentState().getModel(),
-              callParameters),
-          eventListener);
+      case OPENAI -> CompletionClientProvider.getOpenAIClient(conversationId)
+          .getChatCompletionAsync(
+              requestProvider.buildOpenAIChatCompletionRequest(
+                  OpenAISettings.getCurrentState().getModel(),
+                  callParameters),
+              eventListener);
       case CUSTOM_OPENAI -> getCustomOpenAIChatCompletionAsync(
           requestProvider.buildCustomOpenAIChatCompletionRequest(
               CustomServiceSettings.getCurrentState(),
               callParameters),
+          conversationId,
           eventListener);
-      case ANTHROPIC -> CompletionClientProvider.getClaudeClient().getCompletionAsync(
-          requestProvider.buildAnthropicChatCompletionRequest(callParameters),
-          eventListener);
-      case AZURE -> CompletionClientProvider.getAzureClient().getChatCompletionAsync(
-          requestProvider.buildOpenAIChatCompletionRequest(null, callParameters),
-          eventListener);
+      case ANTHROPIC -> CompletionClientProvider.getClaudeClient(conversationId)
+          .getCompletionAsync(
+              requestProvider.buildAnthropicChatCompletionRequest(callParameters),
+              eventListener);
+      case AZURE -> CompletionClientProvider.getAzureClient(conversationId)
+          .getChatCompletionAsync(
+              requestProvider.buildOpenAIChatCompletionRequest(null, callParameters),
+              eventListener);
       case YOU -> CompletionClientProvider.getYouClient().getChatCompletionAsync(
           requestProvider.buildYouCompletionRequest(callParameters.getMessage()),
           eventListener);
-      case LLAMA_CPP -> CompletionClientProvider.getLlamaClient().getChatCompletionAsync(
-          requestProvider.buildLlamaCompletionRequest(
-              callParameters.getMessage(),
-              callParameters.getConversationType()),
-          eventListener);
+      case LLAMA_CPP -> CompletionClientProvider.getLlamaClient(
+              LlamaSlotManager.getInstance().getChatSlot(conversationId),
+              CompletionRequestProvider.getLlamaPromptPrefix(
+                  callParameters.getConversationType()))
+          .getChatCompletionAsync(
+              requestProvider.buildLlamaCompletionRequest(
+                  callParameters.getMessage(),
+                  callParameters.getConversationType()),
+              eventListener);
       default -> throw new IllegalArgumentException();
     };
   }
@@ -105,7 +124,8 @@ public final class CompletionRequestService {
           .getCompletionAsync(
               CodeCompletionRequestFactory.INSTANCE.buildOpenAIRequest(requestDetails),
               eventListener);
-      case LLAMA_CPP -> CompletionClientProvider.getLlamaClient()
+      case LLAMA_CPP -> CompletionClientProvider.getLlamaClient(
+              LlamaSlotManager.getInstance().getCodeCompletionSlot())
           .getChatCompletionAsync(
               CodeCompletionRequestFactory.INSTANCE.buildLlamaRequest(requestDetails),
               eventListener);
@@ -131,7 +151,7 @@ public final class CompletionRequestService {
             .getChatCompletionAsync(openaiRequest, eventListener);
         break;
       case CUSTOM_OPENAI:
-        var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+        var httpClient = CompletionClientProvider.getDefaultClient();
         EventSources.createFactory(httpClient).newEventSource(
             CompletionRequestProvider.buildCustomOpenAICompletionRequest(
                 commitMessagePrompt,
@@ -189,7 +209,7 @@ public final class CompletionRequestService {
 
     if (selectedService == CUSTOM_OPENAI) {
       var request = CompletionRequestProvider.buildCustomOpenAILookupCompletionRequest(prompt);
-      var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+      var httpClient = CompletionClientProvider.getDefaultClient();
       try (var response = httpClient.newCall(request).execute()) {
         return tryExtractContent(
             DeserializationUtil.mapResponse(response, OpenAIChatCompletionResponse.class));
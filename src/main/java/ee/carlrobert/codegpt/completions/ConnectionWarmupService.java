@@ -0,0 +1,118 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.settings.service.azure.AzureSettings;
+import ee.carlrobert.codegpt.settings.service.custom.CustomServiceSettings;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Opens a connection to the selected provider ahead of the first request, so that DNS lookup,
+ * TCP and TLS handshakes are already done once the user submits a prompt or an inline completion
+ * is requested. The connection is kept in the shared pool of {@link HttpClientRegistry}.
+ */
+@Service
+public final class ConnectionWarmupService {
+
+  private static final Logger LOG = Logger.getInstance(ConnectionWarmupService.class);
+
+  private static final String OPENAI_BASE_URL = "https://api.openai.com";
+  private static final String ANTHROPIC_BASE_URL = "https://api.anthropic.com";
+  private static final String AZURE_BASE_URL = "https://%s.openai.azure.com";
+  // The shared pool keeps idle connections for 5 minutes, no need to touch them more often
+  private static final long WARMUP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  private final Map<HttpUrl, Long> lastWarmups = new ConcurrentHashMap<>();
+
+  private ConnectionWarmupService() {
+  }
+
+  public static ConnectionWarmupService getInstance() {
+    return ApplicationManager.getApplication().getService(ConnectionWarmupService.class);
+  }
+
+  public void warmUpAsync() {
+    warmUpAsync(GeneralSettings.getCurrentState().getSelectedService());
+  }
+
+  public void warmUpAsync(ServiceType serviceType) {
+    if (ApplicationManager.getApplication().isUnitTestMode()) {
+      return;
+    }
+
+    var baseUrl = getBaseUrl(serviceType);
+    if (baseUrl == null) {
+      return;
+    }
+
+    var now = System.currentTimeMillis();
+    var lastWarmup = lastWarmups.get(baseUrl);
+    if (lastWarmup != null && now - lastWarmup < WARMUP_INTERVAL_MILLIS) {
+      return;
+    }
+    lastWarmups.put(baseUrl, now);
+
+    var request = new Request.Builder().url(baseUrl).head().build();
+    CompletionClientProvider.getDefaultClient().newCall(request).enqueue(new Callback() {
+      @Override
+      public void onResponse(@NotNull Call call, @NotNull Response response) {
+        // the status code is irrelevant, the connection is what we're after
+        response.close();
+      }
+
+      @Override
+      public void onFailure(@NotNull Call call, @NotNull IOException e) {
+        lastWarmups.remove(baseUrl);
+        LOG.debug("Unable to warm up connection to " + baseUrl, e);
+      }
+    });
+  }
+
+  private static @Nullable HttpUrl getBaseUrl(ServiceType serviceType) {
+    var url = switch (serviceType) {
+      case OPENAI -> OPENAI_BASE_URL;
+      case ANTHROPIC -> ANTHROPIC_BASE_URL;
+      case AZURE -> {
+        var resourceName = AzureSettings.getCurrentState().getResourceName();
+        yield resourceName == null || resourceName.isBlank()
+            ? null
+            : String.format(AZURE_BASE_URL, resourceName);
+      }
+      case CUSTOM_OPENAI -> CustomServiceSettings.getCurrentState().getUrl();
+      case LLAMA_CPP -> {
+        var llamaSettings = LlamaSettings.getCurrentState();
+        yield llamaSettings.isRunLocalServer()
+            ? "http://localhost:" + llamaSettings.getServerPort()
+            : llamaSettings.getBaseHost();
+      }
+      default -> null;
+    };
+    if (url == null) {
+      return null;
+    }
+
+    var httpUrl = HttpUrl.parse(url.trim());
+    if (httpUrl == null) {
+      return null;
+    }
+    return new HttpUrl.Builder()
+        .scheme(httpUrl.scheme())
+        .host(httpUrl.host())
+        .port(httpUrl.port())
+        .build();
+  }
+}
@@ -0,0 +1,297 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import ee.carlrobert.codegpt.EncodingManager;
+import ee.carlrobert.codegpt.completions.llama.LlamaSlotManager;
+import ee.carlrobert.codegpt.conversations.Conversation;
+import ee.carlrobert.codegpt.conversations.ConversationsState;
+import ee.carlrobert.codegpt.conversations.message.Message;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import ee.carlrobert.llm.client.openai.completion.OpenAIChatCompletionModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Fits the conversation history into the context window of the selected model.
+ *
+ * <p>The context window is split into the system prompt, the prompt together with its referenced
+ * files, the attached images and the completion tokens, whatever remains is left for the
+ * history. When the history doesn't fit, the newest turns are kept and the older ones are
+ * replaced with a short summary. The summary of each conversation is cached and only extended
+ * with the newly dropped turns, instead of being rebuilt for every request.
+ *
+ * <p>Providers cache the longest prefix that is identical to an earlier request, so the history is
+ * cut in chunks: the first kept turn stays the same for as long as the history after it fits, and
+ * when it doesn't, enough turns are dropped to leave room for the next few ones. The summary gets
+ * a fixed share of the budget, so it doesn't change between the cuts either.
+ */
+@Service
+public final class ContextBudgetPlanner {
+
+  public static final String SUMMARY_HEADER =
+      "Summary of the earlier part of the conversation, which is no longer included:";
+
+  // every message follows <|start|>{role/name}\n{content}<|end|>\n
+  static final int TOKENS_PER_MESSAGE = 4;
+  // upper bound of a downscaled image, e.g. 1092x1092 px for Claude or 4 tiles for GPT-4V
+  static final int TOKENS_PER_IMAGE = 1_600;
+
+  private static final int ANTHROPIC_CONTEXT_SIZE = 200_000;
+  private static final int LEGACY_ANTHROPIC_CONTEXT_SIZE = 100_000;
+  private static final int MIN_SUMMARY_TOKENS = 64;
+  private static final int MAX_SUMMARY_TOKENS = 1_024;
+  private static final int SUMMARY_BUDGET_DIVISOR = 4;
+  private static final int CUT_LOW_WATERMARK_PERCENT = 75;
+  private static final int MAX_SUMMARY_PROMPT_CHARS = 160;
+  private static final int MAX_SUMMARY_RESPONSE_CHARS = 240;
+  private static final int MAX_CACHED_HISTORIES = 64;
+  private static final Pattern CODE_BLOCK = Pattern.compile("```.*?(```|$)", Pattern.DOTALL);
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private final Map<UUID, PlannedHistory> plannedHistories = Collections.synchronizedMap(
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, PlannedHistory> eldest) {
+          return size() > MAX_CACHED_HISTORIES;
+        }
+      });
+
+  private ContextBudgetPlanner() {
+  }
+
+  public static ContextBudgetPlanner getInstance() {
+    return ApplicationManager.getApplication().getService(ContextBudgetPlanner.class);
+  }
+
+  /**
+   * Returns the size of the context window of the given model, or {@code null} if it isn't
+   * known, in which case the history is sent as is.
+   *
+   * @param model the model code, the deployment id for Azure
+   */
+  public static @Nullable Integer getContextSize(
+      @NotNull ServiceType serviceType,
+      @Nullable String model) {
+    return switch (serviceType) {
+      case OPENAI, AZURE, CUSTOM_OPENAI -> getOpenAIContextSize(model);
+      case ANTHROPIC -> getAnthropicContextSize(model);
+      // the context size of a remote server can't be known, a local one splits its context
+      // between the slots
+      case LLAMA_CPP -> LlamaSettings.getCurrentState().isRunLocalServer()
+          ? LlamaSettings.getCurrentState().getContextSize() / LlamaSlotManager.getSlotCount()
+          : null;
+      default -> null;
+    };
+  }
+
+  /**
+   * Keeps the newest turns of the history that fit into the budget and summarizes the rest.
+   *
+   * @throws TotalUsageExceededException if the prompt alone doesn't fit, or if turns would have
+   *                                     to be dropped while the token limits are not discarded
+   */
+  public HistoryPlan plan(Conversation conversation, List<Message> history, Budget budget) {
+    var historyBudget = budget.getHistoryTokens();
+    if (historyBudget < 0) {
+      throw new TotalUsageExceededException();
+    }
+
+    var encodingManager = EncodingManager.getInstance();
+    var turnTokens = new int[history.size()];
+    var totalTokens = 0;
+    for (int i = 0; i < history.size(); i++) {
+      turnTokens[i] = countTurnTokens(encodingManager, history.get(i));
+      totalTokens += turnTokens[i];
+    }
+    if (totalTokens <= historyBudget) {
+      return new HistoryPlan(history, null);
+    }
+
+    if (!ConversationsState.getInstance().discardAllTokenLimits
+        && !conversation.isDiscardTokenLimit()) {
+      throw new TotalUsageExceededException();
+    }
+
+    var summaryBudget = Math.min(MAX_SUMMARY_TOKENS, historyBudget / SUMMARY_BUDGET_DIVISOR);
+    var keptBudget = historyBudget - summaryBudget;
+    var keptTokens = new int[history.size() + 1];
+    for (int i = history.size() - 1; i >= 0; i--) {
+      keptTokens[i] = keptTokens[i + 1] + turnTokens[i];
+    }
+
+    var previousPlan = plannedHistories.get(conversation.getId());
+    var firstKept = previousPlan == null ? -1 : indexOf(history, previousPlan.firstKeptId());
+    if (firstKept == -1 || keptTokens[firstKept] > keptBudget) {
+      firstKept = findFirstKept(keptTokens, keptBudget * CUT_LOW_WATERMARK_PERCENT / 100);
+      if (firstKept == history.size()) {
+        firstKept = findFirstKept(keptTokens, keptBudget);
+      }
+    }
+
+    var droppedTurns = history.subList(0, firstKept);
+    var summaryLines = getSummaryLines(previousPlan, droppedTurns);
+    plannedHistories.put(conversation.getId(), new PlannedHistory(
+        firstKept < history.size() ? history.get(firstKept).getId() : null,
+        summaryLines));
+    var summary = summaryBudget < MIN_SUMMARY_TOKENS
+        ? null
+        : summarize(encodingManager, summaryLines, summaryBudget - TOKENS_PER_MESSAGE);
+    return new HistoryPlan(List.copyOf(history.subList(firstKept, history.size())), summary);
+  }
+
+  private static int findFirstKept(int[] keptTokens, int maxTokens) {
+    var firstKept = keptTokens.length - 1;
+    while (firstKept > 0 && keptTokens[firstKept - 1] <= maxTokens) {
+      firstKept--;
+    }
+    return firstKept;
+  }
+
+  private static int indexOf(List<Message> history, @Nullable UUID messageId) {
+    for (int i = 0; messageId != null && i < history.size(); i++) {
+      if (history.get(i).getId().equals(messageId)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private @Nullable String summarize(
+      EncodingManager encodingManager,
+      List<SummaryLine> lines,
+      int maxTokens) {
+    var tokens = encodingManager.countTokens(SUMMARY_HEADER);
+    var firstLine = lines.size();
+    // the most recent turns are the most relevant ones
+    while (firstLine > 0) {
+      var lineTokens = encodingManager.countTokens(lines.get(firstLine - 1).text()) + 1;
+      if (tokens + lineTokens > maxTokens) {
+        break;
+      }
+      tokens += lineTokens;
+      firstLine--;
+    }
+    if (firstLine == lines.size()) {
+      return null;
+    }
+
+    var summary = new StringBuilder(SUMMARY_HEADER);
+    for (var line : lines.subList(firstLine, lines.size())) {
+      summary.append('\n').append(line.text());
+    }
+    return summary.toString();
+  }
+
+  private static List<SummaryLine> getSummaryLines(
+      @Nullable PlannedHistory previousPlan,
+      List<Message> droppedTurns) {
+    var lines = new ArrayList<SummaryLine>(droppedTurns.size());
+    if (previousPlan != null && isPrefixOf(previousPlan.summaryLines(), droppedTurns)) {
+      lines.addAll(previousPlan.summaryLines());
+    }
+    for (var message : droppedTurns.subList(lines.size(), droppedTurns.size())) {
+      lines.add(new SummaryLine(message.getId(), summarizeTurn(message)));
+    }
+    return List.copyOf(lines);
+  }
+
+  private static boolean isPrefixOf(List<SummaryLine> lines, List<Message> messages) {
+    if (lines.size() > messages.size()) {
+      return false;
+    }
+    for (int i = 0; i < lines.size(); i++) {
+      if (!lines.get(i).messageId().equals(messages.get(i).getId())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String summarizeTurn(Message message) {
+    var question = message.getUserMessage() != null
+        ? message.getUserMessage()
+        : message.getPrompt();
+    var answer = message.getResponse() == null
+        ? ""
+        : CODE_BLOCK.matcher(message.getResponse()).replaceAll(" [code] ");
+    return "- User: " + abbreviate(question, MAX_SUMMARY_PROMPT_CHARS)
+        + " Assistant: " + abbreviate(answer, MAX_SUMMARY_RESPONSE_CHARS);
+  }
+
+  private static String abbreviate(@Nullable String text, int maxChars) {
+    if (text == null) {
+      return "";
+    }
+    var collapsed = WHITESPACE.matcher(text).replaceAll(" ").trim();
+    return collapsed.length() <= maxChars
+        ? collapsed
+        : collapsed.substring(0, maxChars - 3).trim() + "...";
+  }
+
+  private static int countTurnTokens(EncodingManager encodingManager, Message message) {
+    var imageFilePath = message.getImageFilePath();
+    var imageTokens = imageFilePath == null || imageFilePath.isEmpty() ? 0 : TOKENS_PER_IMAGE;
+    return encodingManager.countTokens(message) + 2 * TOKENS_PER_MESSAGE + imageTokens;
+  }
+
+  private static @Nullable Integer getOpenAIContextSize(@Nullable String model) {
+    if (model == null) {
+      return null;
+    }
+    try {
+      return OpenAIChatCompletionModel.findByCode(model).getMaxTokens();
+    } catch (NoSuchElementException ex) {
+      return null;
+    }
+  }
+
+  private static @Nullable Integer getAnthropicContextSize(@Nullable String model) {
+    if (model == null) {
+      return null;
+    }
+    var normalizedModel = model.toLowerCase(Locale.ROOT);
+    return normalizedModel.startsWith("claude-3") || normalizedModel.startsWith("claude-2.1")
+        ? ANTHROPIC_CONTEXT_SIZE
+        : LEGACY_ANTHROPIC_CONTEXT_SIZE;
+  }
+
+  /**
+   * Splits the context window of a request.
+   *
+   * @param promptTokens the tokens of the prompt, including the content of the referenced files
+   */
+  public record Budget(
+      int contextSize,
+      int systemTokens,
+      int promptTokens,
+      int imageTokens,
+      int completionTokens) {
+
+    public int getHistoryTokens() {
+      return contextSize - systemTokens - promptTokens - imageTokens - completionTokens;
+    }
+  }
+
+  /**
+   * The turns of the history to send and the summary of the dropped turns, if any.
+   */
+  public record HistoryPlan(List<Message> messages, @Nullable String summary) {
+  }
+
+  private record SummaryLine(UUID messageId, String text) {
+  }
+
+  private record PlannedHistory(@Nullable UUID firstKeptId, List<SummaryLine> summaryLines) {
+  }
+}
@@ -0,0 +1,130 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings;
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettingsState;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Holds a single long-lived {@link OkHttpClient} for the current network configuration.
+ *
+ * <p>Every provider client is derived from the shared instance via
+ * {@link OkHttpClient#newBuilder()}, so they all reuse the same connection pool and dispatcher
+ * (and thus keep-alive connections and HTTP/2 multiplexing). The client is rebuilt only when the
+ * {@link AdvancedSettings} (proxy, timeouts) change.
+ */
+@Service
+public final class HttpClientRegistry implements Disposable {
+
+  private static final Logger LOG = Logger.getInstance(HttpClientRegistry.class);
+
+  private static final int MAX_IDLE_CONNECTIONS = 8;
+  private static final int KEEP_ALIVE_MINUTES = 5;
+  private static final int MAX_REQUESTS_PER_HOST = 16;
+
+  private @Nullable OkHttpClient client;
+  private @Nullable AdvancedSettingsState clientSettings;
+
+  private HttpClientRegistry() {
+  }
+
+  public static HttpClientRegistry getInstance() {
+    return ApplicationManager.getApplication().getService(HttpClientRegistry.class);
+  }
+
+  public synchronized @NotNull OkHttpClient getClient() {
+    var advancedSettings = AdvancedSettings.getCurrentState();
+    if (client == null || !advancedSettings.equals(clientSettings)) {
+      if (client != null) {
+        LOG.info("Network settings changed, rebuilding the shared HTTP client");
+        shutdown(client);
+      }
+      clientSettings = XmlSerializerUtil.createCopy(advancedSettings);
+      client = createClient(clientSettings);
+    }
+    return client;
+  }
+
+  public synchronized ConnectionPoolStats getConnectionPoolStats() {
+    if (client == null) {
+      return new ConnectionPoolStats(0, 0, 0, 0);
+    }
+    var connectionPool = client.connectionPool();
+    var dispatcher = client.dispatcher();
+    return new ConnectionPoolStats(
+        connectionPool.connectionCount(),
+        connectionPool.idleConnectionCount(),
+        dispatcher.runningCallsCount(),
+        dispatcher.queuedCallsCount());
+  }
+
+  public synchronized void evictConnections() {
+    if (client != null) {
+      client.connectionPool().evictAll();
+    }
+  }
+
+  @Override
+  public synchronized void dispose() {
+    if (client != null) {
+      shutdown(client);
+      client = null;
+      clientSettings = null;
+    }
+  }
+
+  private static OkHttpClient createClient(AdvancedSettingsState advancedSettings) {
+    var dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+    var builder = new OkHttpClient.Builder()
+        .connectionPool(
+            new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .dispatcher(dispatcher);
+
+    var proxyHost = advancedSettings.getProxyHost();
+    var proxyPort = advancedSettings.getProxyPort();
+    if (!proxyHost.isEmpty() && proxyPort != 0) {
+      builder.proxy(
+          new Proxy(advancedSettings.getProxyType(), new InetSocketAddress(proxyHost, proxyPort)));
+      if (advancedSettings.isProxyAuthSelected()) {
+        var proxyUsername = advancedSettings.getProxyUsername();
+        var proxyPassword = advancedSettings.getProxyPassword();
+        builder.proxyAuthenticator((route, response) ->
+            response.request()
+                .newBuilder()
+                .header("Proxy-Authorization", Credentials.basic(proxyUsername, proxyPassword))
+                .build());
+      }
+    }
+
+    return builder
+        .connectTimeout(advancedSettings.getConnectTimeout(), TimeUnit.SECONDS)
+        .readTimeout(advancedSettings.getReadTimeout(), TimeUnit.SECONDS)
+        .build();
+  }
+
+  private static void shutdown(OkHttpClient client) {
+    // In-flight calls keep running on their own connections, only idle ones are closed.
+    client.connectionPool().evictAll();
+  }
+
+  public record ConnectionPoolStats(
+      int connectionCount,
+      int idleConnectionCount,
+      int runningCallsCount,
+      int queuedCallsCount) {
+  }
+}
@@ -0,0 +1,211 @@
+package ee.carlrobert.codegpt.completions;
+
+import static ee.carlrobert.codegpt.completions.CompletionRequestProvider.getPromptWithContext;
+import static ee.carlrobert.codegpt.settings.service.ServiceType.LLAMA_CPP;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import ee.carlrobert.codegpt.ReferencedFile;
+import ee.carlrobert.codegpt.completions.llama.LlamaSlotManager;
+import ee.carlrobert.codegpt.conversations.Conversation;
+import ee.carlrobert.codegpt.conversations.message.Message;
+import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import ee.carlrobert.llm.client.llama.completion.LlamaCompletionRequest;
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
+import ee.carlrobert.llm.completion.CompletionEventListener;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.sse.EventSource;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Evaluates the known part of the next llama.cpp chat prompt while the user is still typing the
+ * question.
+ *
+ * <p>Once typing pauses, the prompt of the conversation is sent with the referenced files but
+ * without the question, asking for no tokens to be predicted. The server keeps it in the prompt
+ * cache of the conversation's slot, so submitting the message only evaluates the question. A
+ * prefill that is still running when the message is submitted is left to finish, since the server
+ * queues the message behind it on the same slot. Only the local server is prefilled, as the slots
+ * of a remote one aren't pinned to conversations.
+ */
+@Service
+public final class LlamaPromptPrefill {
+
+  private static final Logger LOG = Logger.getInstance(LlamaPromptPrefill.class);
+  private static final long DEBOUNCE_DELAY_MILLIS = 600;
+
+  private @Nullable Target target;
+  private @Nullable ScheduledFuture<?> scheduledPrefill;
+  private @Nullable EventSource runningPrefill;
+  private @Nullable String prefilledPrompt;
+  private int prefillCount;
+  private int scheduleCount;
+
+  private LlamaPromptPrefill() {
+  }
+
+  public static LlamaPromptPrefill getInstance() {
+    return ApplicationManager.getApplication().getService(LlamaPromptPrefill.class);
+  }
+
+  /**
+   * Schedules a prefill of the conversation, replacing the one scheduled before. A prefill of
+   * another conversation or model is cancelled.
+   */
+  public synchronized void schedule(
+      Conversation conversation,
+      @Nullable List<ReferencedFile> referencedFiles) {
+    if (GeneralSettings.getCurrentState().getSelectedService() != LLAMA_CPP
+        || !LlamaSettings.getCurrentState().isRunLocalServer()) {
+      cancel();
+      return;
+    }
+
+    var newTarget = Target.of(conversation);
+    if (!newTarget.equals(target)) {
+      cancel();
+      target = newTarget;
+    }
+    cancelScheduled();
+
+    var files = referencedFiles == null ? List.<ReferencedFile>of() : List.copyOf(referencedFiles);
+    var scheduleNumber = ++scheduleCount;
+    scheduledPrefill = AppExecutorUtil.getAppScheduledExecutorService().schedule(
+        () -> prefill(conversation, files, newTarget, scheduleNumber),
+        DEBOUNCE_DELAY_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Drops the prefill that hasn't been sent yet, as the message is about to be.
+   */
+  public synchronized void cancelScheduled() {
+    if (scheduledPrefill != null) {
+      scheduledPrefill.cancel(false);
+      scheduledPrefill = null;
+    }
+  }
+
+  /**
+   * Cancels the prefill of the conversation, after it was closed or its model was changed.
+   */
+  public synchronized void cancel(Conversation conversation) {
+    if (target != null && target.conversationId().equals(conversation.getId())) {
+      cancel();
+    }
+  }
+
+  /**
+   * Cancels the scheduled and the running prefill.
+   */
+  public synchronized void cancel() {
+    cancelScheduled();
+    if (runningPrefill != null) {
+      runningPrefill.cancel();
+      runningPrefill = null;
+    }
+    target = null;
+    prefilledPrompt = null;
+  }
+
+  private void prefill(
+      Conversation conversation,
+      List<ReferencedFile> referencedFiles,
+      Target scheduledTarget,
+      int scheduleNumber) {
+    if (!isCurrent(scheduledTarget, scheduleNumber)
+        || !scheduledTarget.equals(Target.of(conversation))) {
+      return;
+    }
+
+    // built without holding the lock, which typing takes on every keystroke, as counting the
+    // tokens of a long conversation takes a while
+    var requestProvider = new CompletionRequestProvider(conversation);
+    String prompt;
+    try {
+      prompt = requestProvider.buildLlamaPrompt(
+          new Message(referencedFiles.isEmpty() ? "" : getPromptWithContext(referencedFiles, "")),
+          ConversationType.DEFAULT);
+    } catch (TotalUsageExceededException e) {
+      return;
+    }
+    send(conversation, prompt, scheduledTarget, scheduleNumber);
+  }
+
+  private synchronized boolean isCurrent(Target scheduledTarget, int scheduleNumber) {
+    return scheduledTarget.equals(target) && scheduleNumber == scheduleCount;
+  }
+
+  private synchronized void send(
+      Conversation conversation,
+      String prompt,
+      Target scheduledTarget,
+      int scheduleNumber) {
+    // replaced or cancelled while the prompt was built, and typing on doesn't change the known
+    // part of the prompt
+    if (!isCurrent(scheduledTarget, scheduleNumber) || prompt.equals(prefilledPrompt)) {
+      return;
+    }
+    scheduledPrefill = null;
+    prefilledPrompt = prompt;
+
+    if (runningPrefill != null) {
+      runningPrefill.cancel();
+    }
+    var request = new LlamaCompletionRequest.Builder(prompt)
+        .setN_predict(0)
+        .build();
+    runningPrefill = CompletionClientProvider.getLlamaClient(
+            LlamaSlotManager.getInstance().getChatSlot(conversation.getId()),
+            CompletionRequestProvider.getLlamaPromptPrefix(ConversationType.DEFAULT))
+        .getChatCompletionAsync(request, new PrefillListener(++prefillCount));
+  }
+
+  private synchronized void onPrefillDone(int prefillNumber, boolean failed) {
+    // a prefill that was replaced by a newer one
+    if (prefillNumber != prefillCount) {
+      return;
+    }
+    runningPrefill = null;
+    if (failed) {
+      prefilledPrompt = null;
+    }
+  }
+
+  private final class PrefillListener implements CompletionEventListener<String> {
+
+    private final int prefillNumber;
+
+    PrefillListener(int prefillNumber) {
+      this.prefillNumber = prefillNumber;
+    }
+
+    @Override
+    public void onComplete(StringBuilder messageBuilder) {
+      onPrefillDone(prefillNumber, false);
+    }
+
+    @Override
+    public void onError(ErrorDetails error, Throwable ex) {
+      LOG.debug("Unable to prefill the prompt: " + error.getMessage(), ex);
+      onPrefillDone(prefillNumber, true);
+    }
+  }
+
+  private record Target(UUID conversationId, String model) {
+
+    static Target of(Conversation conversation) {
+      var settings = LlamaSettings.getCurrentState();
+      var model = settings.isUseCustomModel()
+          ? settings.getCustomLlamaModelPath()
+          : settings.getHuggingFaceModel().name();
+      return new Target(conversation.getId(), model);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.util.text.StringUtil;
+import ee.carlrobert.codegpt.completions.llama.LlamaSlotSnapshots;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Enables prompt caching on llama.cpp completion requests and sends them to the given slot, see
+ * {@link ee.carlrobert.codegpt.completions.llama.LlamaSlotManager}. If the prompt starts with the
+ * given prefix, its KV cache is first restored into the slot, see {@link LlamaSlotSnapshots}.
+ */
+public class LlamaSlotInterceptor implements Interceptor {
+
+  private final @Nullable Integer slotId;
+  private final @Nullable String promptPrefix;
+
+  public LlamaSlotInterceptor(@Nullable Integer slotId, @Nullable String promptPrefix) {
+    this.slotId = slotId;
+    this.promptPrefix = promptPrefix;
+  }
+
+  @Override
+  public @NotNull Response intercept(@NotNull Chain chain) throws IOException {
+    var request = chain.request();
+    var path = request.url().encodedPath();
+    if (!"POST".equals(request.method())
+        || !(path.endsWith("/completion") || path.endsWith("/infill"))) {
+      return chain.proceed(request);
+    }
+
+    var sharedPrefix = new StringBuilder();
+    request = PromptCacheInterceptor.rewriteBody(request, (root, length) -> {
+      root.put("cache_prompt", true);
+      if (slotId != null) {
+        root.put("id_slot", slotId);
+        // the name used by servers built before March 2024
+        root.put("slot_id", slotId);
+      }
+      if (promptPrefix != null) {
+        sharedPrefix.append(StringUtil.commonPrefix(promptPrefix, root.path("prompt").asText()));
+      }
+      return true;
+    });
+
+    if (slotId != null) {
+      var snapshots = LlamaSlotSnapshots.getInstance();
+      if (sharedPrefix.isEmpty()) {
+        snapshots.invalidateSlot(slotId);
+      } else {
+        snapshots.prepareSlot(request.url(), slotId, sharedPrefix.toString());
+      }
+    }
+    return chain.proceed(request);
+  }
+}
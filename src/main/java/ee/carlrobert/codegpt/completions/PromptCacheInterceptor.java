@@ -0,0 +1,268 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.intellij.openapi.diagnostic.Logger;
+import ee.carlrobert.codegpt.completions.PromptCacheStats.Usage;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Structures the chat requests for the prompt caches of the providers and records the cached
+ * tokens reported with the responses of a conversation in {@link PromptCacheStats}.
+ *
+ * <p>The request models of the client library know nothing about prompt caching, so the JSON
+ * bodies are adjusted here. Anthropic requests get {@code cache_control} breakpoints on the system
+ * prompt and on the latest user message, which carries the referenced files. Anthropic also looks
+ * for cached prefixes at the earlier block boundaries, so a follow-up turn reads what the
+ * previous one wrote. OpenAI caches identical prefixes automatically; streamed requests only ask
+ * for the usage chunk, which is removed from the stream once recorded since it has no choices.
+ */
+public class PromptCacheInterceptor implements Interceptor {
+
+  private static final Logger LOG = Logger.getInstance(PromptCacheInterceptor.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String OPENAI_HOST = "api.openai.com";
+  // Anthropic doesn't cache prefixes shorter than 1024 tokens
+  private static final int MIN_CACHEABLE_CHARS = 4 * 1_024;
+  private static final Pattern USAGE_OBJECT = Pattern.compile("\"usage\"\\s*:\\s*\\{");
+
+  private final @Nullable UUID conversationId;
+
+  /**
+   * @param conversationId the conversation whose usage is recorded, or {@code null} for requests
+   *                       outside of a conversation, e.g. commit messages
+   */
+  public PromptCacheInterceptor(@Nullable UUID conversationId) {
+    this.conversationId = conversationId;
+  }
+
+  @Override
+  public @NotNull Response intercept(@NotNull Chain chain) throws IOException {
+    var request = chain.request();
+    var path = request.url().encodedPath();
+    if (!"POST".equals(request.method())) {
+      return chain.proceed(request);
+    }
+    if (path.endsWith("/v1/messages")) {
+      request = rewriteBody(request, PromptCacheInterceptor::addCacheBreakpoints);
+    } else if (path.endsWith("/chat/completions")) {
+      if (OPENAI_HOST.equals(request.url().host())) {
+        request = rewriteBody(request, (root, length) -> includeStreamUsage(root));
+      }
+    } else {
+      return chain.proceed(request);
+    }
+    return recordUsage(chain.proceed(request));
+  }
+
+  /**
+   * Places a breakpoint on the system prompt and, if the prompt is long enough to be cached, on
+   * the last text block of the latest user message.
+   */
+  static boolean addCacheBreakpoints(ObjectNode root, int bodyLength) {
+    var changed = false;
+    var system = root.get("system");
+    if (system != null && system.isTextual() && !system.asText().isEmpty()) {
+      root.set("system", OBJECT_MAPPER.createArrayNode().add(createCachedBlock(system.asText())));
+      changed = true;
+    }
+
+    if (bodyLength < MIN_CACHEABLE_CHARS
+        || !(root.get("messages") instanceof ArrayNode messages)
+        || messages.isEmpty()
+        || !(messages.get(messages.size() - 1) instanceof ObjectNode lastMessage)
+        || !"user".equals(lastMessage.path("role").asText())) {
+      return changed;
+    }
+
+    var content = lastMessage.get("content");
+    if (content != null && content.isTextual()) {
+      lastMessage.set(
+          "content",
+          OBJECT_MAPPER.createArrayNode().add(createCachedBlock(content.asText())));
+      return true;
+    }
+    if (content instanceof ArrayNode blocks) {
+      for (int i = blocks.size() - 1; i >= 0; i--) {
+        if (blocks.get(i) instanceof ObjectNode block
+            && "text".equals(block.path("type").asText())) {
+          block.set("cache_control", createEphemeralCacheControl());
+          return true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Returns the prompt usage of an Anthropic {@code message_start} event or of an OpenAI chunk,
+   * if the event holds one.
+   */
+  static @Nullable Usage parseUsage(JsonNode event) {
+    if ("message_start".equals(event.path("type").asText())) {
+      var usage = event.path("message").path("usage");
+      if (!usage.isObject()) {
+        return null;
+      }
+      var cachedTokens = usage.path("cache_read_input_tokens").asInt();
+      var cacheCreationTokens = usage.path("cache_creation_input_tokens").asInt();
+      return new Usage(
+          usage.path("input_tokens").asInt() + cachedTokens + cacheCreationTokens,
+          cachedTokens,
+          cacheCreationTokens);
+    }
+
+    var usage = event.path("usage");
+    if (!usage.has("prompt_tokens")) {
+      return null;
+    }
+    return new Usage(
+        usage.path("prompt_tokens").asInt(),
+        usage.path("prompt_tokens_details").path("cached_tokens").asInt(),
+        0);
+  }
+
+  private static boolean includeStreamUsage(ObjectNode root) {
+    if (!root.path("stream").asBoolean() || root.has("stream_options")) {
+      return false;
+    }
+    root.putObject("stream_options").put("include_usage", true);
+    return true;
+  }
+
+  private static ObjectNode createCachedBlock(String text) {
+    var block = OBJECT_MAPPER.createObjectNode()
+        .put("type", "text")
+        .put("text", text);
+    block.set("cache_control", createEphemeralCacheControl());
+    return block;
+  }
+
+  private static ObjectNode createEphemeralCacheControl() {
+    return OBJECT_MAPPER.createObjectNode().put("type", "ephemeral");
+  }
+
+  /**
+   * Replaces the JSON body of the request with the rewritten one, if the rewriter changed it.
+   */
+  static Request rewriteBody(Request request, BodyRewriter rewriter) {
+    var body = request.body();
+    if (body == null) {
+      return request;
+    }
+
+    try {
+      var buffer = new Buffer();
+      body.writeTo(buffer);
+      var json = buffer.readUtf8();
+      if (!(OBJECT_MAPPER.readTree(json) instanceof ObjectNode root)
+          || !rewriter.rewrite(root, json.length())) {
+        return request;
+      }
+      return request.newBuilder()
+          .method(
+              request.method(),
+              RequestBody.create(OBJECT_MAPPER.writeValueAsString(root), body.contentType()))
+          .build();
+    } catch (IOException e) {
+      LOG.debug("Unable to prepare the request for prompt caching", e);
+      return request;
+    }
+  }
+
+  private Response recordUsage(Response response) {
+    var body = response.body();
+    var contentType = body == null ? null : body.contentType();
+    if (contentType == null || !"event-stream".equals(contentType.subtype())) {
+      return response;
+    }
+    var source = Okio.buffer(new UsageRecordingSource(body.source(), conversationId));
+    return response.newBuilder()
+        .body(ResponseBody.create(source, contentType, -1))
+        .build();
+  }
+
+  interface BodyRewriter {
+
+    boolean rewrite(ObjectNode root, int bodyLength);
+  }
+
+  /**
+   * Passes the event stream through line by line, recording the usage events on the way.
+   */
+  private static final class UsageRecordingSource implements Source {
+
+    private final BufferedSource upstream;
+    private final @Nullable UUID conversationId;
+    private final Buffer pending = new Buffer();
+
+    UsageRecordingSource(BufferedSource upstream, @Nullable UUID conversationId) {
+      this.upstream = upstream;
+      this.conversationId = conversationId;
+    }
+
+    @Override
+    public long read(@NotNull Buffer sink, long byteCount) throws IOException {
+      while (pending.size() == 0) {
+        var line = upstream.readUtf8Line();
+        if (line == null) {
+          return -1;
+        }
+        if (processLine(line)) {
+          pending.writeUtf8(line).writeByte('\n');
+        }
+      }
+      return pending.read(sink, Math.min(byteCount, pending.size()));
+    }
+
+    /**
+     * Returns whether the line should be passed on.
+     */
+    private boolean processLine(String line) {
+      if (!line.startsWith("data:") || !USAGE_OBJECT.matcher(line).find()) {
+        return true;
+      }
+
+      try {
+        var event = OBJECT_MAPPER.readTree(line.substring("data:".length()));
+        var usage = parseUsage(event);
+        if (usage == null) {
+          return true;
+        }
+        if (conversationId != null) {
+          PromptCacheStats.getInstance().record(conversationId, usage);
+        }
+        // the final OpenAI usage chunk has no choices, which the stream listeners don't expect
+        return !(event.get("choices") instanceof ArrayNode choices && choices.isEmpty());
+      } catch (IOException e) {
+        return true;
+      }
+    }
+
+    @Override
+    public @NotNull Timeout timeout() {
+      return upstream.timeout();
+    }
+
+    @Override
+    public void close() throws IOException {
+      upstream.close();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the prompt cache usage that the providers report with the chat responses, per
+ * conversation.
+ */
+@Service
+public final class PromptCacheStats {
+
+  private final Map<UUID, Usage> lastUsages = new ConcurrentHashMap<>();
+
+  private PromptCacheStats() {
+  }
+
+  public static PromptCacheStats getInstance() {
+    return ApplicationManager.getApplication().getService(PromptCacheStats.class);
+  }
+
+  public void record(UUID conversationId, Usage usage) {
+    lastUsages.put(conversationId, usage);
+  }
+
+  /**
+   * Returns the usage of the latest response of the conversation that reported one.
+   */
+  public @Nullable Usage getLastUsage(UUID conversationId) {
+    return lastUsages.get(conversationId);
+  }
+
+  /**
+   * Prompt tokens of a single response.
+   *
+   * @param promptTokens        all input tokens, including the cached ones
+   * @param cachedTokens        the input tokens that were read from the cache
+   * @param cacheCreationTokens the input tokens that were written to the cache
+   */
+  public record Usage(int promptTokens, int cachedTokens, int cacheCreationTokens) {
+  }
+}
@@ -10,6 +10,7 @@ import com.intellij.execution.process.ProcessAdapter;
 import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.process.ProcessListener;
 import com.intellij.execution.process.ProcessOutputType;
+import com.intellij.execution.util.ExecUtil;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
@@ -17,8 +18,11 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Key;
 import ee.carlrobert.codegpt.CodeGPTBundle;
 import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.completions.LlamaPromptPrefill;
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
 import ee.carlrobert.codegpt.settings.service.llama.form.ServerProgressPanel;
+import ee.carlrobert.codegpt.util.file.FileUtil;
+import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -29,6 +33,8 @@ import org.jetbrains.annotations.Nullable;
 public final class LlamaServerAgent implements Disposable {
 
   private static final Logger LOG = Logger.getInstance(LlamaServerAgent.class);
+  private static final String SLOT_SAVE_PATH_OPTION = "--slot-save-path";
+  private static final int HELP_TIMEOUT_MILLIS = 10_000;
 
   private @Nullable OSProcessHandler makeProcessHandler;
   private @Nullable OSProcessHandler startServerProcessHandler;
@@ -84,9 +90,11 @@ public final class LlamaServerAgent implements Disposable {
 
           serverProgressPanel.updateText(
               CodeGPTBundle.get("llamaServerAgent.serverBootup.description"));
-          startServerProcessHandler = new OSProcessHandler.Silent(getServerCommandLine(params));
+          var slotSnapshotsSupported = isSlotSaveSupported();
+          startServerProcessHandler = new OSProcessHandler.Silent(
+              getServerCommandLine(params, slotSnapshotsSupported));
           startServerProcessHandler.addProcessListener(
-              getProcessListener(params.port(), onSuccess, onServerTerminated));
+              getProcessListener(params, slotSnapshotsSupported, onSuccess, onServerTerminated));
           startServerProcessHandler.startNotify();
         } catch (ExecutionException ex) {
           LOG.error("Unable to start llama server", ex);
@@ -97,7 +105,8 @@ public final class LlamaServerAgent implements Disposable {
   }
 
   private ProcessListener getProcessListener(
-      int port,
+      LlamaServerStartupParams params,
+      boolean slotSnapshotsSupported,
       Runnable onSuccess,
       Runnable onServerTerminated) {
     return new ProcessAdapter() {
@@ -112,6 +121,8 @@ public final class LlamaServerAgent implements Disposable {
           LOG.info(String.join("", errorLines));
         }
 
+        LlamaSlotSnapshots.getInstance().onServerTerminated();
+        LlamaPromptPrefill.getInstance().cancel();
         onServerTerminated.run();
       }
 
@@ -130,7 +141,9 @@ public final class LlamaServerAgent implements Disposable {
             if ("HTTP server listening".equals(serverMessage.message())) {
               LOG.info("Server up and running!");
 
-              LlamaSettings.getCurrentState().setServerPort(port);
+              LlamaSettings.getCurrentState().setServerPort(params.port());
+              LlamaSlotSnapshots.getInstance()
+                  .onServerStarted(slotSnapshotsSupported ? params.modelPath() : null);
               onSuccess.run();
             }
           } catch (Exception ignore) {
@@ -150,7 +163,31 @@ public final class LlamaServerAgent implements Disposable {
     return commandLine;
   }
 
-  private GeneralCommandLine getServerCommandLine(LlamaServerStartupParams params) {
+  /**
+   * Returns whether the built server can save its slots. Older builds exit on options they don't
+   * know, so the server is started without snapshots unless its usage lists the option.
+   */
+  private static boolean isSlotSaveSupported() {
+    GeneralCommandLine commandLine = new GeneralCommandLine().withCharset(StandardCharsets.UTF_8);
+    commandLine.setExePath("./server");
+    commandLine.withWorkDirectory(CodeGPTPlugin.getLlamaSourcePath());
+    commandLine.addParameters("--help");
+    try {
+      var output = ExecUtil.execAndGetOutput(commandLine, HELP_TIMEOUT_MILLIS);
+      if (output.getStdout().contains(SLOT_SAVE_PATH_OPTION)
+          || output.getStderr().contains(SLOT_SAVE_PATH_OPTION)) {
+        return true;
+      }
+      LOG.info("llama server doesn't support slot snapshots, starting without them");
+    } catch (ExecutionException e) {
+      LOG.warn("Unable to read the usage of llama server", e);
+    }
+    return false;
+  }
+
+  private GeneralCommandLine getServerCommandLine(
+      LlamaServerStartupParams params,
+      boolean slotSnapshotsSupported) {
     GeneralCommandLine commandLine = new GeneralCommandLine().withCharset(StandardCharsets.UTF_8);
     commandLine.setExePath("./server");
     commandLine.withWorkDirectory(CodeGPTPlugin.getLlamaSourcePath());
@@ -159,6 +196,11 @@ public final class LlamaServerAgent implements Disposable {
         "-c", String.valueOf(params.contextLength()),
         "--port", String.valueOf(params.port()),
         "-t", String.valueOf(params.threads()));
+    if (slotSnapshotsSupported) {
+      FileUtil.tryCreateDirectory(CodeGPTPlugin.getLlamaSlotSnapshotsPath());
+      commandLine.addParameters(
+          SLOT_SAVE_PATH_OPTION, CodeGPTPlugin.getLlamaSlotSnapshotsPath() + File.separator);
+    }
     commandLine.addParameters(params.additionalParameters());
     commandLine.setRedirectErrorStream(false);
     return commandLine;
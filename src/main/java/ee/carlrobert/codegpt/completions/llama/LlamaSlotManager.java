@@ -0,0 +1,112 @@
+package ee.carlrobert.codegpt.completions.llama;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettingsState;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pins conversations to the slots of the local llama.cpp server.
+ *
+ * <p>Each slot keeps the KV cache of its last prompt, and with {@code cache_prompt} the server
+ * only evaluates the part of a new prompt that differs from it. Sending every turn of a
+ * conversation to the same slot thus only evaluates the new turn. Slots are handed out in least
+ * recently used order. With more than one slot, the last one is kept for code completions so that
+ * they don't evict the conversations.
+ */
+@Service
+public final class LlamaSlotManager {
+
+  private final Map<UUID, Integer> conversationSlots = new LinkedHashMap<>(16, 0.75f, true);
+
+  private LlamaSlotManager() {
+  }
+
+  public static LlamaSlotManager getInstance() {
+    return ApplicationManager.getApplication().getService(LlamaSlotManager.class);
+  }
+
+  /**
+   * Returns the number of slots of the local server, as set with {@code --parallel}.
+   */
+  public static int getSlotCount() {
+    return getSlotCount(LlamaSettings.getCurrentState());
+  }
+
+  static int getSlotCount(LlamaSettingsState settings) {
+    var parameters = Arrays.stream(settings.getAdditionalParameters().split(","))
+        .map(String::trim)
+        .toList();
+    for (int i = 0; i + 1 < parameters.size(); i++) {
+      var parameter = parameters.get(i);
+      if ("-np".equals(parameter) || "--parallel".equals(parameter)) {
+        try {
+          return Math.max(1, Integer.parseInt(parameters.get(i + 1)));
+        } catch (NumberFormatException e) {
+          return 1;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Returns the slot of the conversation, or {@code null} if the server isn't run locally, in
+   * which case its slots are not known.
+   */
+  public synchronized @Nullable Integer getChatSlot(UUID conversationId) {
+    if (!LlamaSettings.getCurrentState().isRunLocalServer()) {
+      return null;
+    }
+
+    var slotCount = getSlotCount();
+    var chatSlotCount = slotCount > 1 ? slotCount - 1 : 1;
+    var slot = conversationSlots.get(conversationId);
+    if (slot != null && slot < chatSlotCount) {
+      return slot;
+    }
+
+    slot = findFreeSlot(chatSlotCount);
+    if (slot == null) {
+      slot = evictLeastRecentlyUsedSlot(chatSlotCount);
+    }
+    conversationSlots.put(conversationId, slot);
+    return slot;
+  }
+
+  /**
+   * Returns the slot reserved for code completions, or {@code null} if the server isn't run
+   * locally.
+   */
+  public @Nullable Integer getCodeCompletionSlot() {
+    return LlamaSettings.getCurrentState().isRunLocalServer() ? getSlotCount() - 1 : null;
+  }
+
+  private @Nullable Integer findFreeSlot(int chatSlotCount) {
+    var usedSlots = new HashSet<>(conversationSlots.values());
+    for (int slot = 0; slot < chatSlotCount; slot++) {
+      if (!usedSlots.contains(slot)) {
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  private int evictLeastRecentlyUsedSlot(int chatSlotCount) {
+    var iterator = conversationSlots.values().iterator();
+    while (iterator.hasNext()) {
+      var slot = iterator.next();
+      iterator.remove();
+      if (slot < chatSlotCount) {
+        return slot;
+      }
+    }
+    return 0;
+  }
+}
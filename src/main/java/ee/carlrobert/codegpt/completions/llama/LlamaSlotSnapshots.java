@@ -0,0 +1,209 @@
+package ee.carlrobert.codegpt.completions.llama;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.completions.CompletionClientProvider;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Saves the KV cache of the fixed start of the chat prompts to disk and restores it into the
+ * slots of the local llama.cpp server, so that the first request after a restart of the IDE or of
+ * the server doesn't evaluate the system prompt again.
+ *
+ * <p>The server is started with {@code --slot-save-path}, which enables its {@code /slots}
+ * endpoints, if its build supports the option. A snapshot is named after the model and the hash of
+ * the prompt prefix. When a slot gets a prefix it doesn't hold yet, the snapshot is restored into
+ * it; if there's none, the prefix is evaluated on its own and saved, and the request that follows
+ * reuses it from the slot cache.
+ */
+@Service
+public final class LlamaSlotSnapshots {
+
+  private static final Logger LOG = Logger.getInstance(LlamaSlotSnapshots.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
+  private static final String SNAPSHOT_EXTENSION = ".bin";
+  // shorter prefixes are evaluated faster than their snapshot is restored
+  private static final int MIN_PREFIX_LENGTH = 512;
+  private static final int MAX_SNAPSHOTS = 16;
+
+  private final Map<Integer, String> slotSnapshots = new ConcurrentHashMap<>();
+  private volatile @Nullable String modelPath;
+
+  private LlamaSlotSnapshots() {
+  }
+
+  public static LlamaSlotSnapshots getInstance() {
+    return ApplicationManager.getApplication().getService(LlamaSlotSnapshots.class);
+  }
+
+  /**
+   * @param modelPath the model of the server, or null if it was started without snapshots
+   */
+  void onServerStarted(@Nullable String modelPath) {
+    slotSnapshots.clear();
+    this.modelPath = modelPath;
+  }
+
+  void onServerTerminated() {
+    slotSnapshots.clear();
+    modelPath = null;
+  }
+
+  /**
+   * Loads the KV cache of the prompt prefix into the slot before a request is sent to it. Does
+   * nothing if the server wasn't started by the plugin, or if the prefix is too short to benefit.
+   *
+   * @param serverUrl    any URL of the server
+   * @param slotId       the slot that the request is sent to
+   * @param promptPrefix the start of the prompt that is shared by the requests
+   */
+  public synchronized void prepareSlot(HttpUrl serverUrl, int slotId, String promptPrefix) {
+    var currentModelPath = modelPath;
+    if (currentModelPath == null || promptPrefix.length() < MIN_PREFIX_LENGTH) {
+      invalidateSlot(slotId);
+      return;
+    }
+
+    var snapshotName = getSnapshotName(currentModelPath, promptPrefix);
+    // remembered before the server is called, so that a failing server isn't retried on every
+    // request
+    if (snapshotName.equals(slotSnapshots.put(slotId, snapshotName))) {
+      return;
+    }
+
+    var snapshot = getSnapshotDirectory().resolve(snapshotName);
+    if (Files.exists(snapshot)) {
+      if (callSlotAction(serverUrl, slotId, "restore", snapshotName)) {
+        touch(snapshot);
+        return;
+      }
+      // most likely written by an incompatible build of the server
+      deleteSnapshot(snapshot);
+    }
+
+    if (evaluatePrefix(serverUrl, slotId, promptPrefix)
+        && callSlotAction(serverUrl, slotId, "save", snapshotName)) {
+      deleteLeastRecentlyUsedSnapshots();
+    }
+  }
+
+  /**
+   * Forgets the prefix held by the slot, after a request with a different prompt was sent to it.
+   */
+  public void invalidateSlot(int slotId) {
+    slotSnapshots.remove(slotId);
+  }
+
+  static String getSnapshotName(String modelPath, String promptPrefix) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      digest.update(modelPath.getBytes(UTF_8));
+      digest.update((byte) 0);
+      digest.update(promptPrefix.getBytes(UTF_8));
+      return HexFormat.of().formatHex(digest.digest()) + SNAPSHOT_EXTENSION;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Path getSnapshotDirectory() {
+    return Path.of(CodeGPTPlugin.getLlamaSlotSnapshotsPath());
+  }
+
+  private static boolean evaluatePrefix(HttpUrl serverUrl, int slotId, String promptPrefix) {
+    var body = OBJECT_MAPPER.createObjectNode()
+        .put("prompt", promptPrefix)
+        .put("n_predict", 0)
+        .put("cache_prompt", true)
+        .put("id_slot", slotId)
+        .put("slot_id", slotId);
+    return post(serverUrl.newBuilder().encodedPath("/completion").query(null).build(), body);
+  }
+
+  private static boolean callSlotAction(
+      HttpUrl serverUrl,
+      int slotId,
+      String action,
+      String snapshotName) {
+    var url = serverUrl.newBuilder()
+        .encodedPath("/slots/" + slotId)
+        .query(null)
+        .addQueryParameter("action", action)
+        .build();
+    return post(url, OBJECT_MAPPER.createObjectNode().put("filename", snapshotName));
+  }
+
+  private static boolean post(HttpUrl url, Object body) {
+    try {
+      var request = new Request.Builder()
+          .url(url)
+          .post(RequestBody.create(OBJECT_MAPPER.writeValueAsString(body), APPLICATION_JSON))
+          .build();
+      var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+      try (var response = httpClient.newCall(request).execute()) {
+        if (!response.isSuccessful()) {
+          LOG.debug("llama.cpp server responded with " + response.code() + " to " + url);
+        }
+        return response.isSuccessful();
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to call llama.cpp server at " + url, e);
+      return false;
+    }
+  }
+
+  private static void touch(Path snapshot) {
+    try {
+      Files.setLastModifiedTime(snapshot, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug("Unable to update the snapshot " + snapshot, e);
+    }
+  }
+
+  private static void deleteSnapshot(Path snapshot) {
+    try {
+      Files.deleteIfExists(snapshot);
+    } catch (IOException e) {
+      LOG.debug("Unable to delete the snapshot " + snapshot, e);
+    }
+  }
+
+  private static void deleteLeastRecentlyUsedSnapshots() {
+    try (Stream<Path> files = Files.list(getSnapshotDirectory())) {
+      files.filter(file -> file.getFileName().toString().endsWith(SNAPSHOT_EXTENSION))
+          .sorted((a, b) -> getLastModifiedTime(b).compareTo(getLastModifiedTime(a)))
+          .skip(MAX_SNAPSHOTS)
+          .forEach(LlamaSlotSnapshots::deleteSnapshot);
+    } catch (IOException e) {
+      LOG.debug("Unable to list the snapshots", e);
+    }
+  }
+
+  private static FileTime getLastModifiedTime(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+}
@@ -65,14 +65,17 @@ public enum PromptTemplate {
             .append("\n");
       }
 
+      // each turn is rendered the same way as it was when it was the latest one, so the server
+      // can reuse the cached prompt of the previous turn
+      prompt.append("<s>");
       for (Message message : history) {
-        prompt.append("<s> [INST] ")
+        prompt.append(" [INST] ")
             .append(message.getPrompt())
             .append(" [/INST] ")
-            .append(message.getResponse()).append("</s> ");
+            .append(message.getResponse()).append("</s>");
       }
 
-      return prompt.append("[INST] ")
+      return prompt.append(" [INST] ")
           .append(userPrompt)
           .append(" [/INST]")
           .toString();
@@ -1,20 +1,27 @@
 package ee.carlrobert.codegpt.conversations;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import ee.carlrobert.codegpt.conversations.message.Message;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 public class Conversation {
 
+  private static final int MAX_TITLE_LENGTH = 100;
+
   private UUID id;
+  private String title;
   private List<Message> messages = new ArrayList<>();
   private String clientCode;
   private String model;
   private LocalDateTime createdOn;
   private LocalDateTime updatedOn;
   private boolean discardTokenLimit;
+  @JsonIgnore
+  private Supplier<List<Message>> messagesLoader;
 
   public UUID getId() {
     return id;
@@ -24,12 +31,47 @@ public class Conversation {
     this.id = id;
   }
 
-  public List<Message> getMessages() {
+  public synchronized List<Message> getMessages() {
+    if (messagesLoader != null) {
+      messages = new ArrayList<>(messagesLoader.get());
+      messagesLoader = null;
+    }
     return messages;
   }
 
-  public void setMessages(List<Message> messages) {
+  public synchronized void setMessages(List<Message> messages) {
     this.messages = messages;
+    this.messagesLoader = null;
+  }
+
+  synchronized boolean isMessagesLoaded() {
+    return messagesLoader == null;
+  }
+
+  /**
+   * Defers reading the messages until they are first accessed.
+   */
+  synchronized void setMessagesLoader(Supplier<List<Message>> messagesLoader) {
+    this.messages = null;
+    this.messagesLoader = messagesLoader;
+  }
+
+  /**
+   * Returns a short, single line summary of the first message, suitable for listing the
+   * conversations without reading their messages.
+   */
+  public synchronized String getTitle() {
+    if (title == null) {
+      var messages = getMessages();
+      if (!messages.isEmpty()) {
+        title = createTitle(messages.get(0));
+      }
+    }
+    return title == null ? "" : title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
   }
 
   public String getClientCode() {
@@ -40,7 +82,11 @@ public class Conversation {
     this.clientCode = clientCode;
   }
 
-  public void addMessage(Message message) {
+  public synchronized void addMessage(Message message) {
+    var messages = getMessages();
+    if (messages.isEmpty()) {
+      title = createTitle(message);
+    }
     messages.add(message);
   }
 
@@ -76,9 +122,56 @@ public class Conversation {
     return discardTokenLimit;
   }
 
-  public void removeMessage(UUID messageId) {
-    setMessages(messages.stream()
-        .filter(message -> !message.getId().equals(messageId))
-        .toList());
+  public synchronized void removeMessage(UUID messageId) {
+    var messages = getMessages();
+    if (!messages.isEmpty() && messages.get(0).getId().equals(messageId)) {
+      title = null;
+    }
+    messages.removeIf(message -> message.getId().equals(messageId));
+  }
+
+  /**
+   * Returns a copy of the conversation with its own list of the messages, which can be serialized
+   * while messages are added to or removed from the conversation.
+   */
+  synchronized Conversation createSnapshot() {
+    var snapshot = new Conversation();
+    snapshot.id = id;
+    snapshot.title = title;
+    snapshot.messages = new ArrayList<>(getMessages());
+    snapshot.clientCode = clientCode;
+    snapshot.model = model;
+    snapshot.createdOn = createdOn;
+    snapshot.updatedOn = updatedOn;
+    snapshot.discardTokenLimit = discardTokenLimit;
+    return snapshot;
+  }
+
+  private static String createTitle(Message message) {
+    var userMessage = message.getUserMessage();
+    var text = userMessage == null || userMessage.isBlank() ? message.getPrompt() : userMessage;
+    if (text == null) {
+      return "";
+    }
+
+    var title = new StringBuilder();
+    var whitespace = false;
+    for (int i = 0; i < text.length() && title.length() < MAX_TITLE_LENGTH; i++) {
+      var c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        whitespace = !title.isEmpty();
+        continue;
+      }
+      if (whitespace) {
+        title.append(' ');
+        whitespace = false;
+      }
+      title.append(c);
+    }
+    if (title.length() >= MAX_TITLE_LENGTH) {
+      title.setLength(MAX_TITLE_LENGTH - 3);
+      title.append("...");
+    }
+    return title.toString();
   }
 }
@@ -0,0 +1,466 @@
+package ee.carlrobert.codegpt.conversations;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.conversations.message.Message;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Inverted index over the prompts, responses and referenced file paths of every message.
+ *
+ * <p>Every message is a document. The postings are kept in a sorted map, so the last query term
+ * can be matched as a prefix while the user is still typing, and the hits are ranked with BM25.
+ * Only the per-message term frequencies are persisted, the postings are rebuilt from them on
+ * startup. Like the conversation store, changes are written behind, into a segment file per
+ * conversation, so that a change only rewrites the segment of its conversation.
+ */
+@Service
+public final class ConversationSearchIndex implements Disposable {
+
+  private static final Logger LOG = Logger.getInstance(ConversationSearchIndex.class);
+
+  private static final int VERSION = 1;
+  private static final String SEGMENT_FILE_EXTENSION = ".json";
+  // the whole index used to be written into a single file
+  private static final String LEGACY_INDEX_FILE_NAME = "conversation-search-index.json";
+  private static final long FLUSH_DELAY_MILLIS = 1000;
+  private static final int MIN_TERM_LENGTH = 2;
+  private static final int MAX_TERM_LENGTH = 64;
+  private static final int MAX_PREFIX_EXPANSIONS = 64;
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final FlushScheduler flushScheduler =
+      new FlushScheduler("CodeGPT Conversation Search", LOG, FLUSH_DELAY_MILLIS, this::flush);
+  private final Object flushLock = new Object();
+  private final Path indexPath = Path.of(CodeGPTPlugin.getConversationSearchIndexPath());
+  private final TreeMap<String, Map<UUID, Integer>> postings = new TreeMap<>();
+  private final Map<UUID, IndexedMessage> messages = new HashMap<>();
+  private final Map<UUID, Set<UUID>> messageIdsByConversationId = new HashMap<>();
+  private final Set<UUID> dirtyConversations = new HashSet<>();
+  private long totalLength;
+
+  private ConversationSearchIndex() {
+    load();
+    AppExecutorUtil.getAppExecutorService().execute(this::indexMissingConversations);
+  }
+
+  public static ConversationSearchIndex getInstance() {
+    return ApplicationManager.getApplication().getService(ConversationSearchIndex.class);
+  }
+
+  /**
+   * Returns the conversations matching all the terms of the query, best match first. The last
+   * term also matches the terms it is a prefix of.
+   */
+  public synchronized List<SearchHit> search(String query, int limit) {
+    var queryTerms = tokenize(query);
+    if (queryTerms.isEmpty() || messages.isEmpty()) {
+      return List.of();
+    }
+
+    Map<UUID, Double> scores = null;
+    for (int i = 0; i < queryTerms.size(); i++) {
+      var termScores = i == queryTerms.size() - 1
+          ? scorePrefix(queryTerms.get(i))
+          : scoreTerm(queryTerms.get(i), postings.get(queryTerms.get(i)));
+      if (scores == null) {
+        scores = termScores;
+      } else {
+        scores.keySet().retainAll(termScores.keySet());
+        scores.replaceAll((messageId, score) -> score + termScores.get(messageId));
+      }
+      if (scores.isEmpty()) {
+        return List.of();
+      }
+    }
+
+    var bestHits = new HashMap<UUID, SearchHit>();
+    for (var entry : scores.entrySet()) {
+      var conversationId = messages.get(entry.getKey()).conversationId();
+      var hit = new SearchHit(conversationId, entry.getKey(), entry.getValue());
+      bestHits.merge(conversationId, hit, (a, b) -> a.score() >= b.score() ? a : b);
+    }
+    return bestHits.values().stream()
+        .sorted(Comparator.comparingDouble(SearchHit::score).reversed())
+        .limit(limit)
+        .toList();
+  }
+
+  /**
+   * Adds or replaces the message in the index.
+   */
+  public synchronized void indexMessage(@NotNull UUID conversationId, @NotNull Message message) {
+    removeMessage(message.getId());
+    var termFrequencies = new HashMap<String, Integer>();
+    var fields = new ArrayList<String>();
+    fields.add(message.getUserMessage() == null ? message.getPrompt() : message.getUserMessage());
+    fields.add(message.getResponse());
+    if (message.getReferencedFilePaths() != null) {
+      fields.addAll(message.getReferencedFilePaths());
+    }
+    var length = 0;
+    for (var field : fields) {
+      for (var term : tokenize(field)) {
+        termFrequencies.merge(term, 1, Integer::sum);
+        length++;
+      }
+    }
+    addMessage(message.getId(), new IndexedMessage(conversationId, termFrequencies, length));
+    markDirty(conversationId);
+  }
+
+  /**
+   * Brings the index in line with the messages of the conversation: indexes the messages that
+   * are not indexed yet and removes the ones that no longer exist. Messages that are already
+   * indexed are not re-tokenized. Conversations whose messages haven't been loaded are skipped,
+   * they can't have changed.
+   */
+  public synchronized void syncConversation(@NotNull Conversation conversation) {
+    if (!conversation.isMessagesLoaded()) {
+      return;
+    }
+
+    var currentMessages = conversation.getMessages();
+    var currentMessageIds = new HashSet<UUID>();
+    for (var message : currentMessages) {
+      currentMessageIds.add(message.getId());
+      if (!messages.containsKey(message.getId())) {
+        indexMessage(conversation.getId(), message);
+      }
+    }
+    var indexedMessageIds = messageIdsByConversationId.get(conversation.getId());
+    if (indexedMessageIds != null && !currentMessageIds.containsAll(indexedMessageIds)) {
+      new ArrayList<>(indexedMessageIds).stream()
+          .filter(messageId -> !currentMessageIds.contains(messageId))
+          .forEach(this::removeMessage);
+      markDirty(conversation.getId());
+    }
+  }
+
+  public synchronized void removeConversation(@NotNull UUID conversationId) {
+    var messageIds = messageIdsByConversationId.get(conversationId);
+    if (messageIds != null) {
+      new ArrayList<>(messageIds).forEach(this::removeMessage);
+      markDirty(conversationId);
+    }
+  }
+
+  public synchronized void clear() {
+    dirtyConversations.addAll(messageIdsByConversationId.keySet());
+    postings.clear();
+    messages.clear();
+    messageIdsByConversationId.clear();
+    totalLength = 0;
+    flushScheduler.schedule();
+  }
+
+  /**
+   * Writes the segments of the conversations that have changed since the last flush, and deletes
+   * the ones of the conversations that no longer have indexed messages.
+   *
+   * @return {@code false} if some of the segments could not be written, they are retried by
+   * another flush
+   */
+  public boolean flush() {
+    synchronized (flushLock) {
+      Set<UUID> conversationIds;
+      Map<UUID, String> segments = new HashMap<>();
+      synchronized (this) {
+        conversationIds = new HashSet<>(dirtyConversations);
+        dirtyConversations.clear();
+        for (var conversationId : conversationIds) {
+          var messageIds = messageIdsByConversationId.get(conversationId);
+          if (messageIds != null) {
+            segments.put(conversationId, serialize(createSegment(conversationId, messageIds)));
+          }
+        }
+      }
+
+      var flushedConversations = new HashSet<UUID>();
+      try {
+        Files.createDirectories(indexPath);
+        for (var conversationId : conversationIds) {
+          var segmentPath = getSegmentPath(conversationId);
+          var segment = segments.get(conversationId);
+          if (segment == null) {
+            Files.deleteIfExists(segmentPath);
+          } else {
+            ConversationStore.write(segmentPath, segment);
+          }
+          flushedConversations.add(conversationId);
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          conversationIds.stream()
+              .filter(conversationId -> !flushedConversations.contains(conversationId))
+              .forEach(dirtyConversations::add);
+        }
+        flushScheduler.failed("Unable to write the conversation search index to " + indexPath, e);
+        return false;
+      }
+      flushScheduler.succeeded();
+      return true;
+    }
+  }
+
+  @Override
+  public void dispose() {
+    flushScheduler.shutdown();
+    flush();
+  }
+
+  static List<String> tokenize(String text) {
+    if (text == null || text.isEmpty()) {
+      return List.of();
+    }
+
+    var terms = new ArrayList<String>();
+    var start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      var isTermChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (isTermChar && start == -1) {
+        start = i;
+      } else if (!isTermChar && start != -1) {
+        addTerm(terms, text.substring(start, i));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  private static void addTerm(List<String> terms, String word) {
+    if (word.length() < MIN_TERM_LENGTH || word.length() > MAX_TERM_LENGTH) {
+      return;
+    }
+    terms.add(word.toLowerCase(Locale.ROOT));
+
+    // also index the humps of camel case identifiers, e.g. file names
+    var humpStart = 0;
+    for (int i = 1; i < word.length(); i++) {
+      if (Character.isUpperCase(word.charAt(i)) && Character.isLowerCase(word.charAt(i - 1))) {
+        addHump(terms, word.substring(humpStart, i));
+        humpStart = i;
+      }
+    }
+    if (humpStart > 0) {
+      addHump(terms, word.substring(humpStart));
+    }
+  }
+
+  private static void addHump(List<String> terms, String hump) {
+    if (hump.length() >= MIN_TERM_LENGTH) {
+      terms.add(hump.toLowerCase(Locale.ROOT));
+    }
+  }
+
+  private Map<UUID, Double> scorePrefix(String prefix) {
+    var scores = new HashMap<UUID, Double>();
+    var expansions = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    var expanded = 0;
+    for (var termPostings : expansions.values()) {
+      if (expanded++ == MAX_PREFIX_EXPANSIONS) {
+        break;
+      }
+      scoreTerm(prefix, termPostings).forEach((messageId, score) ->
+          scores.merge(messageId, score, Math::max));
+    }
+    return scores;
+  }
+
+  private Map<UUID, Double> scoreTerm(String term, Map<UUID, Integer> termPostings) {
+    var scores = new HashMap<UUID, Double>();
+    if (termPostings == null) {
+      return scores;
+    }
+
+    var documentCount = messages.size();
+    var averageLength = Math.max(1.0, (double) totalLength / documentCount);
+    var idf = Math.log(1 + (documentCount - termPostings.size() + 0.5)
+        / (termPostings.size() + 0.5));
+    for (var entry : termPostings.entrySet()) {
+      var frequency = entry.getValue();
+      var length = messages.get(entry.getKey()).length();
+      var score = idf * frequency * (K1 + 1)
+          / (frequency + K1 * (1 - B + B * length / averageLength));
+      scores.put(entry.getKey(), score);
+    }
+    return scores;
+  }
+
+  private void addMessage(UUID messageId, IndexedMessage message) {
+    messages.put(messageId, message);
+    messageIdsByConversationId
+        .computeIfAbsent(message.conversationId(), key -> new HashSet<>())
+        .add(messageId);
+    message.termFrequencies().forEach((term, frequency) ->
+        postings.computeIfAbsent(term, key -> new HashMap<>()).put(messageId, frequency));
+    totalLength += message.length();
+  }
+
+  private void removeMessage(UUID messageId) {
+    var message = messages.remove(messageId);
+    if (message == null) {
+      return;
+    }
+
+    var conversationMessageIds = messageIdsByConversationId.get(message.conversationId());
+    if (conversationMessageIds != null) {
+      conversationMessageIds.remove(messageId);
+      if (conversationMessageIds.isEmpty()) {
+        messageIdsByConversationId.remove(message.conversationId());
+      }
+    }
+    for (var term : message.termFrequencies().keySet()) {
+      var termPostings = postings.get(term);
+      if (termPostings != null) {
+        termPostings.remove(messageId);
+        if (termPostings.isEmpty()) {
+          postings.remove(term);
+        }
+      }
+    }
+    totalLength -= message.length();
+  }
+
+  private IndexSegment createSegment(UUID conversationId, Set<UUID> messageIds) {
+    var entries = messageIds.stream()
+        .map(messageId -> {
+          var message = messages.get(messageId);
+          return new IndexedMessageEntry(messageId, message.termFrequencies(), message.length());
+        })
+        .toList();
+    return new IndexSegment(VERSION, conversationId, entries);
+  }
+
+  private Path getSegmentPath(UUID conversationId) {
+    return indexPath.resolve(conversationId + SEGMENT_FILE_EXTENSION);
+  }
+
+  /**
+   * Reads the segments. The conversations whose segment can't be used are indexed again from
+   * their messages.
+   */
+  private void load() {
+    deleteFile(indexPath.resolveSibling(LEGACY_INDEX_FILE_NAME));
+    if (!Files.isDirectory(indexPath)) {
+      return;
+    }
+
+    try (Stream<Path> files = Files.list(indexPath)) {
+      files
+          .filter(file -> file.getFileName().toString().endsWith(SEGMENT_FILE_EXTENSION))
+          .forEach(this::loadSegment);
+    } catch (IOException e) {
+      LOG.warn("Unable to read the conversation search index, rebuilding it", e);
+    }
+  }
+
+  private void loadSegment(Path segmentPath) {
+    try {
+      var segment = objectMapper.readValue(segmentPath.toFile(), IndexSegment.class);
+      if (segment.version() == VERSION) {
+        for (var entry : segment.messages()) {
+          addMessage(
+              entry.messageId(),
+              new IndexedMessage(segment.conversationId(), entry.terms(), entry.length()));
+        }
+        return;
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read " + segmentPath + ", rebuilding it", e);
+    }
+    deleteFile(segmentPath);
+  }
+
+  private static void deleteFile(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn("Unable to delete " + path, e);
+    }
+  }
+
+  /**
+   * Indexes the conversations that were stored before the index existed, or while it could not be
+   * written, and drops the ones that have been deleted in the meantime.
+   */
+  private void indexMissingConversations() {
+    var store = ConversationStore.getInstance();
+    var conversations = store.getConversations();
+    var conversationIds = new HashSet<UUID>();
+    for (var conversation : conversations) {
+      conversationIds.add(conversation.getId());
+      synchronized (this) {
+        if (messageIdsByConversationId.containsKey(conversation.getId())) {
+          continue;
+        }
+      }
+      var conversationMessages = conversation.isMessagesLoaded()
+          ? conversation.getMessages()
+          : store.readMessages(conversation.getId());
+      synchronized (this) {
+        if (!messageIdsByConversationId.containsKey(conversation.getId())) {
+          conversationMessages.forEach(message -> indexMessage(conversation.getId(), message));
+        }
+      }
+    }
+
+    synchronized (this) {
+      new ArrayList<>(messageIdsByConversationId.keySet()).stream()
+          .filter(conversationId -> !conversationIds.contains(conversationId))
+          .forEach(this::removeConversation);
+    }
+  }
+
+  private void markDirty(UUID conversationId) {
+    dirtyConversations.add(conversationId);
+    flushScheduler.schedule();
+  }
+
+  private String serialize(Object value) {
+    try {
+      return objectMapper.writeValueAsString(value);
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException("Unable to serialize the conversation search index", e);
+    }
+  }
+
+  public record SearchHit(UUID conversationId, UUID messageId, double score) {
+  }
+
+  private record IndexedMessage(
+      UUID conversationId,
+      Map<String, Integer> termFrequencies,
+      int length) {
+  }
+
+  record IndexSegment(int version, UUID conversationId, List<IndexedMessageEntry> messages) {
+  }
+
+  record IndexedMessageEntry(UUID messageId, Map<String, Integer> terms, int length) {
+  }
+}
@@ -2,6 +2,9 @@ package ee.carlrobert.codegpt.conversations;
 
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.ProjectManager;
+import ee.carlrobert.codegpt.CodeGPTKeys;
+import ee.carlrobert.codegpt.EncodingManager;
 import ee.carlrobert.codegpt.completions.CallParameters;
 import ee.carlrobert.codegpt.conversations.message.Message;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
@@ -13,31 +16,73 @@ import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import org.jetbrains.annotations.NotNull;
 
+/**
+ * Keeps the conversations indexed in memory: by conversation id, by message id, and ordered by
+ * the time they were last updated. The indexes are maintained incrementally on every change, so
+ * lookups and navigation don't need to scan or sort all the conversations.
+ */
 @Service
 public final class ConversationService {
 
-  private final ConversationsState conversationState = ConversationsState.getInstance();
+  private static final Comparator<Conversation> LATEST_FIRST = Comparator
+      .comparing(Conversation::getUpdatedOn, Comparator.nullsLast(Comparator.reverseOrder()))
+      .thenComparing(Conversation::getCreatedOn, Comparator.nullsLast(Comparator.reverseOrder()))
+      .thenComparing(Conversation::getId);
+
+  private final ConversationStore conversationStore = ConversationStore.getInstance();
+  private final ConversationSearchIndex searchIndex = ConversationSearchIndex.getInstance();
+  private final Map<UUID, Conversation> conversationsById = new HashMap<>();
+  private final Map<UUID, Conversation> conversationsByMessageId = new HashMap<>();
+  private final Map<UUID, Set<UUID>> messageIdsByConversationId = new HashMap<>();
+  private final NavigableSet<Conversation> sortedConversations = new TreeSet<>(LATEST_FIRST);
 
   private ConversationService() {
+    conversationStore.getConversations().forEach(this::index);
   }
 
   public static ConversationService getInstance() {
     return ApplicationManager.getApplication().getService(ConversationService.class);
   }
 
-  public List<Conversation> getSortedConversations() {
-    return conversationState.getConversationsMapping()
-        .values()
-        .stream()
-        .flatMap(List::stream)
-        .sorted(Comparator.comparing(Conversation::getUpdatedOn).reversed())
-        .toList();
+  public synchronized List<Conversation> getSortedConversations() {
+    return new ArrayList<>(sortedConversations);
+  }
+
+  public synchronized Optional<Conversation> getConversation(UUID conversationId) {
+    return Optional.ofNullable(conversationsById.get(conversationId));
+  }
+
+  /**
+   * Finds the conversation of the given message among the conversations whose messages have been
+   * loaded.
+   */
+  public synchronized Optional<Conversation> findConversationByMessageId(UUID messageId) {
+    return Optional.ofNullable(conversationsByMessageId.get(messageId));
+  }
+
+  /**
+   * Returns the conversations matching the query, best match first.
+   */
+  public List<Conversation> searchConversations(String query, int limit) {
+    var hits = searchIndex.search(query, limit);
+    synchronized (this) {
+      return hits.stream()
+          .map(hit -> conversationsById.get(hit.conversationId()))
+          .filter(Objects::nonNull)
+          .toList();
+    }
   }
 
   public Conversation createConversation(String clientCode) {
@@ -51,98 +96,84 @@ public final class ConversationService {
     return conversation;
   }
 
-  public void addConversation(Conversation conversation) {
-    var conversationsMapping = conversationState.getConversationsMapping();
-    var conversations = conversationsMapping.get(conversation.getClientCode());
-    if (conversations == null) {
-      conversations = new ArrayList<>();
-    }
-    conversations.add(conversation);
-    conversationsMapping.put(conversation.getClientCode(), conversations);
+  public synchronized void addConversation(Conversation conversation) {
+    index(conversation);
+    conversationStore.save(conversation);
   }
 
-  public void saveMessage(String response, CallParameters callParameters) {
+  public synchronized void saveMessage(String response, CallParameters callParameters) {
     var conversation = callParameters.getConversation();
     var message = callParameters.getMessage();
-    var conversationMessages = conversation.getMessages();
-    if (callParameters.isRetry() && !conversationMessages.isEmpty()) {
-      var messageToBeSaved = conversationMessages.stream()
-          .filter(item -> item.getId().equals(message.getId()))
-          .findFirst().orElseThrow();
+    if (callParameters.isRetry() && !conversation.getMessages().isEmpty()) {
+      var messageToBeSaved = findMessage(conversation, message.getId()).orElseThrow();
       messageToBeSaved.setResponse(response);
+      EncodingManager.getInstance().countTokens(messageToBeSaved);
+      searchIndex.indexMessage(conversation.getId(), messageToBeSaved);
       saveConversation(conversation);
       return;
     }
 
     message.setResponse(response);
+    EncodingManager.getInstance().countTokens(message);
     conversation.addMessage(message);
     saveConversation(conversation);
   }
 
-  public void saveMessage(@NotNull Conversation conversation, @NotNull Message message) {
-    conversation.setUpdatedOn(LocalDateTime.now());
-    var iterator = getIterator(conversation.getClientCode());
-    while (iterator.hasNext()) {
-      var next = iterator.next();
-      next.setMessages(
-          next.getMessages().stream().map(item -> {
-            if (item.getId() == message.getId()) {
-              return message;
-            }
-            return item;
-          }).toList());
-      if (next.getId().equals(conversation.getId())) {
-        iterator.set(conversation);
-      }
+  public synchronized void saveMessage(
+      @NotNull Conversation conversation,
+      @NotNull Message message) {
+    var messages = conversation.getMessages();
+    var index = messages.indexOf(message);
+    if (index != -1) {
+      messages.set(index, message);
     }
+    touch(conversation);
+    conversationStore.save(conversation);
+    searchIndex.indexMessage(conversation.getId(), message);
   }
 
-  public void saveConversation(Conversation conversation) {
-    conversation.setUpdatedOn(LocalDateTime.now());
-    var iterator = getIterator(conversation.getClientCode());
-    while (iterator.hasNext()) {
-      var next = iterator.next();
-      if (next.getId().equals(conversation.getId())) {
-        iterator.set(conversation);
-      }
-    }
-    conversationState.setCurrentConversation(conversation);
+  public synchronized void saveConversation(Conversation conversation) {
+    touch(conversation);
+    conversationStore.save(conversation);
+    conversationStore.setCurrentConversation(conversation);
+    searchIndex.syncConversation(conversation);
   }
 
-  public Conversation startConversation() {
+  public synchronized Conversation startConversation() {
     var completionCode = GeneralSettings.getCurrentState().getSelectedService().getCompletionCode();
     var conversation = createConversation(completionCode);
-    conversationState.setCurrentConversation(conversation);
+    conversationStore.setCurrentConversation(conversation);
     addConversation(conversation);
     return conversation;
   }
 
-  public void clearAll() {
-    conversationState.getConversationsMapping().clear();
-    conversationState.setCurrentConversation(null);
+  public synchronized void clearAll() {
+    conversationsById.clear();
+    conversationsByMessageId.clear();
+    messageIdsByConversationId.clear();
+    sortedConversations.clear();
+    conversationStore.deleteAll();
+    searchIndex.clear();
+    removeUnreferencedAttachments();
   }
 
-  public void deleteConversation(Conversation conversation) {
-    var iterator = getIterator(conversation.getClientCode());
-    while (iterator.hasNext()) {
-      var next = iterator.next();
-      if (next.getId().equals(conversation.getId())) {
-        iterator.remove();
-        break;
-      }
-    }
+  public synchronized void deleteConversation(Conversation conversation) {
+    unindex(conversation.getId());
+    conversationStore.delete(conversation.getId());
+    searchIndex.removeConversation(conversation.getId());
+    removeUnreferencedAttachments();
   }
 
-  public void deleteSelectedConversation() {
+  public synchronized void deleteSelectedConversation() {
     var nextConversation = getPreviousConversation();
     if (nextConversation.isEmpty()) {
       nextConversation = getNextConversation();
     }
 
-    var currentConversation = ConversationsState.getCurrentConversation();
+    var currentConversation = conversationStore.getCurrentConversation();
     if (currentConversation != null) {
       deleteConversation(currentConversation);
-      nextConversation.ifPresent(conversationState::setCurrentConversation);
+      nextConversation.ifPresent(conversationStore::setCurrentConversation);
     } else {
       throw new RuntimeException("Tried to delete a conversation that hasn't been set");
     }
@@ -153,36 +184,101 @@ public final class ConversationService {
     saveConversation(conversation);
   }
 
-  public Optional<Conversation> getPreviousConversation() {
-    return tryGetNextOrPreviousConversation(true);
+  /**
+   * Returns the conversation that was updated before the current one.
+   */
+  public synchronized Optional<Conversation> getPreviousConversation() {
+    var currentConversation = getIndexedCurrentConversation();
+    return currentConversation == null
+        ? Optional.empty()
+        : Optional.ofNullable(sortedConversations.higher(currentConversation));
   }
 
-  public Optional<Conversation> getNextConversation() {
-    return tryGetNextOrPreviousConversation(false);
+  /**
+   * Returns the conversation that was updated after the current one.
+   */
+  public synchronized Optional<Conversation> getNextConversation() {
+    var currentConversation = getIndexedCurrentConversation();
+    return currentConversation == null
+        ? Optional.empty()
+        : Optional.ofNullable(sortedConversations.lower(currentConversation));
   }
 
-  private ListIterator<Conversation> getIterator(String clientCode) {
-    return conversationState.getConversationsMapping()
-        .get(clientCode)
-        .listIterator();
+  private Conversation getIndexedCurrentConversation() {
+    var currentConversation = conversationStore.getCurrentConversation();
+    if (currentConversation == null) {
+      return null;
+    }
+    return conversationsById.getOrDefault(currentConversation.getId(), currentConversation);
   }
 
-  private Optional<Conversation> tryGetNextOrPreviousConversation(boolean isPrevious) {
-    var currentConversation = ConversationsState.getCurrentConversation();
-    if (currentConversation != null) {
-      var sortedConversations = getSortedConversations();
-      for (int i = 0; i < sortedConversations.size(); i++) {
-        var conversation = sortedConversations.get(i);
-        if (conversation != null && conversation.getId().equals(currentConversation.getId())) {
-          // higher index indicates older conversation
-          var previousIndex = isPrevious ? i + 1 : i - 1;
-          if (isPrevious ? previousIndex < sortedConversations.size() : previousIndex != -1) {
-            return Optional.of(sortedConversations.get(previousIndex));
-          }
-        }
+  private Optional<Message> findMessage(Conversation conversation, UUID messageId) {
+    return conversation.getMessages().stream()
+        .filter(item -> item.getId().equals(messageId))
+        .findFirst();
+  }
+
+  /**
+   * Updates the modification time of the conversation, re-positioning it in the ordered index.
+   */
+  private void touch(Conversation conversation) {
+    unindex(conversation.getId());
+    conversation.setUpdatedOn(LocalDateTime.now());
+    index(conversation);
+  }
+
+  private void index(Conversation conversation) {
+    unindex(conversation.getId());
+    conversationsById.put(conversation.getId(), conversation);
+    sortedConversations.add(conversation);
+    if (conversation.isMessagesLoaded()) {
+      var messageIds = new HashSet<UUID>();
+      for (var message : conversation.getMessages()) {
+        messageIds.add(message.getId());
+        conversationsByMessageId.put(message.getId(), conversation);
       }
+      messageIdsByConversationId.put(conversation.getId(), messageIds);
     }
-    return Optional.empty();
+  }
+
+  private void unindex(UUID conversationId) {
+    var conversation = conversationsById.remove(conversationId);
+    if (conversation != null) {
+      sortedConversations.remove(conversation);
+    }
+    var messageIds = messageIdsByConversationId.remove(conversationId);
+    if (messageIds != null) {
+      messageIds.forEach(conversationsByMessageId::remove);
+    }
+  }
+
+  /**
+   * Deletes the attached images that the remaining conversations don't refer to anymore. Done in
+   * the background, as the messages that haven't been loaded are read for it.
+   */
+  private void removeUnreferencedAttachments() {
+    var conversations = new ArrayList<>(conversationsById.values());
+    ApplicationManager.getApplication().executeOnPooledThread(() ->
+        ImageAttachmentStore.getInstance().removeUnreferenced(() -> {
+          var referencedPaths = new HashSet<String>();
+          for (var conversation : conversations) {
+            var messages = conversation.isMessagesLoaded()
+                ? conversation.createSnapshot().getMessages()
+                : conversationStore.readMessages(conversation.getId());
+            for (var message : messages) {
+              if (message.getImageFilePath() != null) {
+                referencedPaths.add(message.getImageFilePath());
+              }
+            }
+          }
+          for (var project : ProjectManager.getInstance().getOpenProjects()) {
+            var pendingPath = CodeGPTKeys.IMAGE_ATTACHMENT_FILE_PATH.get(project);
+            if (pendingPath != null && !pendingPath.isEmpty()) {
+              referencedPaths.add(pendingPath);
+            }
+          }
+          return referencedPaths;
+        }));
   }
 
   private static String getModelForSelectedService(ServiceType serviceType) {
@@ -0,0 +1,356 @@
+package ee.carlrobert.codegpt.conversations;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.conversations.message.Message;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stores every conversation in its own file, next to a compact index of the conversation
+ * metadata.
+ *
+ * <p>Only the index is read on startup, the messages of a conversation are read from its file
+ * when they are first accessed. Changes are written behind: saved conversations are marked dirty
+ * and flushed in the background, so only the conversations that actually changed are rewritten.
+ */
+@Service
+public final class ConversationStore implements Disposable {
+
+  private static final Logger LOG = Logger.getInstance(ConversationStore.class);
+
+  private static final String INDEX_FILE_NAME = "index.json";
+  private static final String CONVERSATION_FILE_EXTENSION = ".json";
+  private static final long FLUSH_DELAY_MILLIS = 1000;
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .registerModule(new Jdk8Module())
+      .registerModule(new JavaTimeModule())
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final FlushScheduler flushScheduler =
+      new FlushScheduler("CodeGPT Conversation Store", LOG, FLUSH_DELAY_MILLIS, this::flush);
+  private final Object flushLock = new Object();
+  private final Path storePath = Path.of(CodeGPTPlugin.getConversationStorePath());
+  private final Map<UUID, Conversation> conversations = new LinkedHashMap<>();
+  private final Set<UUID> dirtyConversations = new HashSet<>();
+  private final Set<UUID> deletedConversations = new HashSet<>();
+  private @Nullable Conversation currentConversation;
+  private boolean indexDirty;
+
+  private ConversationStore() {
+    load();
+    migrateLegacyState(ConversationsState.getInstance());
+  }
+
+  public static ConversationStore getInstance() {
+    return ApplicationManager.getApplication().getService(ConversationStore.class);
+  }
+
+  public synchronized List<Conversation> getConversations() {
+    return new ArrayList<>(conversations.values());
+  }
+
+  public synchronized @Nullable Conversation getConversation(UUID conversationId) {
+    return conversations.get(conversationId);
+  }
+
+  public synchronized @Nullable Conversation getCurrentConversation() {
+    return currentConversation;
+  }
+
+  public synchronized void setCurrentConversation(@Nullable Conversation conversation) {
+    currentConversation = conversation;
+    markIndexDirty();
+  }
+
+  /**
+   * Adds or replaces the conversation and schedules it to be written.
+   */
+  public synchronized void save(@NotNull Conversation conversation) {
+    conversations.put(conversation.getId(), conversation);
+    deletedConversations.remove(conversation.getId());
+    dirtyConversations.add(conversation.getId());
+    markIndexDirty();
+  }
+
+  public synchronized void delete(@NotNull UUID conversationId) {
+    conversations.remove(conversationId);
+    dirtyConversations.remove(conversationId);
+    deletedConversations.add(conversationId);
+    markIndexDirty();
+  }
+
+  public synchronized void deleteAll() {
+    deletedConversations.addAll(conversations.keySet());
+    conversations.clear();
+    dirtyConversations.clear();
+    currentConversation = null;
+    markIndexDirty();
+  }
+
+  /**
+   * Writes the pending changes to disk.
+   *
+   * @return {@code false} if some of the changes could not be written, they are retried by
+   * another flush
+   */
+  public boolean flush() {
+    synchronized (flushLock) {
+      Map<UUID, Conversation> conversationsToWrite = new HashMap<>();
+      Set<UUID> conversationsToDelete;
+      ConversationIndex index = null;
+      synchronized (this) {
+        for (var conversationId : dirtyConversations) {
+          conversationsToWrite.put(conversationId, conversations.get(conversationId));
+        }
+        dirtyConversations.clear();
+        conversationsToDelete = new HashSet<>(deletedConversations);
+        deletedConversations.clear();
+        if (indexDirty) {
+          index = createIndex();
+          indexDirty = false;
+        }
+      }
+
+      var writtenConversations = new HashSet<UUID>();
+      var deletedFiles = new HashSet<UUID>();
+      Exception failure = null;
+      try {
+        Files.createDirectories(storePath);
+        for (var entry : conversationsToWrite.entrySet()) {
+          try {
+            write(getConversationPath(entry.getKey()), serializeConversation(entry.getValue()));
+            writtenConversations.add(entry.getKey());
+          } catch (IOException | RuntimeException e) {
+            failure = e;
+          }
+        }
+        for (var conversationId : conversationsToDelete) {
+          Files.deleteIfExists(getConversationPath(conversationId));
+          deletedFiles.add(conversationId);
+        }
+        if (index != null) {
+          write(storePath.resolve(INDEX_FILE_NAME), objectMapper.writeValueAsString(index));
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+
+      if (failure == null) {
+        flushScheduler.succeeded();
+        return true;
+      }
+      synchronized (this) {
+        conversationsToWrite.keySet().stream()
+            .filter(conversationId -> !writtenConversations.contains(conversationId))
+            .filter(conversations::containsKey)
+            .forEach(dirtyConversations::add);
+        conversationsToDelete.stream()
+            .filter(conversationId -> !deletedFiles.contains(conversationId))
+            .filter(conversationId -> !conversations.containsKey(conversationId))
+            .forEach(deletedConversations::add);
+        indexDirty = true;
+      }
+      flushScheduler.failed("Unable to persist the conversations to " + storePath, failure);
+      return false;
+    }
+  }
+
+  @Override
+  public void dispose() {
+    flushScheduler.shutdown();
+    flush();
+  }
+
+  /**
+   * Moves the conversations of the former single file storage into the store. The legacy state is
+   * cleared only once the conversations have been written successfully.
+   */
+  void migrateLegacyState(ConversationsState state) {
+    var legacyConversations = state.conversationsContainer.getConversationsMapping()
+        .values()
+        .stream()
+        .flatMap(List::stream)
+        .toList();
+    var legacyCurrentConversation = state.legacyCurrentConversation;
+    if (legacyConversations.isEmpty() && legacyCurrentConversation == null) {
+      return;
+    }
+
+    synchronized (this) {
+      for (var conversation : legacyConversations) {
+        if (!conversations.containsKey(conversation.getId())) {
+          save(conversation);
+        }
+      }
+      if (currentConversation == null && legacyCurrentConversation != null) {
+        currentConversation =
+            conversations.getOrDefault(legacyCurrentConversation.getId(), legacyCurrentConversation);
+        markIndexDirty();
+      }
+    }
+
+    if (flush()) {
+      LOG.info("Migrated " + legacyConversations.size() + " conversations to " + storePath);
+      state.conversationsContainer = new ConversationsContainer();
+      state.legacyCurrentConversation = null;
+    }
+  }
+
+  private void load() {
+    var indexPath = storePath.resolve(INDEX_FILE_NAME);
+    if (Files.exists(indexPath)) {
+      try {
+        var index = objectMapper.readValue(indexPath.toFile(), ConversationIndex.class);
+        for (var metadata : index.conversations()) {
+          conversations.put(metadata.id(), createConversation(metadata));
+        }
+        if (index.currentConversationId() != null) {
+          currentConversation = conversations.get(index.currentConversationId());
+        }
+        return;
+      } catch (IOException e) {
+        LOG.warn("Unable to read the conversation index, rebuilding it", e);
+      }
+    }
+    rebuildIndex();
+  }
+
+  private void rebuildIndex() {
+    if (!Files.isDirectory(storePath)) {
+      return;
+    }
+
+    try (var files = Files.list(storePath)) {
+      files
+          .filter(file -> file.getFileName().toString().endsWith(CONVERSATION_FILE_EXTENSION))
+          .filter(file -> !file.getFileName().toString().equals(INDEX_FILE_NAME))
+          .forEach(file -> {
+            try {
+              var conversation = objectMapper.readValue(file.toFile(), Conversation.class);
+              conversations.put(conversation.getId(), conversation);
+            } catch (IOException e) {
+              LOG.warn("Unable to read the conversation file " + file, e);
+            }
+          });
+      indexDirty = !conversations.isEmpty();
+    } catch (IOException e) {
+      LOG.error("Unable to read the conversations", e);
+    }
+  }
+
+  private Conversation createConversation(ConversationMetadata metadata) {
+    var conversation = new Conversation();
+    conversation.setId(metadata.id());
+    conversation.setTitle(metadata.title());
+    conversation.setClientCode(metadata.clientCode());
+    conversation.setModel(metadata.model());
+    conversation.setCreatedOn(metadata.createdOn());
+    conversation.setUpdatedOn(metadata.updatedOn());
+    if (metadata.discardTokenLimit()) {
+      conversation.discardTokenLimits();
+    }
+    conversation.setMessagesLoader(() -> readMessages(metadata.id()));
+    return conversation;
+  }
+
+  /**
+   * Reads the messages of the conversation from its file, without attaching them to the
+   * conversation.
+   */
+  List<Message> readMessages(UUID conversationId) {
+    var path = getConversationPath(conversationId);
+    if (!Files.exists(path)) {
+      return List.of();
+    }
+    try {
+      return objectMapper.readValue(path.toFile(), Conversation.class).getMessages();
+    } catch (IOException e) {
+      LOG.error("Unable to read the messages of conversation " + conversationId, e);
+      return List.of();
+    }
+  }
+
+  private ConversationIndex createIndex() {
+    var metadata = conversations.values().stream()
+        .map(conversation -> new ConversationMetadata(
+            conversation.getId(),
+            conversation.getTitle(),
+            conversation.getClientCode(),
+            conversation.getModel(),
+            conversation.getCreatedOn(),
+            conversation.getUpdatedOn(),
+            conversation.isDiscardTokenLimit()))
+        .toList();
+    return new ConversationIndex(
+        currentConversation == null ? null : currentConversation.getId(),
+        metadata);
+  }
+
+  private void markIndexDirty() {
+    indexDirty = true;
+    flushScheduler.schedule();
+  }
+
+  private Path getConversationPath(UUID conversationId) {
+    return storePath.resolve(conversationId + CONVERSATION_FILE_EXTENSION);
+  }
+
+  /**
+   * Serializes a snapshot of the conversation, whose messages may be changed meanwhile.
+   */
+  private String serializeConversation(Conversation conversation)
+      throws JsonProcessingException {
+    return objectMapper.writeValueAsString(conversation.createSnapshot());
+  }
+
+  /**
+   * Replaces the file atomically, so that a failed write leaves the previous content.
+   */
+  static void write(Path path, String content) throws IOException {
+    var tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.writeString(tempFile, content, StandardCharsets.UTF_8);
+    Files.move(
+        tempFile,
+        path,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  record ConversationIndex(
+      @Nullable UUID currentConversationId,
+      List<ConversationMetadata> conversations) {
+  }
+
+  record ConversationMetadata(
+      UUID id,
+      @Nullable String title,
+      String clientCode,
+      String model,
+      LocalDateTime createdOn,
+      LocalDateTime updatedOn,
+      boolean discardTokenLimit) {
+  }
+}
@@ -8,8 +8,6 @@ import com.intellij.util.xmlb.XmlSerializerUtil;
 import com.intellij.util.xmlb.annotations.OptionTag;
 import ee.carlrobert.codegpt.conversations.converter.ConversationConverter;
 import ee.carlrobert.codegpt.conversations.converter.ConversationsConverter;
-import java.util.List;
-import java.util.Map;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -18,11 +16,15 @@ import org.jetbrains.annotations.Nullable;
     storages = @Storage("ChatGPTConversations_170.xml"))
 public class ConversationsState implements PersistentStateComponent<ConversationsState> {
 
+  /**
+   * Legacy storage of all the conversations, only read to migrate them into the
+   * {@link ConversationStore}.
+   */
   @OptionTag(converter = ConversationsConverter.class)
   public ConversationsContainer conversationsContainer = new ConversationsContainer();
 
-  @OptionTag(converter = ConversationConverter.class)
-  public Conversation currentConversation;
+  @OptionTag(value = "currentConversation", converter = ConversationConverter.class)
+  public Conversation legacyCurrentConversation;
 
   public boolean discardAllTokenLimits;
 
@@ -46,14 +48,10 @@ public class ConversationsState implements PersistentStateComponent<Conversation
   }
 
   public void setCurrentConversation(@Nullable Conversation conversation) {
-    this.currentConversation = conversation;
+    ConversationStore.getInstance().setCurrentConversation(conversation);
   }
 
   public static @Nullable Conversation getCurrentConversation() {
-    return getInstance().currentConversation;
-  }
-
-  public Map<String, List<Conversation>> getConversationsMapping() {
-    return conversationsContainer.getConversationsMapping();
+    return ConversationStore.getInstance().getCurrentConversation();
   }
 }
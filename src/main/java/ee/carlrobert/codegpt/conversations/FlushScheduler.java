@@ -0,0 +1,84 @@
+package ee.carlrobert.codegpt.conversations;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the write-behind flushes of a store on its own thread, shortly after the changes.
+ *
+ * <p>A flush that fails is retried, with a delay that doubles after every failure in a row, so
+ * that a full disk or a read-only directory isn't written to every second. Its failure is logged
+ * once per such streak.
+ */
+final class FlushScheduler {
+
+  private static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private final Logger log;
+  private final long delayMillis;
+  private final BooleanSupplier flush;
+  private final ScheduledExecutorService executor;
+  private boolean scheduled;
+  private int failures;
+
+  /**
+   * @param flush writes the pending changes, returning {@code false} if some of them couldn't be
+   *              written and have to be retried
+   */
+  FlushScheduler(String name, Logger log, long delayMillis, BooleanSupplier flush) {
+    this.log = log;
+    this.delayMillis = delayMillis;
+    this.flush = flush;
+    executor = AppExecutorUtil.createBoundedScheduledExecutorService(name, 1);
+  }
+
+  /**
+   * Schedules a flush, unless one is scheduled already or the scheduler has been shut down, in
+   * which case the caller's final flush writes the changes.
+   */
+  synchronized void schedule() {
+    if (scheduled || executor.isShutdown()) {
+      return;
+    }
+    scheduled = true;
+    var delay = failures == 0
+        ? delayMillis
+        : Math.min(MAX_DELAY_MILLIS, delayMillis << Math.min(failures, 16));
+    executor.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Records that a flush has written all its changes.
+   */
+  synchronized void succeeded() {
+    if (failures > 0) {
+      log.info("Flushed the changes after " + failures + " failed attempts");
+    }
+    failures = 0;
+  }
+
+  /**
+   * Records that a flush has failed and schedules its retry. Only the first failure of a streak
+   * is logged.
+   */
+  synchronized void failed(String message, Throwable cause) {
+    if (failures++ == 0) {
+      log.warn(message, cause);
+    }
+    schedule();
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private void run() {
+    synchronized (this) {
+      scheduled = false;
+    }
+    flush.getAsBoolean();
+  }
+}
@@ -0,0 +1,280 @@
+package ee.carlrobert.codegpt.conversations;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.util.file.FileUtil;
+import ee.carlrobert.llm.client.openai.completion.request.OpenAIImageUrl;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the images attached to the messages, addressed by the hash of their content.
+ *
+ * <p>An image is downscaled once when it's attached, to the resolution that the providers
+ * actually look at: OpenAI scales the shorter side of detailed images down to 768 pixels and
+ * Anthropic the longer side to 1568 pixels, so larger images only add to the upload. The messages
+ * refer to the stored copy, whose bytes are kept in memory for the following requests of the
+ * conversation, along with their encoded payload. Copies that no message refers to anymore are
+ * removed once their conversations are deleted.
+ */
+@Service
+public final class ImageAttachmentStore {
+
+  private static final Logger LOG = Logger.getInstance(ImageAttachmentStore.class);
+  private static final int MAX_LONG_SIDE = 1568;
+  private static final int MAX_SHORT_SIDE = 768;
+  private static final float JPEG_QUALITY = 0.85f;
+  private static final long MAX_CACHED_BYTES = 32L * 1024 * 1024;
+  // an image is attached before the message that refers to it is sent
+  private static final long UNREFERENCED_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final Path storePath = Path.of(CodeGPTPlugin.getImageAttachmentStorePath());
+  private final Map<String, ImageAttachment> attachments = new LinkedHashMap<>(16, 0.75f, true);
+  private long cachedBytes;
+
+  private ImageAttachmentStore() {
+  }
+
+  public static ImageAttachmentStore getInstance() {
+    return ApplicationManager.getApplication().getService(ImageAttachmentStore.class);
+  }
+
+  /**
+   * Stores a downscaled copy of the image, unless the same image was attached before.
+   *
+   * @return the path of the stored copy
+   */
+  public Path attach(Path imagePath) throws IOException {
+    var data = Files.readAllBytes(imagePath);
+    var extension = FileUtil.getFileExtension(imagePath.getFileName().toString())
+        .toLowerCase(Locale.ROOT);
+    var storedPath = storePath.resolve(getContentHash(data) + "." + extension);
+    if (Files.exists(storedPath)) {
+      touch(storedPath);
+      return storedPath;
+    }
+
+    var downscaledData = downscale(data, FileUtil.getImageMediaType(extension));
+    Files.createDirectories(storePath);
+    var tempFile = Files.createTempFile(storePath, "attachment", ".tmp");
+    try {
+      Files.write(tempFile, downscaledData);
+      Files.move(tempFile, storedPath, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    return storedPath;
+  }
+
+  /**
+   * Returns the image of a message, which is only read from disk the first time.
+   */
+  public synchronized ImageAttachment get(String imageFilePath) throws IOException {
+    var attachment = attachments.get(imageFilePath);
+    if (attachment != null) {
+      return attachment;
+    }
+
+    var path = Path.of(imageFilePath);
+    attachment = new ImageAttachment(
+        FileUtil.getImageMediaType(
+            path.getFileName().toString().toLowerCase(Locale.ROOT)),
+        Files.readAllBytes(path));
+    attachments.put(imageFilePath, attachment);
+    cachedBytes += attachment.getData().length;
+    evictLeastRecentlyUsed();
+    return attachment;
+  }
+
+  /**
+   * Deletes the stored images that none of the given paths refer to, except for the ones stored
+   * recently, which may still be attached to a message that hasn't been sent.
+   *
+   * @param referencedPaths supplies the image paths of the messages and of the pending
+   *                        attachments, only called if there are stored images
+   */
+  public void removeUnreferenced(Supplier<Set<String>> referencedPaths) {
+    if (!Files.isDirectory(storePath)) {
+      return;
+    }
+
+    var referencedFiles = referencedPaths.get().stream()
+        .map(path -> Path.of(path).toAbsolutePath().normalize())
+        .collect(Collectors.toSet());
+    var storedBefore = System.currentTimeMillis() - UNREFERENCED_GRACE_MILLIS;
+    try (Stream<Path> files = Files.list(storePath)) {
+      files.filter(file -> !referencedFiles.contains(file.toAbsolutePath().normalize()))
+          .filter(file -> getLastModifiedMillis(file) < storedBefore)
+          .forEach(this::remove);
+    } catch (IOException e) {
+      LOG.warn("Unable to list the image attachments", e);
+    }
+  }
+
+  static byte[] downscale(byte[] data, String mediaType) throws IOException {
+    var image = ImageIO.read(new ByteArrayInputStream(data));
+    if (image == null) {
+      return data;
+    }
+    var scale = getScale(image.getWidth(), image.getHeight());
+    if (scale >= 1) {
+      return data;
+    }
+
+    var png = "image/png".equals(mediaType);
+    var width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    var height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+    var scaledImage = new BufferedImage(
+        width,
+        height,
+        png ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    var graphics = scaledImage.createGraphics();
+    try {
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return png ? writePng(scaledImage) : writeJpeg(scaledImage);
+  }
+
+  /**
+   * Returns the factor by which an image of the given size is scaled down, or a value of at
+   * least 1 if the image is small enough already.
+   */
+  static double getScale(int width, int height) {
+    var longSide = Math.max(width, height);
+    var shortSide = Math.min(width, height);
+    return Math.min(
+        (double) MAX_LONG_SIDE / longSide,
+        (double) MAX_SHORT_SIDE / shortSide);
+  }
+
+  private static byte[] writePng(BufferedImage image) throws IOException {
+    var output = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", output);
+    return output.toByteArray();
+  }
+
+  private static byte[] writeJpeg(BufferedImage image) throws IOException {
+    var writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    var output = new ByteArrayOutputStream();
+    try (var imageOutput = new MemoryCacheImageOutputStream(output)) {
+      var params = writer.getDefaultWriteParam();
+      params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      params.setCompressionQuality(JPEG_QUALITY);
+      writer.setOutput(imageOutput);
+      writer.write(null, new IIOImage(image, null, null), params);
+    } finally {
+      writer.dispose();
+    }
+    return output.toByteArray();
+  }
+
+  private static String getContentHash(byte[] data) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void remove(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOG.warn("Unable to delete the image attachment " + file, e);
+      return;
+    }
+    synchronized (this) {
+      var attachment = attachments.remove(file.toString());
+      if (attachment != null) {
+        cachedBytes -= attachment.getData().length;
+      }
+    }
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug("Unable to update the image attachment " + file, e);
+    }
+  }
+
+  private static long getLastModifiedMillis(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      // likely deleted meanwhile, which leaves nothing to remove
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private void evictLeastRecentlyUsed() {
+    var iterator = attachments.values().iterator();
+    // the most recently used attachment is kept even if it exceeds the limit on its own
+    while (cachedBytes > MAX_CACHED_BYTES && attachments.size() > 1) {
+      cachedBytes -= iterator.next().getData().length;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * An attached image, along with the payload it's sent as.
+   */
+  public static final class ImageAttachment {
+
+    private final String mediaType;
+    private final byte[] data;
+    private @Nullable OpenAIImageUrl openAIImageUrl;
+
+    ImageAttachment(String mediaType, byte[] data) {
+      this.mediaType = mediaType;
+      this.data = data;
+    }
+
+    public String getMediaType() {
+      return mediaType;
+    }
+
+    public byte[] getData() {
+      return data;
+    }
+
+    public synchronized OpenAIImageUrl getOpenAIImageUrl() {
+      if (openAIImageUrl == null) {
+        openAIImageUrl = new OpenAIImageUrl(mediaType, data);
+      }
+      return openAIImageUrl;
+    }
+  }
+}
@@ -4,8 +4,10 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import ee.carlrobert.llm.client.you.completion.YouSerpResult;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.jetbrains.annotations.Nullable;
 
 public class Message {
@@ -17,6 +19,7 @@ public class Message {
   private List<YouSerpResult> serpResults;
   private List<String> referencedFilePaths;
   private @Nullable String imageFilePath;
+  private Map<String, MessageTokenCounts> tokenCounts = new ConcurrentHashMap<>();
 
   public Message(String prompt, String response) {
     this(prompt);
@@ -81,6 +84,20 @@ public class Message {
     this.imageFilePath = imageFilePath;
   }
 
+  /**
+   * Returns the token counts of the message, keyed by the name of the tokenizer that produced
+   * them.
+   */
+  public Map<String, MessageTokenCounts> getTokenCounts() {
+    return tokenCounts;
+  }
+
+  public void setTokenCounts(Map<String, MessageTokenCounts> tokenCounts) {
+    this.tokenCounts = tokenCounts == null
+        ? new ConcurrentHashMap<>()
+        : new ConcurrentHashMap<>(tokenCounts);
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj == this) {
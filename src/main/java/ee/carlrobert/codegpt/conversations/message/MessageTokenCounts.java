@@ -0,0 +1,50 @@
+package ee.carlrobert.codegpt.conversations.message;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.Objects;
+
+/**
+ * Token counts of the prompt and the response of a message, as counted by a single tokenizer.
+ *
+ * <p>Each count is stored together with the hash and the length of the text it was computed from,
+ * so a stale count is detected without re-tokenizing the text.
+ */
+public record MessageTokenCounts(
+    int promptHash,
+    int promptLength,
+    int promptTokens,
+    int responseHash,
+    int responseLength,
+    int responseTokens) {
+
+  public static MessageTokenCounts of(
+      String prompt,
+      int promptTokens,
+      String response,
+      int responseTokens) {
+    return new MessageTokenCounts(
+        Objects.hashCode(prompt),
+        getLength(prompt),
+        promptTokens,
+        Objects.hashCode(response),
+        getLength(response),
+        responseTokens);
+  }
+
+  public boolean isPromptCountValid(String prompt) {
+    return promptHash == Objects.hashCode(prompt) && promptLength == getLength(prompt);
+  }
+
+  public boolean isResponseCountValid(String response) {
+    return responseHash == Objects.hashCode(response) && responseLength == getLength(response);
+  }
+
+  @JsonIgnore
+  public int getTotalTokens() {
+    return promptTokens + responseTokens;
+  }
+
+  private static int getLength(String text) {
+    return text == null ? 0 : text.length();
+  }
+}
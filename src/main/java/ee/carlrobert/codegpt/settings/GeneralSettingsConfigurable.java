@@ -11,6 +11,8 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.util.Disposer;
 import ee.carlrobert.codegpt.CodeGPTBundle;
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService;
+import ee.carlrobert.codegpt.completions.LlamaPromptPrefill;
 import ee.carlrobert.codegpt.conversations.ConversationsState;
 import ee.carlrobert.codegpt.credentials.CredentialsStore;
 import ee.carlrobert.codegpt.settings.service.anthropic.AnthropicSettings;
@@ -77,10 +79,15 @@ public class GeneralSettingsConfigurable implements Configurable {
   @Override
   public void apply() {
     var settings = GeneralSettings.getCurrentState();
+    var serviceSelectionForm = component.getServiceSelectionForm();
+    if (component.getSelectedService() != settings.getSelectedService()
+        || LlamaSettings.getInstance().isModified(serviceSelectionForm.getLlamaSettingsForm())) {
+      // the prefill would warm up the previous model or server
+      LlamaPromptPrefill.getInstance().cancel();
+    }
     settings.setDisplayName(component.getDisplayName());
     settings.setSelectedService(component.getSelectedService());
 
-    var serviceSelectionForm = component.getServiceSelectionForm();
     var openAISettingsForm = serviceSelectionForm.getOpenAISettingsForm();
     applyOpenAISettings(openAISettingsForm);
     applyCustomOpenAISettings(serviceSelectionForm.getCustomConfigurationSettingsForm());
@@ -88,6 +95,7 @@ public class GeneralSettingsConfigurable implements Configurable {
     applyAzureSettings(serviceSelectionForm.getAzureSettingsForm());
     applyYouSettings(serviceSelectionForm.getYouSettingsForm());
     applyLlamaSettings(serviceSelectionForm.getLlamaSettingsForm());
+    ConnectionWarmupService.getInstance().warmUpAsync(component.getSelectedService());
 
     var serviceChanged = component.getSelectedService() != settings.getSelectedService();
     var modelChanged = !OpenAISettings.getCurrentState().getModel()
@@ -29,6 +29,7 @@ public class LlamaSettingsState {
   private double repeatPenalty = 1.1;
   private boolean codeCompletionsEnabled = true;
   private int codeCompletionMaxTokens = 128;
+  private boolean codeCompletionMultiLineEnabled;
 
   public boolean isUseCustomModel() {
     return useCustomModel;
@@ -186,6 +187,14 @@ public class LlamaSettingsState {
     this.codeCompletionMaxTokens = codeCompletionMaxTokens;
   }
 
+  public boolean isCodeCompletionMultiLineEnabled() {
+    return codeCompletionMultiLineEnabled;
+  }
+
+  public void setCodeCompletionMultiLineEnabled(boolean codeCompletionMultiLineEnabled) {
+    this.codeCompletionMultiLineEnabled = codeCompletionMultiLineEnabled;
+  }
+
   private static Integer getRandomAvailablePortOrDefault() {
     try (ServerSocket socket = new ServerSocket(0)) {
       return socket.getLocalPort();
@@ -221,7 +230,8 @@ public class LlamaSettingsState {
         && Objects.equals(serverPort, that.serverPort)
         && Objects.equals(additionalParameters, that.additionalParameters)
         && codeCompletionsEnabled == that.codeCompletionsEnabled
-        && codeCompletionMaxTokens == that.codeCompletionMaxTokens;
+        && codeCompletionMaxTokens == that.codeCompletionMaxTokens
+        && codeCompletionMultiLineEnabled == that.codeCompletionMultiLineEnabled;
   }
 
   @Override
@@ -230,6 +240,6 @@ public class LlamaSettingsState {
         localModelPromptTemplate, remoteModelPromptTemplate, localModelInfillPromptTemplate,
         remoteModelInfillPromptTemplate, baseHost, serverPort, contextSize, threads,
         additionalParameters, topK, topP, minP, repeatPenalty, codeCompletionsEnabled,
-        codeCompletionMaxTokens);
+        codeCompletionMaxTokens, codeCompletionMultiLineEnabled);
   }
 }
@@ -22,7 +22,8 @@ public class LlamaSettingsForm extends JPanel {
     llamaRequestPreferencesForm = new LlamaRequestPreferencesForm(settings);
     codeCompletionConfigurationForm = new CodeCompletionConfigurationForm(
         settings.isCodeCompletionsEnabled(),
-        settings.getCodeCompletionMaxTokens());
+        settings.getCodeCompletionMaxTokens(),
+        settings.isCodeCompletionMultiLineEnabled());
     init();
   }
 
@@ -51,6 +52,8 @@ public class LlamaSettingsForm extends JPanel {
 
     state.setCodeCompletionsEnabled(codeCompletionConfigurationForm.isCodeCompletionsEnabled());
     state.setCodeCompletionMaxTokens(codeCompletionConfigurationForm.getMaxTokens());
+    state.setCodeCompletionMultiLineEnabled(
+        codeCompletionConfigurationForm.isMultiLineCompletionsEnabled());
     return state;
   }
 
@@ -60,6 +63,8 @@ public class LlamaSettingsForm extends JPanel {
     llamaRequestPreferencesForm.resetForm(state);
     codeCompletionConfigurationForm.setCodeCompletionsEnabled(state.isCodeCompletionsEnabled());
     codeCompletionConfigurationForm.setMaxTokens(state.getCodeCompletionMaxTokens());
+    codeCompletionConfigurationForm.setMultiLineCompletionsEnabled(
+        state.isCodeCompletionMultiLineEnabled());
   }
 
   public LlamaServerPreferencesForm getLlamaServerPreferencesForm() {
@@ -36,7 +36,8 @@ public class OpenAISettingsForm {
         OpenAIChatCompletionModel.findByCode(settings.getModel()));
     codeCompletionConfigurationForm = new CodeCompletionConfigurationForm(
         settings.isCodeCompletionsEnabled(),
-        settings.getCodeCompletionMaxTokens());
+        settings.getCodeCompletionMaxTokens(),
+        settings.isCodeCompletionMultiLineEnabled());
   }
 
   public JPanel getForm() {
@@ -82,6 +83,8 @@ public class OpenAISettingsForm {
     state.setOrganization(organizationField.getText());
     state.setCodeCompletionsEnabled(codeCompletionConfigurationForm.isCodeCompletionsEnabled());
     state.setCodeCompletionMaxTokens(codeCompletionConfigurationForm.getMaxTokens());
+    state.setCodeCompletionMultiLineEnabled(
+        codeCompletionConfigurationForm.isMultiLineCompletionsEnabled());
     return state;
   }
 
@@ -93,5 +96,7 @@ public class OpenAISettingsForm {
     organizationField.setText(state.getOrganization());
     codeCompletionConfigurationForm.setCodeCompletionsEnabled(state.isCodeCompletionsEnabled());
     codeCompletionConfigurationForm.setMaxTokens(state.getCodeCompletionMaxTokens());
+    codeCompletionConfigurationForm.setMultiLineCompletionsEnabled(
+        state.isCodeCompletionMultiLineEnabled());
   }
 }
@@ -9,6 +9,7 @@ public class OpenAISettingsState {
   private String model = OpenAIChatCompletionModel.GPT_3_5_0125_16k.getCode();
   private boolean codeCompletionsEnabled = true;
   private int codeCompletionMaxTokens = 128;
+  private boolean codeCompletionMultiLineEnabled;
 
   public String getOrganization() {
     return organization;
@@ -42,6 +43,14 @@ public class OpenAISettingsState {
     this.codeCompletionMaxTokens = codeCompletionMaxTokens;
   }
 
+  public boolean isCodeCompletionMultiLineEnabled() {
+    return codeCompletionMultiLineEnabled;
+  }
+
+  public void setCodeCompletionMultiLineEnabled(boolean codeCompletionMultiLineEnabled) {
+    this.codeCompletionMultiLineEnabled = codeCompletionMultiLineEnabled;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -54,11 +63,13 @@ public class OpenAISettingsState {
     return Objects.equals(organization, that.organization)
         && Objects.equals(model, that.model)
         && codeCompletionsEnabled == that.codeCompletionsEnabled
-        && codeCompletionMaxTokens == that.codeCompletionMaxTokens;
+        && codeCompletionMaxTokens == that.codeCompletionMaxTokens
+        && codeCompletionMultiLineEnabled == that.codeCompletionMultiLineEnabled;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(organization, model, codeCompletionsEnabled, codeCompletionMaxTokens);
+    return Objects.hash(organization, model, codeCompletionsEnabled, codeCompletionMaxTokens,
+        codeCompletionMultiLineEnabled);
   }
 }
@@ -0,0 +1,138 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.knuddels.jtokkit.api.IntArrayList;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Byte-level BPE tokenizer of the GPT-2 style GGUF vocabularies, e.g. Deepseek Coder.
+ *
+ * <p>The text is split with the GPT-2 pre-tokenizer pattern, every byte of a word is mapped to
+ * a printable character and the pair with the lowest merge rank is merged until no merge rule
+ * applies. Models with a custom pre-tokenizer may split slightly differently, which only affects
+ * the counts marginally.
+ */
+public class ByteLevelBpeTokenizer implements VocabularyTokenizer {
+
+  private static final Pattern PRE_TOKENIZER = Pattern.compile(
+      "'s|'t|'re|'ve|'m|'ll|'d| ?\\p{L}+| ?\\p{N}+| ?[^\\s\\p{L}\\p{N}]+|\\s+(?!\\S)|\\s+");
+  private static final char[] BYTE_CHARS = createByteChars();
+
+  private final String name;
+  private final GgufVocabulary vocabulary;
+  private final Map<String, Integer> tokenIds = new HashMap<>();
+  private final Map<String, Integer> mergeRanks = new HashMap<>();
+  private final Map<Character, Integer> charBytes = new HashMap<>();
+
+  public ByteLevelBpeTokenizer(String name, GgufVocabulary vocabulary) {
+    this.name = name;
+    this.vocabulary = vocabulary;
+    var tokens = vocabulary.tokens();
+    for (int id = 0; id < tokens.size(); id++) {
+      if (vocabulary.getTokenType(id) != GgufVocabulary.TOKEN_TYPE_CONTROL) {
+        tokenIds.putIfAbsent(tokens.get(id), id);
+      }
+    }
+    var merges = vocabulary.merges();
+    for (int rank = 0; rank < merges.size(); rank++) {
+      mergeRanks.putIfAbsent(merges.get(rank), rank);
+    }
+    for (int b = 0; b < BYTE_CHARS.length; b++) {
+      charBytes.put(BYTE_CHARS[b], b);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int[] encode(String text) {
+    var result = new IntArrayList();
+    var matcher = PRE_TOKENIZER.matcher(text);
+    while (matcher.find()) {
+      for (var piece : mergeWord(toByteChars(matcher.group()))) {
+        var id = tokenIds.get(piece);
+        if (id != null) {
+          result.add(id);
+        } else {
+          for (int i = 0; i < piece.length(); i++) {
+            var charId = tokenIds.get(String.valueOf(piece.charAt(i)));
+            if (charId != null) {
+              result.add(charId);
+            }
+          }
+        }
+      }
+    }
+    return result.toArray();
+  }
+
+  @Override
+  public String decode(int[] tokens, int fromIndex, int toIndex) {
+    var bytes = new ByteArrayOutputStream();
+    for (int i = fromIndex; i < toIndex; i++) {
+      var piece = vocabulary.tokens().get(tokens[i]);
+      for (int j = 0; j < piece.length(); j++) {
+        var b = charBytes.get(piece.charAt(j));
+        if (b != null) {
+          bytes.write(b);
+        }
+      }
+    }
+    return bytes.toString(StandardCharsets.UTF_8);
+  }
+
+  private List<String> mergeWord(String word) {
+    var parts = new ArrayList<String>(word.length());
+    for (int i = 0; i < word.length(); i++) {
+      parts.add(String.valueOf(word.charAt(i)));
+    }
+
+    while (parts.size() > 1) {
+      var bestRank = Integer.MAX_VALUE;
+      var bestIndex = -1;
+      for (int i = 0; i + 1 < parts.size(); i++) {
+        var rank = mergeRanks.get(parts.get(i) + " " + parts.get(i + 1));
+        if (rank != null && rank < bestRank) {
+          bestRank = rank;
+          bestIndex = i;
+        }
+      }
+      if (bestIndex == -1) {
+        break;
+      }
+      parts.set(bestIndex, parts.get(bestIndex) + parts.remove(bestIndex + 1));
+    }
+    return parts;
+  }
+
+  private static String toByteChars(String word) {
+    var bytes = word.getBytes(StandardCharsets.UTF_8);
+    var chars = new char[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i] = BYTE_CHARS[bytes[i] & 0xFF];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Maps every byte to a printable character, the printable ASCII and Latin-1 bytes map to
+   * themselves, see GPT-2's {@code bytes_to_unicode}.
+   */
+  private static char[] createByteChars() {
+    var chars = new char[256];
+    var next = 256;
+    for (int b = 0; b < 256; b++) {
+      var printable = (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || (b >= 0xAE);
+      chars[b] = (char) (printable ? b : next++);
+    }
+    return chars;
+  }
+}
@@ -0,0 +1,34 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+/**
+ * Estimates the token count from the length of the text, for models whose vocabulary is not
+ * public, e.g. Claude.
+ */
+public class EstimatingTokenizer implements Tokenizer {
+
+  private final String name;
+  private final double charsPerToken;
+
+  public EstimatingTokenizer(String name, double charsPerToken) {
+    this.name = name;
+    this.charsPerToken = charsPerToken;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int countTokens(String text) {
+    return (int) Math.ceil(text.length() / charsPerToken);
+  }
+
+  @Override
+  public String truncate(String text, int maxTokens, boolean fromStart) {
+    var maxChars = (int) Math.min(text.length(), Math.floor(maxTokens * charsPerToken));
+    return fromStart
+        ? text.substring(0, maxChars)
+        : text.substring(text.length() - maxChars);
+  }
+}
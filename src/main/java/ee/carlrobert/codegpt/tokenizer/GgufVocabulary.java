@@ -0,0 +1,172 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Vocabulary of a llama.cpp model, read from the metadata of its GGUF file.
+ *
+ * <p>Only the key-value header at the start of the file is read, the tensors are never touched.
+ *
+ * @param model      the tokenizer model, {@code llama} for SentencePiece vocabularies or
+ *                   {@code gpt2} for byte-level BPE vocabularies
+ * @param tokens     the token pieces, indexed by token id
+ * @param scores     the merge scores of a SentencePiece vocabulary, if any
+ * @param tokenTypes the type of each token, e.g. {@link #TOKEN_TYPE_CONTROL}, if any
+ * @param merges     the merge rules of a BPE vocabulary, as {@code "left right"}, if any
+ */
+public record GgufVocabulary(
+    String model,
+    List<String> tokens,
+    float[] scores,
+    int[] tokenTypes,
+    @Nullable List<String> merges) {
+
+  public static final int TOKEN_TYPE_NORMAL = 1;
+  public static final int TOKEN_TYPE_CONTROL = 3;
+  public static final int TOKEN_TYPE_USER_DEFINED = 4;
+  public static final int TOKEN_TYPE_BYTE = 6;
+
+  private static final int MAGIC = 0x46554747; // "GGUF"
+  private static final int TYPE_UINT8 = 0;
+  private static final int TYPE_INT8 = 1;
+  private static final int TYPE_UINT16 = 2;
+  private static final int TYPE_INT16 = 3;
+  private static final int TYPE_UINT32 = 4;
+  private static final int TYPE_INT32 = 5;
+  private static final int TYPE_FLOAT32 = 6;
+  private static final int TYPE_BOOL = 7;
+  private static final int TYPE_STRING = 8;
+  private static final int TYPE_ARRAY = 9;
+  private static final int TYPE_UINT64 = 10;
+  private static final int TYPE_INT64 = 11;
+  private static final int TYPE_FLOAT64 = 12;
+
+  public int getTokenType(int tokenId) {
+    return tokenTypes == null ? TOKEN_TYPE_NORMAL : tokenTypes[tokenId];
+  }
+
+  public static GgufVocabulary read(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var buffer = channel
+          .map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE))
+          .order(ByteOrder.LITTLE_ENDIAN);
+      return read(buffer);
+    }
+  }
+
+  static GgufVocabulary read(ByteBuffer buffer) throws IOException {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a GGUF file");
+    }
+    var version = buffer.getInt();
+    if (version < 2) {
+      throw new IOException("Unsupported GGUF version " + version);
+    }
+    buffer.getLong(); // tensor count
+    var keyValueCount = buffer.getLong();
+
+    String model = null;
+    List<String> tokens = null;
+    float[] scores = null;
+    int[] tokenTypes = null;
+    List<String> merges = null;
+    for (long i = 0; i < keyValueCount; i++) {
+      var key = readString(buffer);
+      var type = buffer.getInt();
+      switch (key) {
+        case "tokenizer.ggml.model" -> model = (String) readValue(buffer, type);
+        case "tokenizer.ggml.tokens" -> tokens = readStringArray(buffer, type);
+        case "tokenizer.ggml.merges" -> merges = readStringArray(buffer, type);
+        case "tokenizer.ggml.scores" -> scores = readFloatArray(buffer, type);
+        case "tokenizer.ggml.token_type" -> tokenTypes = readIntArray(buffer, type);
+        default -> skipValue(buffer, type);
+      }
+      if (model != null && tokens != null && tokenTypes != null
+          && (model.equals("llama") ? scores != null : merges != null)) {
+        break;
+      }
+    }
+
+    if (model == null || tokens == null) {
+      throw new IOException("The GGUF file does not contain a tokenizer vocabulary");
+    }
+    return new GgufVocabulary(model, tokens, scores, tokenTypes, merges);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    var bytes = new byte[Math.toIntExact(buffer.getLong())];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static List<String> readStringArray(ByteBuffer buffer, int type) throws IOException {
+    expectArrayOf(buffer, type, TYPE_STRING);
+    var size = Math.toIntExact(buffer.getLong());
+    var values = new String[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = readString(buffer);
+    }
+    return List.of(values);
+  }
+
+  private static float[] readFloatArray(ByteBuffer buffer, int type) throws IOException {
+    expectArrayOf(buffer, type, TYPE_FLOAT32);
+    var values = new float[Math.toIntExact(buffer.getLong())];
+    buffer.asFloatBuffer().get(values);
+    buffer.position(buffer.position() + values.length * Float.BYTES);
+    return values;
+  }
+
+  private static int[] readIntArray(ByteBuffer buffer, int type) throws IOException {
+    expectArrayOf(buffer, type, TYPE_INT32);
+    var values = new int[Math.toIntExact(buffer.getLong())];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + values.length * Integer.BYTES);
+    return values;
+  }
+
+  private static void expectArrayOf(ByteBuffer buffer, int type, int elementType)
+      throws IOException {
+    if (type != TYPE_ARRAY || buffer.getInt() != elementType) {
+      throw new IOException("Unexpected GGUF value type " + type);
+    }
+  }
+
+  private static Object readValue(ByteBuffer buffer, int type) throws IOException {
+    if (type == TYPE_STRING) {
+      return readString(buffer);
+    }
+    skipValue(buffer, type);
+    return null;
+  }
+
+  private static void skipValue(ByteBuffer buffer, int type) throws IOException {
+    switch (type) {
+      case TYPE_UINT8, TYPE_INT8, TYPE_BOOL -> buffer.position(buffer.position() + 1);
+      case TYPE_UINT16, TYPE_INT16 -> buffer.position(buffer.position() + 2);
+      case TYPE_UINT32, TYPE_INT32, TYPE_FLOAT32 -> buffer.position(buffer.position() + 4);
+      case TYPE_UINT64, TYPE_INT64, TYPE_FLOAT64 -> buffer.position(buffer.position() + 8);
+      case TYPE_STRING -> {
+        var length = buffer.getLong();
+        buffer.position(Math.toIntExact(buffer.position() + length));
+      }
+      case TYPE_ARRAY -> {
+        var elementType = buffer.getInt();
+        var size = buffer.getLong();
+        for (long i = 0; i < size; i++) {
+          skipValue(buffer, elementType);
+        }
+      }
+      default -> throw new IOException("Unknown GGUF value type " + type);
+    }
+  }
+}
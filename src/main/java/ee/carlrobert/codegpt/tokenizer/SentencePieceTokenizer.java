@@ -0,0 +1,174 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.knuddels.jtokkit.api.IntArrayList;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * SentencePiece BPE tokenizer of the Llama family models, as implemented by llama.cpp.
+ *
+ * <p>Spaces are replaced with {@code U+2581} and the text is prefixed with one. Starting from
+ * single characters, the pair whose merged piece has the highest score is merged until no pair
+ * forms a piece of the vocabulary. Characters that are not part of the vocabulary fall back to
+ * byte tokens.
+ */
+public class SentencePieceTokenizer implements VocabularyTokenizer {
+
+  private static final char SPACE = '\u2581';
+
+  private final String name;
+  private final GgufVocabulary vocabulary;
+  private final Map<String, Integer> tokenIds = new HashMap<>();
+  private final int[] byteTokenIds = new int[256];
+
+  public SentencePieceTokenizer(String name, GgufVocabulary vocabulary) {
+    this.name = name;
+    this.vocabulary = vocabulary;
+    var tokens = vocabulary.tokens();
+    for (int id = 0; id < tokens.size(); id++) {
+      var type = vocabulary.getTokenType(id);
+      if (type == GgufVocabulary.TOKEN_TYPE_BYTE) {
+        byteTokenIds[Integer.parseInt(tokens.get(id).substring(3, 5), 16)] = id;
+      } else if (type == GgufVocabulary.TOKEN_TYPE_NORMAL
+          || type == GgufVocabulary.TOKEN_TYPE_USER_DEFINED) {
+        tokenIds.putIfAbsent(tokens.get(id), id);
+      }
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int[] encode(String text) {
+    return encode(text, true);
+  }
+
+  @Override
+  public int countContinuationTokens(String text) {
+    return encode(text, false).length;
+  }
+
+  private int[] encode(String text, boolean addSpacePrefix) {
+    if (text.isEmpty()) {
+      return new int[0];
+    }
+
+    var normalized = (addSpacePrefix ? String.valueOf(SPACE) : "") + text.replace(' ', SPACE);
+    var symbols = createSymbols(normalized);
+    var queue = new PriorityQueue<Bigram>();
+    for (int i = 0; i + 1 < symbols.length; i++) {
+      tryAddBigram(queue, normalized, symbols, i, i + 1);
+    }
+
+    while (!queue.isEmpty()) {
+      var bigram = queue.poll();
+      var left = symbols[bigram.left];
+      var right = symbols[bigram.right];
+      // one of the symbols has already been merged into another pair
+      if (left.length == 0 || right.length == 0
+          || left.length + right.length != bigram.length) {
+        continue;
+      }
+
+      left.length += right.length;
+      right.length = 0;
+      left.next = right.next;
+      if (right.next != -1) {
+        symbols[right.next].previous = bigram.left;
+      }
+      tryAddBigram(queue, normalized, symbols, left.previous, bigram.left);
+      tryAddBigram(queue, normalized, symbols, bigram.left, left.next);
+    }
+
+    var result = new IntArrayList();
+    for (int i = 0; i != -1; i = symbols[i].next) {
+      var symbol = symbols[i];
+      var piece = normalized.substring(symbol.start, symbol.start + symbol.length);
+      var id = tokenIds.get(piece);
+      if (id != null) {
+        result.add(id);
+      } else {
+        for (var b : piece.getBytes(StandardCharsets.UTF_8)) {
+          result.add(byteTokenIds[b & 0xFF]);
+        }
+      }
+    }
+    return result.toArray();
+  }
+
+  @Override
+  public String decode(int[] tokens, int fromIndex, int toIndex) {
+    var bytes = new ByteArrayOutputStream();
+    for (int i = fromIndex; i < toIndex; i++) {
+      var piece = vocabulary.tokens().get(tokens[i]);
+      if (vocabulary.getTokenType(tokens[i]) == GgufVocabulary.TOKEN_TYPE_BYTE) {
+        bytes.write(Integer.parseInt(piece.substring(3, 5), 16));
+      } else {
+        bytes.writeBytes(piece.replace(SPACE, ' ').getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    var text = bytes.toString(StandardCharsets.UTF_8);
+    // the space prefix added while encoding
+    return fromIndex == 0 && text.startsWith(" ") ? text.substring(1) : text;
+  }
+
+  private Symbol[] createSymbols(String text) {
+    var symbols = new Symbol[text.codePointCount(0, text.length())];
+    var offset = 0;
+    for (int i = 0; i < symbols.length; i++) {
+      var length = Character.charCount(text.codePointAt(offset));
+      symbols[i] = new Symbol(offset, length, i - 1, i + 1 < symbols.length ? i + 1 : -1);
+      offset += length;
+    }
+    return symbols;
+  }
+
+  private void tryAddBigram(
+      PriorityQueue<Bigram> queue,
+      String text,
+      Symbol[] symbols,
+      int left,
+      int right) {
+    if (left == -1 || right == -1) {
+      return;
+    }
+
+    var start = symbols[left].start;
+    var length = symbols[left].length + symbols[right].length;
+    var id = tokenIds.get(text.substring(start, start + length));
+    if (id != null) {
+      queue.add(new Bigram(left, right, vocabulary.scores()[id], length));
+    }
+  }
+
+  private static final class Symbol {
+
+    private final int start;
+    private int length;
+    private int previous;
+    private int next;
+
+    Symbol(int start, int length, int previous, int next) {
+      this.start = start;
+      this.length = length;
+      this.previous = previous;
+      this.next = next;
+    }
+  }
+
+  private record Bigram(int left, int right, float score, int length)
+      implements Comparable<Bigram> {
+
+    @Override
+    public int compareTo(Bigram other) {
+      var result = Float.compare(other.score, score);
+      return result != 0 ? result : Integer.compare(left, other.left);
+    }
+  }
+}
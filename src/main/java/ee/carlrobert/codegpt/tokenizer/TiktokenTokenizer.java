@@ -0,0 +1,40 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.IntArrayList;
+
+/**
+ * Tokenizer of the OpenAI models.
+ */
+public class TiktokenTokenizer implements VocabularyTokenizer {
+
+  private final Encoding encoding;
+
+  public TiktokenTokenizer(Encoding encoding) {
+    this.encoding = encoding;
+  }
+
+  @Override
+  public String getName() {
+    return encoding.getName();
+  }
+
+  @Override
+  public int countTokens(String text) {
+    return encoding.countTokens(text);
+  }
+
+  @Override
+  public int[] encode(String text) {
+    return encoding.encode(text).toArray();
+  }
+
+  @Override
+  public String decode(int[] tokens, int fromIndex, int toIndex) {
+    var range = new IntArrayList(toIndex - fromIndex);
+    for (int i = fromIndex; i < toIndex; i++) {
+      range.add(tokens[i]);
+    }
+    return encoding.decode(range);
+  }
+}
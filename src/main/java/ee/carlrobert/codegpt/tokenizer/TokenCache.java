@@ -0,0 +1,146 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of token counts and token ids, keyed by the tokenizer and the hash of the
+ * content.
+ *
+ * <p>Only the hash of the text is kept, not the text itself, so caching large file contents
+ * doesn't pin them in memory. Token ids are stored as compact {@code int} arrays, and only when
+ * they were requested, e.g. for truncation. Short texts are not cached, hashing them costs about as
+ * much as encoding them.
+ */
+public final class TokenCache {
+
+  static final int MIN_CACHED_LENGTH = 64;
+  private static final int MAX_ENTRIES = 4096;
+  private static final int MAX_STORED_TOKENS = 2_000_000;
+  private static final ThreadLocal<MessageDigest> DIGEST =
+      ThreadLocal.withInitial(TokenCache::createDigest);
+
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private long storedTokens;
+
+  public int countTokens(Tokenizer tokenizer, String text) {
+    if (text.length() < MIN_CACHED_LENGTH) {
+      return tokenizer.countTokens(text);
+    }
+
+    var key = createKey(tokenizer, text);
+    var entry = get(key);
+    if (entry != null) {
+      hits.increment();
+      return entry.tokenCount;
+    }
+
+    misses.increment();
+    var tokenCount = tokenizer.countTokens(text);
+    put(key, new Entry(tokenCount, null));
+    return tokenCount;
+  }
+
+  /**
+   * Returns the token ids of the text. The returned array is shared and must not be modified.
+   */
+  public int[] encode(VocabularyTokenizer tokenizer, String text) {
+    if (text.length() < MIN_CACHED_LENGTH) {
+      return tokenizer.encode(text);
+    }
+
+    var key = createKey(tokenizer, text);
+    var entry = get(key);
+    if (entry != null && entry.tokens != null) {
+      hits.increment();
+      return entry.tokens;
+    }
+
+    misses.increment();
+    var tokens = tokenizer.encode(text);
+    put(key, new Entry(tokens.length, tokens));
+    return tokens;
+  }
+
+  public Stats getStats() {
+    synchronized (entries) {
+      return new Stats(hits.sum(), misses.sum(), entries.size(), storedTokens);
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      storedTokens = 0;
+    }
+    hits.reset();
+    misses.reset();
+  }
+
+  private Entry get(Key key) {
+    synchronized (entries) {
+      return entries.get(key);
+    }
+  }
+
+  private void put(Key key, Entry entry) {
+    if (entry.tokens != null && entry.tokens.length > MAX_STORED_TOKENS / 4) {
+      entry = new Entry(entry.tokenCount, null);
+    }
+
+    synchronized (entries) {
+      var previous = entries.put(key, entry);
+      if (previous != null && previous.tokens != null) {
+        storedTokens -= previous.tokens.length;
+      }
+      if (entry.tokens != null) {
+        storedTokens += entry.tokens.length;
+      }
+
+      var iterator = entries.values().iterator();
+      while (iterator.hasNext() && (entries.size() > MAX_ENTRIES
+          || storedTokens > MAX_STORED_TOKENS)) {
+        var eldest = iterator.next();
+        if (eldest.tokens != null) {
+          storedTokens -= eldest.tokens.length;
+        }
+        iterator.remove();
+      }
+    }
+  }
+
+  private static Key createKey(Tokenizer tokenizer, String text) {
+    var digest = DIGEST.get();
+    digest.reset();
+    var hash = ByteBuffer.wrap(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    return new Key(tokenizer.getName(), hash.getLong(), hash.getLong(), text.length());
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public record Stats(long hits, long misses, int size, long storedTokens) {
+
+    public double hitRate() {
+      var lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+  }
+
+  private record Key(String tokenizerName, long hashHigh, long hashLow, int length) {
+  }
+
+  private record Entry(int tokenCount, int[] tokens) {
+  }
+}
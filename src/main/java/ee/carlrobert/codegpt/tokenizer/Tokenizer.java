@@ -0,0 +1,28 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+/**
+ * Counts and truncates text the way a specific model sees it.
+ */
+public interface Tokenizer {
+
+  /**
+   * Returns a name that identifies the vocabulary, used as a key for cached and stored counts.
+   */
+  String getName();
+
+  int countTokens(String text);
+
+  /**
+   * Counts the tokens of text that directly follows text counted before, as they are counted when
+   * both are encoded together. Differs from {@link #countTokens} for tokenizers that prefix the
+   * text they encode.
+   */
+  default int countContinuationTokens(String text) {
+    return countTokens(text);
+  }
+
+  /**
+   * Truncates the text to the given number of tokens, keeping either its start or its end.
+   */
+  String truncate(String text, int maxTokens, boolean fromStart);
+}
@@ -0,0 +1,190 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import ee.carlrobert.codegpt.CodeGPTPlugin;
+import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.settings.service.anthropic.AnthropicSettings;
+import ee.carlrobert.codegpt.settings.service.azure.AzureSettings;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Picks the tokenizer of the model that is currently used.
+ *
+ * <p>OpenAI models use their tiktoken encoding, local llama.cpp models use the vocabulary stored
+ * in their GGUF file, and the Claude models, whose vocabulary is not public, are estimated.
+ * Everything else falls back to {@code cl100k_base}. GGUF vocabularies are loaded in the
+ * background, the fallback is used until the vocabulary has been read.
+ */
+@Service
+public final class TokenizerRegistry {
+
+  private static final Logger LOG = Logger.getInstance(TokenizerRegistry.class);
+
+  // Anthropic doesn't publish the tokenizer of the Claude 3 models
+  private static final double CLAUDE_CHARS_PER_TOKEN = 3.5;
+  private static final long FAILED_LOAD_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final EncodingRegistry encodingRegistry = Encodings.newDefaultEncodingRegistry();
+  private final Tokenizer cl100k =
+      new TiktokenTokenizer(encodingRegistry.getEncoding(EncodingType.CL100K_BASE));
+  private final Tokenizer o200k =
+      new TiktokenTokenizer(encodingRegistry.getEncoding(EncodingType.O200K_BASE));
+  private final Tokenizer claude = new EstimatingTokenizer("claude", CLAUDE_CHARS_PER_TOKEN);
+  private final Map<String, Tokenizer> ggufTokenizers = new ConcurrentHashMap<>();
+  private final Map<String, FailedLoad> failedLoads = new ConcurrentHashMap<>();
+
+  private TokenizerRegistry() {
+  }
+
+  public static TokenizerRegistry getInstance() {
+    return ApplicationManager.getApplication().getService(TokenizerRegistry.class);
+  }
+
+  /**
+   * Returns the tokenizer of the model of the selected service.
+   */
+  public Tokenizer getCurrentTokenizer() {
+    var serviceType = GeneralSettings.getCurrentState().getSelectedService();
+    return switch (serviceType) {
+      case OPENAI -> getTokenizer(serviceType, OpenAISettings.getCurrentState().getModel());
+      case AZURE -> getTokenizer(serviceType, AzureSettings.getCurrentState().getDeploymentId());
+      case ANTHROPIC -> getTokenizer(serviceType, AnthropicSettings.getCurrentState().getModel());
+      case LLAMA_CPP -> getTokenizer(serviceType, getLlamaModelPath());
+      default -> getTokenizer(serviceType, null);
+    };
+  }
+
+  /**
+   * Returns the tokenizer of the given model.
+   *
+   * @param model the model code, or the path of the GGUF file for llama.cpp
+   */
+  public Tokenizer getTokenizer(@NotNull ServiceType serviceType, @Nullable String model) {
+    return switch (serviceType) {
+      case OPENAI, AZURE -> getOpenAITokenizer(model);
+      case ANTHROPIC -> claude;
+      case LLAMA_CPP -> model == null ? cl100k : getGgufTokenizer(model);
+      default -> cl100k;
+    };
+  }
+
+  private Tokenizer getOpenAITokenizer(@Nullable String model) {
+    if (model == null) {
+      return cl100k;
+    }
+    var normalizedModel = model.toLowerCase(Locale.ROOT);
+    return normalizedModel.startsWith("gpt-4o")
+        || normalizedModel.startsWith("o1")
+        || normalizedModel.contains("-4o")
+        ? o200k
+        : cl100k;
+  }
+
+  private Tokenizer getGgufTokenizer(String modelPath) {
+    var tokenizer = ggufTokenizers.get(modelPath);
+    if (tokenizer != null) {
+      return tokenizer;
+    }
+
+    // the model may not have been downloaded yet, it's looked up again on the next call
+    var path = Path.of(modelPath);
+    var fileVersion = FileVersion.of(path);
+    if (fileVersion == null) {
+      return cl100k;
+    }
+    // a file that couldn't be read is only read again once it has changed
+    var failedLoad = failedLoads.get(modelPath);
+    if (failedLoad != null && !failedLoad.canRetry(fileVersion)) {
+      return cl100k;
+    }
+
+    // the fallback is registered until the vocabulary has been loaded
+    if (ggufTokenizers.putIfAbsent(modelPath, cl100k) == null) {
+      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        var ggufTokenizer = loadGgufTokenizer(path);
+        if (ggufTokenizer != null) {
+          failedLoads.remove(modelPath);
+          ggufTokenizers.put(modelPath, ggufTokenizer);
+        } else {
+          failedLoads.put(modelPath, new FailedLoad(fileVersion, System.currentTimeMillis()));
+          ggufTokenizers.remove(modelPath, cl100k);
+        }
+      });
+    }
+    return cl100k;
+  }
+
+  static @Nullable Tokenizer loadGgufTokenizer(Path modelPath) {
+    if (!Files.isRegularFile(modelPath)) {
+      return null;
+    }
+
+    try {
+      var vocabulary = GgufVocabulary.read(modelPath);
+      var name = "gguf:" + modelPath.getFileName();
+      if ("llama".equals(vocabulary.model()) && vocabulary.scores() != null) {
+        return new SentencePieceTokenizer(name, vocabulary);
+      }
+      if ("gpt2".equals(vocabulary.model()) && vocabulary.merges() != null) {
+        return new ByteLevelBpeTokenizer(name, vocabulary);
+      }
+      LOG.info("Unsupported tokenizer model '" + vocabulary.model() + "' in " + modelPath);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Unable to read the vocabulary of " + modelPath, e);
+    }
+    return null;
+  }
+
+  private record FileVersion(long size, long lastModifiedMillis) {
+
+    static @Nullable FileVersion of(Path path) {
+      try {
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return attributes.isRegularFile()
+            ? new FileVersion(attributes.size(), attributes.lastModifiedTime().toMillis())
+            : null;
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * A vocabulary that couldn't be read, retried once its file has changed, but not more often
+   * than every minute, as a file that is being downloaded changes all the time.
+   */
+  private record FailedLoad(FileVersion fileVersion, long failedAtMillis) {
+
+    boolean canRetry(FileVersion currentVersion) {
+      return !fileVersion.equals(currentVersion)
+          && System.currentTimeMillis() - failedAtMillis >= FAILED_LOAD_RETRY_DELAY_MILLIS;
+    }
+  }
+
+  private static String getLlamaModelPath() {
+    var llamaSettings = LlamaSettings.getCurrentState();
+    return llamaSettings.isUseCustomModel()
+        ? llamaSettings.getCustomLlamaModelPath()
+        : CodeGPTPlugin.getLlamaModelsPath()
+            + File.separator
+            + llamaSettings.getHuggingFaceModel().getFileName();
+  }
+}
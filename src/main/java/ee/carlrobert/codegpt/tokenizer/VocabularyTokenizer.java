@@ -0,0 +1,35 @@
+package ee.carlrobert.codegpt.tokenizer;
+
+/**
+ * Tokenizer backed by an actual vocabulary, which can map text to token ids and back.
+ */
+public interface VocabularyTokenizer extends Tokenizer {
+
+  int[] encode(String text);
+
+  /**
+   * Decodes the tokens in the range {@code [fromIndex, toIndex)} of the given array.
+   */
+  String decode(int[] tokens, int fromIndex, int toIndex);
+
+  @Override
+  default int countTokens(String text) {
+    return encode(text).length;
+  }
+
+  @Override
+  default String truncate(String text, int maxTokens, boolean fromStart) {
+    return truncate(encode(text), text, maxTokens, fromStart);
+  }
+
+  /**
+   * Truncates already encoded text, e.g. the cached tokens of the text.
+   */
+  default String truncate(int[] tokens, String text, int maxTokens, boolean fromStart) {
+    if (tokens.length <= maxTokens) {
+      return text;
+    }
+    var startIndex = fromStart ? 0 : tokens.length - maxTokens;
+    return decode(tokens, startIndex, startIndex + maxTokens);
+  }
+}
@@ -20,8 +20,10 @@ import ee.carlrobert.codegpt.completions.CallParameters;
 import ee.carlrobert.codegpt.completions.CompletionRequestHandler;
 import ee.carlrobert.codegpt.completions.CompletionRequestService;
 import ee.carlrobert.codegpt.completions.ConversationType;
+import ee.carlrobert.codegpt.completions.LlamaPromptPrefill;
 import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.conversations.ConversationService;
+import ee.carlrobert.codegpt.conversations.ImageAttachmentStore;
 import ee.carlrobert.codegpt.conversations.message.Message;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
 import ee.carlrobert.codegpt.settings.service.ServiceType;
@@ -43,8 +45,6 @@ import java.awt.BorderLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.UUID;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -75,7 +75,10 @@ public class ChatToolWindowTabPanel implements Disposable {
         conversation,
         EditorUtil.getSelectedEditorSelectedText(project),
         this);
-    userPromptTextArea = new UserPromptTextArea(this::handleSubmit, totalTokensPanel);
+    userPromptTextArea = new UserPromptTextArea(
+        this::handleSubmit,
+        this::handleUserPromptChanged,
+        totalTokensPanel);
     rootPanel = createRootPanel();
     userPromptTextArea.requestFocusInWindow();
     userPromptTextArea.requestFocus();
@@ -89,6 +92,7 @@ public class ChatToolWindowTabPanel implements Disposable {
 
   public void dispose() {
     LOG.info("Disposing BaseChatToolWindowTabPanel component");
+    LlamaPromptPrefill.getInstance().cancel(conversation);
   }
 
   public JComponent getContent() {
@@ -117,6 +121,7 @@ public class ChatToolWindowTabPanel implements Disposable {
   }
 
   public void sendMessage(Message message, ConversationType conversationType) {
+    LlamaPromptPrefill.getInstance().cancelScheduled();
     SwingUtilities.invokeLater(() -> {
       var referencedFiles = project.getUserData(CodeGPTKeys.SELECTED_FILES);
       var chatToolWindowPanel = project.getService(ChatToolWindowContentManager.class)
@@ -160,8 +165,9 @@ public class ChatToolWindowTabPanel implements Disposable {
     var callParameters = new CallParameters(conversation, conversationType, message, false);
     if (attachedFilePath != null && !attachedFilePath.isEmpty()) {
       try {
-        callParameters.setImageData(Files.readAllBytes(Path.of(attachedFilePath)));
-        callParameters.setImageMediaType(FileUtil.getImageMediaType(attachedFilePath));
+        var image = ImageAttachmentStore.getInstance().get(attachedFilePath);
+        callParameters.setImageData(image.getData());
+        callParameters.setImageMediaType(image.getMediaType());
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -267,6 +273,11 @@ public class ChatToolWindowTabPanel implements Disposable {
     sendMessage(message, ConversationType.DEFAULT);
   }
 
+  private void handleUserPromptChanged() {
+    LlamaPromptPrefill.getInstance()
+        .schedule(conversation, project.getUserData(CodeGPTKeys.SELECTED_FILES));
+  }
+
   private JPanel createUserPromptPanel(ServiceType selectedService) {
     var panel = new JPanel(new BorderLayout());
     panel.setBorder(JBUI.Borders.compound(
@@ -276,6 +287,7 @@ public class ChatToolWindowTabPanel implements Disposable {
     panel.add(JBUI.Panels.simplePanel(createUserPromptTextAreaHeader(
         selectedService,
         () -> {
+          LlamaPromptPrefill.getInstance().cancel(conversation);
           ConversationService.getInstance().startConversation();
           contentManager.createNewTabPanel();
         })), BorderLayout.NORTH);
@@ -1,57 +1,246 @@
 package ee.carlrobert.codegpt.toolwindow.chat;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Single-pass lexer that splits a streamed markdown response into text and fenced code blocks.
+ *
+ * <p>Each call to {@link #parse(String)} only looks at the newly received characters and
+ * returns the deltas produced by them. Text at the start of a line is held back only while it
+ * can still turn out to be a code fence (up to three spaces followed by backticks or tildes).
+ * Fences follow the CommonMark rules: an opening fence of three or more backticks or tildes with
+ * an optional info string, closed by a line with at least as many of the same fence characters.
+ */
 public class StreamParser {
 
-  private static final String CODE_BLOCK_STARTING_REGEX = "```[a-zA-Z]*\n";
-  private final StringBuilder messageBuilder = new StringBuilder();
-  private boolean isProcessingCode;
+  private static final int MAX_FENCE_INDENT = 3;
+  private static final int MIN_FENCE_LENGTH = 3;
+
+  private final StringBuilder pendingLine = new StringBuilder();
+  private final List<StreamParseResponse> responses = new ArrayList<>();
+  private final StringBuilder delta = new StringBuilder();
+  private StreamResponseType deltaType;
+
+  private boolean processingCode;
+  private boolean lineStart = true;
+  private LineState lineState = LineState.INDENT;
+  private int indent;
+  private char fenceChar;
+  private int fenceLength;
+  private char openFenceChar;
+  private int openFenceLength;
 
   public List<StreamParseResponse> parse(String message) {
-    message = message.replace("\r", "");
-    messageBuilder.append(message);
+    for (int i = 0; i < message.length(); i++) {
+      var c = message.charAt(i);
+      if (c != '\r') {
+        accept(c);
+      }
+    }
+    return drainResponses();
+  }
 
-    Pattern pattern = Pattern.compile(CODE_BLOCK_STARTING_REGEX);
-    Matcher matcher = pattern.matcher(messageBuilder.toString());
-    if (!isProcessingCode && matcher.find()) {
-      isProcessingCode = true;
+  /**
+   * Flushes the text held back at the end of the stream, e.g. a closing fence that is not
+   * followed by a newline.
+   */
+  public List<StreamParseResponse> flush() {
+    if (!pendingLine.isEmpty()) {
+      if (lineState != LineState.INDENT && isValidOpeningFence()) {
+        completeFenceLine();
+      } else {
+        emit(currentContentType(), pendingLine);
+        resetLine();
+      }
+    }
+    return drainResponses();
+  }
 
-      var startingIndex = messageBuilder.indexOf(matcher.group());
-      var prevMessage = messageBuilder.substring(0, startingIndex);
-      messageBuilder.delete(0, messageBuilder.indexOf(matcher.group()));
+  public void clear() {
+    pendingLine.setLength(0);
+    responses.clear();
+    delta.setLength(0);
+    deltaType = null;
+    processingCode = false;
+    resetLine();
+    openFenceChar = 0;
+    openFenceLength = 0;
+  }
 
-      return List.of(
-          new StreamParseResponse(StreamResponseType.TEXT, prevMessage),
-          new StreamParseResponse(StreamResponseType.CODE, messageBuilder.toString()));
+  private void accept(char c) {
+    if (!lineStart) {
+      emit(currentContentType(), c);
+      if (c == '\n') {
+        lineStart = true;
+      }
+      return;
     }
 
-    var endingIndex = messageBuilder.indexOf("```\n", 1);
-    if (isProcessingCode && endingIndex > 0) {
-      isProcessingCode = false;
+    pendingLine.append(c);
+    switch (lineState) {
+      case INDENT -> acceptIndent(c);
+      case FENCE -> acceptFence(c);
+      case FENCE_TRAIL -> acceptFenceTrail(c);
+      default -> throw new IllegalStateException("Unknown line state: " + lineState);
+    }
+  }
 
-      var codeResponse = messageBuilder.substring(0, endingIndex + 3);
-      messageBuilder.delete(0, endingIndex + 3);
+  private void acceptIndent(char c) {
+    if (c == ' ' && indent < MAX_FENCE_INDENT) {
+      indent++;
+    } else if (isFenceCandidate(c)) {
+      fenceChar = c;
+      fenceLength = 1;
+      lineState = LineState.FENCE;
+    } else {
+      releasePendingLine(c);
+    }
+  }
 
-      return List.of(
-          new StreamParseResponse(StreamResponseType.CODE, codeResponse),
-          new StreamParseResponse(StreamResponseType.TEXT, messageBuilder.toString()));
+  private void acceptFence(char c) {
+    if (c == fenceChar) {
+      fenceLength++;
+    } else if (fenceLength < MIN_FENCE_LENGTH) {
+      releasePendingLine(c);
+    } else {
+      lineState = LineState.FENCE_TRAIL;
+      acceptFenceTrail(c);
     }
+  }
 
-    return List.of(new StreamParseResponse(
-        isProcessingCode
-            ? StreamResponseType.CODE
-            : StreamResponseType.TEXT,
-        messageBuilder.toString()));
+  private void acceptFenceTrail(char c) {
+    if (c == '\n') {
+      completeFenceLine();
+      return;
+    }
+
+    if (processingCode) {
+      // a closing fence may only be followed by whitespace
+      if (!Character.isWhitespace(c)) {
+        releasePendingLine(c);
+      }
+    } else if (fenceChar == '`' && c == '`') {
+      // backticks are not allowed in the info string of a backtick fence
+      releasePendingLine(c);
+    }
   }
 
-  public void clear() {
-    messageBuilder.setLength(0);
-    isProcessingCode = false;
+  private void completeFenceLine() {
+    if (processingCode) {
+      closeCodeBlock();
+    } else if (isValidOpeningFence()) {
+      openCodeBlock();
+    } else {
+      emit(StreamResponseType.TEXT, pendingLine);
+    }
+    resetLine();
+  }
+
+  private boolean isValidOpeningFence() {
+    return fenceLength >= MIN_FENCE_LENGTH;
+  }
+
+  private boolean isFenceCandidate(char c) {
+    if (processingCode) {
+      return c == openFenceChar;
+    }
+    return c == '`' || c == '~';
+  }
+
+  private void openCodeBlock() {
+    var infoStart = indent + fenceLength;
+    var info = pendingLine.substring(infoStart).trim();
+    var spaceIndex = info.indexOf(' ');
+    var language = spaceIndex == -1 ? info : info.substring(0, spaceIndex);
+
+    flushDelta();
+    responses.add(new StreamParseResponse(StreamResponseType.CODE_START, language));
+    processingCode = true;
+    openFenceChar = fenceChar;
+    openFenceLength = fenceLength;
+  }
+
+  private void closeCodeBlock() {
+    if (fenceChar != openFenceChar || fenceLength < openFenceLength) {
+      emit(StreamResponseType.CODE, pendingLine);
+      return;
+    }
+
+    flushDelta();
+    responses.add(new StreamParseResponse(StreamResponseType.CODE_END, ""));
+    processingCode = false;
+    openFenceChar = 0;
+    openFenceLength = 0;
+  }
+
+  /**
+   * The held back line turned out to be regular content, emit it and continue with the rest of
+   * the line.
+   */
+  private void releasePendingLine(char c) {
+    emit(currentContentType(), pendingLine);
+    resetLine();
+    lineStart = c == '\n';
+  }
+
+  private void resetLine() {
+    pendingLine.setLength(0);
+    lineStart = true;
+    lineState = LineState.INDENT;
+    indent = 0;
+    fenceChar = 0;
+    fenceLength = 0;
+  }
+
+  private StreamResponseType currentContentType() {
+    return processingCode ? StreamResponseType.CODE : StreamResponseType.TEXT;
+  }
+
+  private void emit(StreamResponseType type, CharSequence text) {
+    if (deltaType != type) {
+      flushDelta();
+      deltaType = type;
+    }
+    delta.append(text);
+  }
+
+  private void emit(StreamResponseType type, char c) {
+    if (deltaType != type) {
+      flushDelta();
+      deltaType = type;
+    }
+    delta.append(c);
+  }
+
+  private void flushDelta() {
+    if (!delta.isEmpty()) {
+      responses.add(new StreamParseResponse(deltaType, delta.toString()));
+      delta.setLength(0);
+    }
+    deltaType = null;
+  }
+
+  private List<StreamParseResponse> drainResponses() {
+    flushDelta();
+    if (responses.isEmpty()) {
+      return List.of();
+    }
+    var result = List.copyOf(responses);
+    responses.clear();
+    return result;
+  }
+
+  private enum LineState {
+    INDENT,
+    FENCE,
+    FENCE_TRAIL
   }
 
+  /**
+   * A parsed delta. For {@link StreamResponseType#CODE_START} the response holds the language of
+   * the code block, for {@link StreamResponseType#CODE_END} it is empty.
+   */
   public record StreamParseResponse(StreamResponseType type, String response) {
   }
 }
@@ -1,6 +1,8 @@
 package ee.carlrobert.codegpt.toolwindow.chat;
 
 public enum StreamResponseType {
+  CODE_START,
   CODE,
+  CODE_END,
   TEXT
 }
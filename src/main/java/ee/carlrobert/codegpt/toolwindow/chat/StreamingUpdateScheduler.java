@@ -0,0 +1,78 @@
+package ee.carlrobert.codegpt.toolwindow.chat;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces the chunks of a streamed response into at most one EDT update per frame.
+ *
+ * <p>Chunks can be offered from any thread and are accumulated until the next flush. At most one
+ * flush is queued on the EDT at a time, and the next one is not scheduled before the frame
+ * interval has passed since the previous flush finished. If the EDT falls behind, chunks keep
+ * piling up in a single buffer instead of flooding the event queue with runnables.
+ */
+public class StreamingUpdateScheduler {
+
+  public static final long DEFAULT_FRAME_INTERVAL_MILLIS = 16;
+
+  private final Consumer<String> consumer;
+  private final long frameIntervalNanos;
+  private final StringBuilder pendingText = new StringBuilder();
+  private boolean flushScheduled;
+  private volatile long lastFlushNanos;
+
+  public StreamingUpdateScheduler(Consumer<String> consumer) {
+    this(consumer, DEFAULT_FRAME_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param consumer            receives the accumulated text on the EDT
+   * @param frameIntervalMillis minimum time between two consecutive flushes, e.g. 16-33 ms
+   */
+  public StreamingUpdateScheduler(Consumer<String> consumer, long frameIntervalMillis) {
+    this.consumer = consumer;
+    this.frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(frameIntervalMillis);
+    this.lastFlushNanos = System.nanoTime() - frameIntervalNanos;
+  }
+
+  public void offer(String text) {
+    synchronized (pendingText) {
+      pendingText.append(text);
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+    }
+
+    var application = ApplicationManager.getApplication();
+    var delayNanos = lastFlushNanos + frameIntervalNanos - System.nanoTime();
+    if (delayNanos <= 0) {
+      application.invokeLater(this::flush);
+    } else {
+      AppExecutorUtil.getAppScheduledExecutorService().schedule(
+          () -> application.invokeLater(this::flush),
+          delayNanos,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Passes the accumulated text to the consumer right away. Must be called on the EDT, e.g.
+   * before handling the completion of the stream, so that no chunk is processed after it.
+   */
+  public void flush() {
+    String text;
+    synchronized (pendingText) {
+      flushScheduled = false;
+      text = pendingText.toString();
+      pendingText.setLength(0);
+    }
+
+    if (!text.isEmpty()) {
+      consumer.accept(text);
+    }
+    lastFlushNanos = System.nanoTime();
+  }
+}
@@ -2,9 +2,9 @@ package ee.carlrobert.codegpt.toolwindow.chat;
 
 import static com.intellij.openapi.ui.Messages.OK;
 
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import ee.carlrobert.codegpt.EncodingManager;
+import ee.carlrobert.codegpt.StreamingTokenCounter;
 import ee.carlrobert.codegpt.completions.CallParameters;
 import ee.carlrobert.codegpt.completions.CompletionResponseEventListener;
 import ee.carlrobert.codegpt.conversations.Conversation;
@@ -31,9 +31,9 @@ abstract class ToolWindowCompletionResponseEventListener implements
   private static final Logger LOG = Logger.getInstance(
       ToolWindowCompletionResponseEventListener.class);
 
-  private final StringBuilder messageBuilder = new StringBuilder();
   private final Map<UUID, List<YouSerpResult>> serpResultsMapping = new HashMap<>();
-  private final EncodingManager encodingManager;
+  private final StreamingTokenCounter responseTokenCounter;
+  private final StreamingUpdateScheduler updateScheduler;
   private final ConversationService conversationService;
   private final ResponsePanel responsePanel;
   private final ChatMessageResponseBody responseContainer;
@@ -47,7 +47,8 @@ abstract class ToolWindowCompletionResponseEventListener implements
       ResponsePanel responsePanel,
       TotalTokensPanel totalTokensPanel,
       UserPromptTextArea userPromptTextArea) {
-    this.encodingManager = EncodingManager.getInstance();
+    this.responseTokenCounter = EncodingManager.getInstance().createStreamingTokenCounter();
+    this.updateScheduler = new StreamingUpdateScheduler(this::displayMessage);
     this.conversationService = conversationService;
     this.responsePanel = responsePanel;
     this.responseContainer = (ChatMessageResponseBody) responsePanel.getContent();
@@ -59,28 +60,15 @@ abstract class ToolWindowCompletionResponseEventListener implements
 
   @Override
   public void handleMessage(String partialMessage) {
-    try {
-      ApplicationManager.getApplication()
-          .invokeLater(() -> {
-            responseContainer.update(partialMessage);
-            messageBuilder.append(partialMessage);
-
-            if (!completed) {
-              var ongoingTokens = encodingManager.countTokens(messageBuilder.toString());
-              totalTokensPanel.update(
-                  totalTokensPanel.getTokenDetails().getTotal() + ongoingTokens);
-            }
-          });
-    } catch (Exception e) {
-      responseContainer.displayError("Something went wrong.");
-      throw new RuntimeException("Error while updating the content", e);
-    }
+    updateScheduler.offer(partialMessage);
   }
 
   @Override
   public void handleError(ErrorDetails error, Throwable ex) {
     SwingUtilities.invokeLater(() -> {
       try {
+        updateScheduler.flush();
+        responseContainer.completeStreaming();
         if ("insufficient_quota".equals(error.getCode())) {
           responseContainer.displayQuotaExceeded();
         } else {
@@ -126,6 +114,8 @@ abstract class ToolWindowCompletionResponseEventListener implements
 
     SwingUtilities.invokeLater(() -> {
       try {
+        updateScheduler.flush();
+        responseContainer.completeStreaming();
         responsePanel.enableActions();
         if (displayResults && containsResults) {
           responseContainer.displaySerpResults(serpResults);
@@ -143,6 +133,21 @@ abstract class ToolWindowCompletionResponseEventListener implements
     serpResultsMapping.put(message.getId(), results);
   }
 
+  private void displayMessage(String message) {
+    try {
+      responseContainer.update(message);
+      var ongoingTokens = responseTokenCounter.append(message);
+
+      if (!completed) {
+        totalTokensPanel.update(
+            totalTokensPanel.getTokenDetails().getTotal() + ongoingTokens);
+      }
+    } catch (Exception e) {
+      responseContainer.displayError("Something went wrong.");
+      throw new RuntimeException("Error while updating the content", e);
+    }
+  }
+
   private void stopStreaming(ChatMessageResponseBody responseContainer) {
     completed = true;
     userPromptTextArea.setSubmitEnabled(true);
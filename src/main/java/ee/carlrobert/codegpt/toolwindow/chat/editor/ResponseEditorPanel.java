@@ -43,6 +43,7 @@ import org.jetbrains.annotations.NotNull;
 public class ResponseEditorPanel extends JPanel implements Disposable {
 
   private final Editor editor;
+  private final StreamingEditorSink streamingSink;
 
   public ResponseEditorPanel(
       Project project,
@@ -74,6 +75,7 @@ public class ResponseEditorPanel extends JPanel implements Disposable {
         new ContextMenuPopupHandler.Simple(group),
         findLanguageExtensionMapping(markdownLanguage).getValue());
     add(editor.getComponent(), BorderLayout.CENTER);
+    streamingSink = new StreamingEditorSink(editor);
 
     Disposer.register(disposableParent, this);
   }
@@ -87,6 +89,14 @@ public class ResponseEditorPanel extends JPanel implements Disposable {
     return editor;
   }
 
+  public void appendCode(String code) {
+    streamingSink.append(code);
+  }
+
+  public void completeStreaming() {
+    streamingSink.complete();
+  }
+
   private void configureEditor(
       EditorEx editorEx,
       boolean readOnly,
@@ -0,0 +1,79 @@
+package ee.carlrobert.codegpt.toolwindow.chat.editor;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+
+/**
+ * Streams code into a response editor.
+ *
+ * <p>Chunks are only appended to the end of the document, and all the chunks received before the
+ * next EDT cycle are written in a single write command. While the code block is open the editor
+ * uses a plain text highlighter; the language highlighter is restored once the block is
+ * completed, so the code gets lexed only once.
+ */
+public class StreamingEditorSink {
+
+  private final EditorEx editor;
+  private final StringBuilder pendingText = new StringBuilder();
+  private EditorHighlighter languageHighlighter;
+  private boolean flushScheduled;
+
+  public StreamingEditorSink(Editor editor) {
+    this.editor = (EditorEx) editor;
+    this.languageHighlighter = this.editor.getHighlighter();
+    this.editor.setHighlighter(EditorHighlighterFactory.getInstance()
+        .createEditorHighlighter(editor.getProject(), PlainTextFileType.INSTANCE));
+  }
+
+  public void append(String text) {
+    if (text.isEmpty()) {
+      return;
+    }
+
+    pendingText.append(text);
+    if (flushScheduled) {
+      return;
+    }
+
+    var application = ApplicationManager.getApplication();
+    if (application.isUnitTestMode()) {
+      application.invokeAndWait(this::flush);
+    } else {
+      flushScheduled = true;
+      application.invokeLater(this::flush);
+    }
+  }
+
+  /**
+   * Writes the remaining text and restores the language highlighter. Calling it more than once
+   * has no effect.
+   */
+  public void complete() {
+    flush();
+    if (languageHighlighter != null) {
+      editor.setHighlighter(languageHighlighter);
+      languageHighlighter = null;
+    }
+  }
+
+  private void flush() {
+    flushScheduled = false;
+    if (pendingText.isEmpty() || editor.isDisposed()) {
+      pendingText.setLength(0);
+      return;
+    }
+
+    var text = pendingText.toString();
+    pendingText.setLength(0);
+    WriteCommandAction.runWriteCommandAction(editor.getProject(), () -> {
+      var document = editor.getDocument();
+      document.insertString(document.getTextLength(), text);
+    });
+    editor.getComponent().revalidate();
+  }
+}
@@ -1,7 +1,5 @@
 package ee.carlrobert.codegpt.toolwindow.chat.ui;
 
-import static ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE;
-import static ee.carlrobert.codegpt.util.MarkdownUtil.convertMdToHtml;
 import static java.lang.String.format;
 import static javax.swing.event.HyperlinkEvent.EventType.ACTIVATED;
 
@@ -13,16 +11,13 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ui.JBUI;
-import com.vladsch.flexmark.ast.FencedCodeBlock;
-import com.vladsch.flexmark.parser.Parser;
 import ee.carlrobert.codegpt.actions.ActionType;
 import ee.carlrobert.codegpt.settings.GeneralSettingsConfigurable;
 import ee.carlrobert.codegpt.telemetry.TelemetryAction;
 import ee.carlrobert.codegpt.toolwindow.chat.StreamParser;
+import ee.carlrobert.codegpt.toolwindow.chat.StreamParser.StreamParseResponse;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.ResponseEditorPanel;
 import ee.carlrobert.codegpt.ui.UIUtil;
-import ee.carlrobert.codegpt.util.EditorUtil;
-import ee.carlrobert.codegpt.util.MarkdownUtil;
 import ee.carlrobert.llm.client.you.completion.YouSerpResult;
 import java.awt.BorderLayout;
 import java.util.List;
@@ -40,6 +35,10 @@ public class ChatMessageResponseBody extends JPanel {
   private final boolean readOnly;
   private ResponseEditorPanel currentlyProcessedEditorPanel;
   private JTextPane currentlyProcessedTextPane;
+  private IncrementalMarkdownRenderer currentMarkdownRenderer;
+  private final StringBuilder currentText = new StringBuilder();
+  private final StringBuilder currentCode = new StringBuilder();
+  private String currentCodeLanguage;
   private boolean responseReceived;
 
   public ChatMessageResponseBody(Project project, Disposable parentDisposable) {
@@ -74,17 +73,28 @@ public class ChatMessageResponseBody extends JPanel {
   }
 
   public ChatMessageResponseBody withResponse(String response) {
-    for (var message : MarkdownUtil.splitCodeBlocks(response)) {
-      processResponse(message, message.startsWith("```"), false);
-    }
-
+    var parser = new StreamParser();
+    parser.parse(response).forEach(item -> processResponse(item, false));
+    parser.flush().forEach(item -> processResponse(item, false));
+    completeCode();
     return this;
   }
 
   public void update(String partialMessage) {
     for (var item : streamParser.parse(partialMessage)) {
-      processResponse(item.response(), CODE.equals(item.type()), true);
+      processResponse(item, true);
+    }
+  }
+
+  /**
+   * Processes the content that the stream parser held back, such as a trailing closing fence, and
+   * completes the code block that was left open.
+   */
+  public void completeStreaming() {
+    for (var item : streamParser.flush()) {
+      processResponse(item, true);
     }
+    completeCode();
   }
 
   public void displayMissingCredential() {
@@ -152,6 +162,9 @@ public class ChatMessageResponseBody extends JPanel {
     removeAll();
 
     streamParser.clear();
+    currentText.setLength(0);
+    currentCode.setLength(0);
+    currentCodeLanguage = null;
     // TODO: First message might be code block
     prepareProcessingText(true);
     currentlyProcessedTextPane.setText(
@@ -176,47 +189,71 @@ public class ChatMessageResponseBody extends JPanel {
         titles);
   }
 
-  private void processResponse(String markdownInput, boolean codeResponse, boolean caretVisible) {
+  private void processResponse(StreamParseResponse item, boolean caretVisible) {
     responseReceived = true;
 
-    if (codeResponse) {
-      processCode(markdownInput);
-    } else {
-      processText(markdownInput, caretVisible);
+    switch (item.type()) {
+      case TEXT -> processText(item.response(), caretVisible);
+      case CODE_START -> startCode(item.response());
+      case CODE -> processCode(item.response());
+      case CODE_END -> completeCode();
+      default -> throw new IllegalStateException("Unknown response type: " + item.type());
     }
   }
 
-  private void processCode(String markdownCode) {
-    var document = Parser.builder().build().parse(markdownCode);
-    var child = document.getChildOfType(FencedCodeBlock.class);
-    if (child != null) {
-      var codeBlock = ((FencedCodeBlock) child);
-      var code = codeBlock.getContentChars().unescape();
-      if (!code.isEmpty()) {
-        if (currentlyProcessedEditorPanel == null) {
-          prepareProcessingCode(code, codeBlock.getInfo().unescape());
-        }
-        EditorUtil.updateEditorDocument(currentlyProcessedEditorPanel.getEditor(), code);
+  private void startCode(String markdownLanguage) {
+    hideCaret();
+    currentlyProcessedTextPane = null;
+    currentMarkdownRenderer = null;
+    currentlyProcessedEditorPanel = null;
+    currentText.setLength(0);
+    currentCode.setLength(0);
+    currentCodeLanguage = markdownLanguage;
+  }
+
+  private void processCode(String code) {
+    if (currentlyProcessedEditorPanel == null) {
+      currentCode.append(code);
+      if (currentCode.toString().isBlank()) {
+        return;
       }
+      prepareProcessingCode(currentCode.toString(), currentCodeLanguage);
+      currentCode.setLength(0);
+      return;
+    }
+    currentlyProcessedEditorPanel.appendCode(code);
+  }
+
+  private void completeCode() {
+    if (currentlyProcessedEditorPanel != null) {
+      currentlyProcessedEditorPanel.completeStreaming();
     }
+    currentCode.setLength(0);
+    currentCodeLanguage = null;
   }
 
   private void processText(String markdownText, boolean caretVisible) {
     if (currentlyProcessedTextPane == null) {
+      currentText.append(markdownText);
+      if (currentText.toString().isBlank()) {
+        return;
+      }
       prepareProcessingText(caretVisible);
+      markdownText = currentText.toString();
+      currentText.setLength(0);
     }
-    currentlyProcessedTextPane.setText(convertMdToHtml(markdownText));
+    currentMarkdownRenderer.append(markdownText);
   }
 
   private void prepareProcessingText(boolean caretVisible) {
     currentlyProcessedEditorPanel = null;
+    currentCodeLanguage = null;
     currentlyProcessedTextPane = createTextPane("", caretVisible);
+    currentMarkdownRenderer = new IncrementalMarkdownRenderer(currentlyProcessedTextPane);
     add(currentlyProcessedTextPane);
   }
 
   private void prepareProcessingCode(String code, String markdownLanguage) {
-    hideCaret();
-    currentlyProcessedTextPane = null;
     currentlyProcessedEditorPanel =
         new ResponseEditorPanel(project, code, markdownLanguage, readOnly, parentDisposable);
     add(currentlyProcessedEditorPanel);
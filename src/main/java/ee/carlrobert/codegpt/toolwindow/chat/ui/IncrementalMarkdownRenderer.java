@@ -0,0 +1,96 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui;
+
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import ee.carlrobert.codegpt.toolwindow.chat.ResponseNodeRenderer;
+import java.io.IOException;
+import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
+
+/**
+ * Renders streamed markdown into a {@link JTextPane} block by block.
+ *
+ * <p>Only the trailing, still open top-level block is kept as markdown. Once flexmark starts a
+ * new top-level block and its first line has ended, every block before it is closed: its HTML is
+ * appended to the document once and its markdown is dropped. Until then, the rest of the line may
+ * still make it part of the previous block, as in a list item that arrives as {@code "2"} and
+ * {@code ". b"}. On each update only the open block is re-parsed and its HTML
+ * replaced, so the cost per chunk does not depend on the length of the whole answer.
+ */
+public class IncrementalMarkdownRenderer {
+
+  private static final String OPEN_BLOCK_ID = "streaming-open-block";
+  private static final String EMPTY_DOCUMENT = "<div id=\"" + OPEN_BLOCK_ID + "\"></div>";
+
+  private final JTextPane textPane;
+  private final Parser parser;
+  private final HtmlRenderer htmlRenderer;
+  private final StringBuilder openBlock = new StringBuilder();
+
+  public IncrementalMarkdownRenderer(JTextPane textPane) {
+    this.textPane = textPane;
+    var options = new MutableDataSet();
+    this.parser = Parser.builder(options).build();
+    this.htmlRenderer = HtmlRenderer.builder(options)
+        .nodeRendererFactory(new ResponseNodeRenderer.Factory())
+        .build();
+  }
+
+  public void append(String markdown) {
+    if (markdown.isEmpty()) {
+      return;
+    }
+
+    var openBlockElement = getOpenBlockElement();
+    if (openBlockElement == null) {
+      // the pane was reset or its content replaced from the outside
+      openBlock.setLength(0);
+      textPane.setText(EMPTY_DOCUMENT);
+      openBlockElement = getOpenBlockElement();
+    }
+
+    openBlock.append(markdown);
+    var document = parser.parse(openBlock.toString());
+    var lastBlock = document.getLastChild();
+    try {
+      if (lastBlock != null && lastBlock.getPrevious() != null && isFirstLineEnded(lastBlock)) {
+        getDocument().insertBeforeStart(openBlockElement, renderClosedBlocks(lastBlock));
+        // keep the indentation of the open block, it may be significant
+        openBlock.delete(0, openBlock.lastIndexOf("\n", lastBlock.getStartOffset()) + 1);
+      }
+      getDocument().setInnerHTML(
+          openBlockElement,
+          lastBlock == null ? "" : htmlRenderer.render(lastBlock));
+    } catch (BadLocationException | IOException e) {
+      throw new RuntimeException("Unable to render the markdown", e);
+    }
+  }
+
+  private boolean isFirstLineEnded(Node lastBlock) {
+    return openBlock.indexOf("\n", lastBlock.getStartOffset()) != -1;
+  }
+
+  private String renderClosedBlocks(Node lastBlock) {
+    var html = new StringBuilder();
+    for (var block = lastBlock.getDocument().getFirstChild();
+        block != lastBlock;
+        block = block.getNext()) {
+      html.append(htmlRenderer.render(block));
+    }
+    return html.toString();
+  }
+
+  private Element getOpenBlockElement() {
+    return textPane.getDocument() instanceof HTMLDocument document
+        ? document.getElement(OPEN_BLOCK_ID)
+        : null;
+  }
+
+  private HTMLDocument getDocument() {
+    return (HTMLDocument) textPane.getDocument();
+  }
+}
@@ -7,5 +7,9 @@ public interface AttachImageNotifier {
   Topic<AttachImageNotifier> IMAGE_ATTACHMENT_FILE_PATH_TOPIC =
       Topic.create("imageAttachmentFilePath", AttachImageNotifier.class);
 
+  /**
+   * @param filePath the path of the image the user picked, for display. The path of the attached
+   *                 copy is in {@code CodeGPTKeys.IMAGE_ATTACHMENT_FILE_PATH}.
+   */
   void imageAttached(String filePath);
 }
@@ -15,6 +15,8 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.util.messages.MessageBusConnection;
 import ee.carlrobert.codegpt.Icons;
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService;
+import ee.carlrobert.codegpt.completions.LlamaPromptPrefill;
 import ee.carlrobert.codegpt.completions.llama.LlamaModel;
 import ee.carlrobert.codegpt.completions.you.YouUserManager;
 import ee.carlrobert.codegpt.completions.you.auth.SignedOutNotifier;
@@ -224,7 +226,10 @@ public class ModelComboBoxAction extends ComboBoxAction {
       String label,
       Icon icon,
       Presentation comboBoxPresentation) {
+    // the prefill would warm up the previous model
+    LlamaPromptPrefill.getInstance().cancel();
     settings.setSelectedService(serviceType);
+    ConnectionWarmupService.getInstance().warmUpAsync(serviceType);
     comboBoxPresentation.setIcon(icon);
     comboBoxPresentation.setText(label);
     onModelChange.run();
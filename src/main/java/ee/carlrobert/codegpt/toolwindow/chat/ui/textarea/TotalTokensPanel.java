@@ -16,6 +16,7 @@ import ee.carlrobert.codegpt.CodeGPTKeys;
 import ee.carlrobert.codegpt.EncodingManager;
 import ee.carlrobert.codegpt.ReferencedFile;
 import ee.carlrobert.codegpt.actions.IncludeFilesInContextNotifier;
+import ee.carlrobert.codegpt.completions.PromptCacheStats;
 import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
 import ee.carlrobert.codegpt.settings.service.ServiceType;
@@ -25,6 +26,7 @@ import java.awt.event.MouseEvent;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import javax.swing.Box;
 import javax.swing.JPanel;
@@ -36,6 +38,7 @@ public class TotalTokensPanel extends JPanel {
   private final EncodingManager encodingManager = EncodingManager.getInstance();
   private final TotalTokensDetails totalTokensDetails;
   private final JBLabel label;
+  private UUID conversationId;
 
   public TotalTokensPanel(
       @NotNull Project project,
@@ -43,6 +46,7 @@ public class TotalTokensPanel extends JPanel {
       @Nullable String highlightedText,
       Disposable parentDisposable) {
     super(new FlowLayout(FlowLayout.LEADING, 0, 0));
+    this.conversationId = conversation.getId();
     this.totalTokensDetails = createTokenDetails(
         conversation,
         project.getUserData(CodeGPTKeys.SELECTED_FILES),
@@ -102,6 +106,7 @@ public class TotalTokensPanel extends JPanel {
   }
 
   public void updateConversationTokens(Conversation conversation) {
+    conversationId = conversation.getId();
     updateConversationTokens(encodingManager.countConversationTokens(conversation));
   }
 
@@ -156,12 +161,24 @@ public class TotalTokensPanel extends JPanel {
                 entry.getKey(),
                 entry.getValue()))
             .collect(Collectors.joining());
-        iconLabel.setToolTipText(getIconToolTipText(html));
+        iconLabel.setToolTipText(getIconToolTipText(html + getPromptCacheHtml()));
       }
     });
     return iconLabel;
   }
 
+  private String getPromptCacheHtml() {
+    var lastUsage = PromptCacheStats.getInstance().getLastUsage(conversationId);
+    if (lastUsage == null) {
+      return "";
+    }
+    return format(
+        "<p style=\"margin: 0;\"><small>Cached Prompt Tokens (last response): "
+            + "<strong>%d</strong> of %d</small></p>",
+        lastUsage.cachedTokens(),
+        lastUsage.promptTokens());
+  }
+
   private String getIconToolTipText(String html) {
     if (GeneralSettings.getCurrentState().getSelectedService() != ServiceType.OPENAI) {
       return """
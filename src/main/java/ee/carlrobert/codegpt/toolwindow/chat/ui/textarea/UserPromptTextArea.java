@@ -18,6 +18,7 @@ import ee.carlrobert.codegpt.CodeGPTBundle;
 import ee.carlrobert.codegpt.Icons;
 import ee.carlrobert.codegpt.actions.AttachImageAction;
 import ee.carlrobert.codegpt.completions.CompletionRequestHandler;
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
 import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings;
 import ee.carlrobert.codegpt.ui.IconActionButton;
@@ -53,12 +54,17 @@ public class UserPromptTextArea extends JPanel {
   private final JBTextArea textArea;
   private final int textAreaRadius = 16;
   private final Consumer<String> onSubmit;
+  private final Runnable onTextChanged;
   private IconActionButton stopButton;
   private boolean submitEnabled = true;
 
-  public UserPromptTextArea(Consumer<String> onSubmit, TotalTokensPanel totalTokensPanel) {
+  public UserPromptTextArea(
+      Consumer<String> onSubmit,
+      Runnable onTextChanged,
+      TotalTokensPanel totalTokensPanel) {
     super(new BorderLayout());
     this.onSubmit = onSubmit;
+    this.onTextChanged = onTextChanged;
 
     textArea = new JBTextArea();
     textArea.getDocument().addDocumentListener(getDocumentAdapter(totalTokensPanel));
@@ -82,6 +88,7 @@ public class UserPromptTextArea extends JPanel {
       @Override
       public void focusGained(FocusEvent e) {
         UserPromptTextArea.super.paintBorder(UserPromptTextArea.super.getGraphics());
+        ConnectionWarmupService.getInstance().warmUpAsync();
       }
 
       @Override
@@ -104,6 +111,9 @@ public class UserPromptTextArea extends JPanel {
                 document.getStartPosition().getOffset(),
                 document.getEndPosition().getOffset() - 1);
             totalTokensPanel.updateUserPromptTokens(text);
+            if (!text.isBlank()) {
+              onTextChanged.run();
+            }
           } catch (BadLocationException ex) {
             LOG.error("Something went wrong while processing user input tokens", ex);
           }
@@ -0,0 +1,100 @@
+package ee.carlrobert.codegpt.toolwindow.conversations;
+
+import com.intellij.ui.JBColor;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.util.ui.JBFont;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import ee.carlrobert.codegpt.conversations.Conversation;
+import ee.carlrobert.codegpt.conversations.ConversationsState;
+import ee.carlrobert.codegpt.ui.ModelIconLabel;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.ListCellRenderer;
+
+/**
+ * Stamps a single reused component for every visible conversation row, so the cost of rendering
+ * the history depends only on the number of visible rows.
+ */
+class ConversationListCellRenderer implements ListCellRenderer<Conversation> {
+
+  private static final DateTimeFormatter DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("M/d/yyyy, h:mm:ss a");
+
+  private final Map<String, ModelIconLabel> modelLabels = new HashMap<>();
+  private final JPanel component = new JPanel(new BorderLayout());
+  private final JPanel cellPanel = new JPanel(new BorderLayout());
+  private final JPanel textPanel = new JPanel(new BorderLayout());
+  private final JPanel bottomPanel = new JPanel(new BorderLayout());
+  private final JBLabel titleLabel = new JBLabel().withFont(JBFont.label().asBold());
+  private final JLabel dateLabel = new JLabel();
+
+  ConversationListCellRenderer() {
+    titleLabel.setBorder(JBUI.Borders.emptyBottom(12));
+    bottomPanel.add(dateLabel, BorderLayout.WEST);
+    textPanel.add(titleLabel, BorderLayout.NORTH);
+    textPanel.add(bottomPanel, BorderLayout.SOUTH);
+    cellPanel.add(textPanel, BorderLayout.CENTER);
+    component.add(cellPanel, BorderLayout.CENTER);
+    component.setBorder(JBUI.Borders.emptyTop(8));
+    UIUtil.setOpaqueRecursively(textPanel, false);
+  }
+
+  @Override
+  public Component getListCellRendererComponent(
+      JList<? extends Conversation> list,
+      Conversation conversation,
+      int index,
+      boolean isSelected,
+      boolean cellHasFocus) {
+    titleLabel.setText(conversation.getTitle());
+    dateLabel.setText(conversation.getUpdatedOn() == null
+        ? ""
+        : conversation.getUpdatedOn().format(DATE_FORMATTER));
+
+    var layout = (BorderLayout) bottomPanel.getLayout();
+    var previousModelLabel = layout.getLayoutComponent(BorderLayout.EAST);
+    if (previousModelLabel != null) {
+      bottomPanel.remove(previousModelLabel);
+    }
+    if (conversation.getModel() != null) {
+      bottomPanel.add(getModelLabel(conversation), BorderLayout.EAST);
+    }
+
+    var border = isCurrentConversation(conversation)
+        ? JBUI.Borders.customLine(JBUI.CurrentTheme.ActionButton.focusedBorder(), 2, 2, 2, 2)
+        : JBUI.Borders.customLine(JBColor.border(), 1, 0, 1, 0);
+    cellPanel.setBorder(JBUI.Borders.compound(border, JBUI.Borders.empty(8)));
+    component.setBackground(list.getBackground());
+    cellPanel.setBackground(isSelected
+        ? UIUtil.getListSelectionBackground(cellHasFocus)
+        : JBColor.background());
+    var foreground = isSelected
+        ? UIUtil.getListSelectionForeground(cellHasFocus)
+        : UIUtil.getListForeground();
+    titleLabel.setForeground(foreground);
+    dateLabel.setForeground(foreground);
+    return component;
+  }
+
+  private ModelIconLabel getModelLabel(Conversation conversation) {
+    return modelLabels.computeIfAbsent(
+        conversation.getClientCode() + ":" + conversation.getModel(),
+        key -> {
+          var label = new ModelIconLabel(conversation.getClientCode(), conversation.getModel());
+          label.setOpaque(false);
+          return label;
+        });
+  }
+
+  private static boolean isCurrentConversation(Conversation conversation) {
+    var currentConversation = ConversationsState.getCurrentConversation();
+    return currentConversation != null && currentConversation.getId().equals(conversation.getId());
+  }
+}
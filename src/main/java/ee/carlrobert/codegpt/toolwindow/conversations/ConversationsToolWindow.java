@@ -3,47 +3,68 @@ package ee.carlrobert.codegpt.toolwindow.conversations;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ui.componentsList.components.ScrollablePanel;
 import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.ui.CollectionListModel;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.JBColor;
+import com.intellij.ui.PopupHandler;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.components.JBList;
 import com.intellij.ui.components.JBScrollPane;
-import com.intellij.util.ui.JBFont;
 import com.intellij.util.ui.JBUI;
 import ee.carlrobert.codegpt.actions.toolwindow.DeleteAllConversationsAction;
+import ee.carlrobert.codegpt.actions.toolwindow.DeleteConversationAction;
 import ee.carlrobert.codegpt.actions.toolwindow.MoveDownAction;
 import ee.carlrobert.codegpt.actions.toolwindow.MoveUpAction;
+import ee.carlrobert.codegpt.conversations.Conversation;
 import ee.carlrobert.codegpt.conversations.ConversationService;
-import javax.swing.Box;
-import javax.swing.BoxLayout;
-import javax.swing.JLabel;
+import ee.carlrobert.codegpt.conversations.ConversationsState;
+import ee.carlrobert.codegpt.settings.GeneralSettings;
+import ee.carlrobert.codegpt.toolwindow.chat.ChatToolWindowContentManager;
+import java.awt.BorderLayout;
+import java.awt.Cursor;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.time.LocalDateTime;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
 import org.jetbrains.annotations.NotNull;
 
 public class ConversationsToolWindow extends JPanel {
 
+  private static final int MAX_SEARCH_RESULTS = 100;
+
   private final Project project;
   private final ConversationService conversationService;
-  private final ScrollablePanel scrollablePanel;
+  private final CollectionListModel<Conversation> listModel;
+  private final JBList<Conversation> conversationList;
   private final JScrollPane scrollPane;
+  private final SearchTextField searchField;
 
   public ConversationsToolWindow(@NotNull Project project) {
     this.project = project;
     this.conversationService = ConversationService.getInstance();
-    scrollablePanel = new ScrollablePanel();
-    scrollablePanel.setLayout(new BoxLayout(scrollablePanel, BoxLayout.Y_AXIS));
+    listModel = new CollectionListModel<>();
+    conversationList = createConversationList(listModel);
 
-    scrollPane = new JBScrollPane();
+    scrollPane = new JBScrollPane(conversationList);
     scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-    scrollPane.setViewportView(scrollablePanel);
     scrollPane.setBorder(null);
     scrollPane.setViewportBorder(null);
+    searchField = createSearchField();
     refresh();
   }
 
   public JPanel getContent() {
     SimpleToolWindowPanel panel = new SimpleToolWindowPanel(true);
-    panel.setContent(scrollPane);
+    var content = new JPanel(new BorderLayout());
+    content.add(searchField, BorderLayout.NORTH);
+    content.add(scrollPane, BorderLayout.CENTER);
+    panel.setContent(content);
 
     var actionGroup = new DefaultActionGroup("TOOLBAR_ACTION_GROUP", false);
     actionGroup.add(new MoveDownAction(this::refresh));
@@ -59,25 +80,103 @@ public class ConversationsToolWindow extends JPanel {
   }
 
   public void refresh() {
-    scrollablePanel.removeAll();
-
-    var sortedConversations = conversationService.getSortedConversations();
-    if (sortedConversations.isEmpty()) {
-      var emptyLabel = new JLabel("No conversations exist.");
-      emptyLabel.setFont(JBFont.h2());
-      emptyLabel.setBorder(JBUI.Borders.empty(8));
-      scrollablePanel.add(emptyLabel);
+    var query = searchField.getText();
+    if (query.isBlank()) {
+      listModel.replaceAll(conversationService.getSortedConversations());
+      conversationList.getEmptyText().setText("No conversations exist.");
     } else {
-      sortedConversations.forEach(conversation -> {
-        scrollablePanel.add(Box.createVerticalStrut(8));
-        scrollablePanel.add(new ConversationPanel(project, conversation, () -> {
-          ConversationService.getInstance().deleteConversation(conversation);
-          refresh();
-        }));
-      });
+      listModel.replaceAll(conversationService.searchConversations(query, MAX_SEARCH_RESULTS));
+      conversationList.getEmptyText().setText("No matching conversations.");
     }
+    selectCurrentConversation();
+  }
+
+  private SearchTextField createSearchField() {
+    var field = new SearchTextField(false);
+    field.getTextEditor().getEmptyText().setText("Search conversations");
+    field.setBorder(JBUI.Borders.customLineBottom(JBColor.border()));
+    field.addDocumentListener(new DocumentAdapter() {
+      @Override
+      protected void textChanged(@NotNull DocumentEvent e) {
+        refresh();
+      }
+    });
+    return field;
+  }
+
+  private JBList<Conversation> createConversationList(CollectionListModel<Conversation> model) {
+    var list = new JBList<>(model);
+    list.setCellRenderer(new ConversationListCellRenderer());
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.setCursor(new Cursor(Cursor.HAND_CURSOR));
+    // all the rows have the same height, no need to measure every conversation
+    list.setPrototypeCellValue(createPrototypeConversation());
+    list.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mousePressed(MouseEvent e) {
+        var index = getRowIndex(list, e);
+        if (index != -1 && SwingUtilities.isRightMouseButton(e)) {
+          list.setSelectedIndex(index);
+        }
+      }
+
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        var index = getRowIndex(list, e);
+        if (index != -1 && SwingUtilities.isLeftMouseButton(e)) {
+          displayConversation(model.getElementAt(index));
+        }
+      }
+    });
+
+    var popupGroup = new DefaultActionGroup();
+    popupGroup.add(new DeleteConversationAction(() -> deleteSelectedConversation(list)));
+    PopupHandler.installPopupMenu(list, popupGroup, "CodeGPTConversationsPopup");
+    return list;
+  }
+
+  private void displayConversation(Conversation conversation) {
+    GeneralSettings.getInstance().sync(conversation);
+    project.getService(ChatToolWindowContentManager.class).displayConversation(conversation);
+    conversationList.repaint();
+  }
+
+  private void deleteSelectedConversation(JBList<Conversation> list) {
+    var conversation = list.getSelectedValue();
+    if (conversation != null) {
+      conversationService.deleteConversation(conversation);
+      listModel.remove(conversation);
+    }
+  }
+
+  private void selectCurrentConversation() {
+    var currentConversation = ConversationsState.getCurrentConversation();
+    if (currentConversation != null) {
+      for (int i = 0; i < listModel.getSize(); i++) {
+        if (listModel.getElementAt(i).getId().equals(currentConversation.getId())) {
+          conversationList.setSelectedIndex(i);
+          conversationList.ensureIndexIsVisible(i);
+          return;
+        }
+      }
+    }
+    conversationList.clearSelection();
+  }
+
+  private static int getRowIndex(JBList<Conversation> list, MouseEvent e) {
+    var index = list.locationToIndex(e.getPoint());
+    if (index == -1 || !list.getCellBounds(index, index).contains(e.getPoint())) {
+      return -1;
+    }
+    return index;
+  }
 
-    scrollablePanel.revalidate();
-    scrollablePanel.repaint();
+  private static Conversation createPrototypeConversation() {
+    var conversation = new Conversation();
+    conversation.setTitle("Prototype");
+    conversation.setClientCode("chat.completion");
+    conversation.setModel("gpt-4");
+    conversation.setUpdatedOn(LocalDateTime.now());
+    return conversation;
   }
 }
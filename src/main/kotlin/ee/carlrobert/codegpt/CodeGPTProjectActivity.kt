@@ -6,6 +6,7 @@ import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.startup.ProjectActivity
 import com.intellij.openapi.util.Disposer
+import ee.carlrobert.codegpt.actions.AttachImageAction
 import ee.carlrobert.codegpt.actions.editor.EditorActionsUtil
 import ee.carlrobert.codegpt.completions.you.YouUserManager
 import ee.carlrobert.codegpt.completions.you.auth.AuthenticationHandler
@@ -17,7 +18,6 @@ import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey
 import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.codegpt.settings.service.you.YouSettings
-import ee.carlrobert.codegpt.toolwindow.chat.ui.textarea.AttachImageNotifier
 import ee.carlrobert.codegpt.ui.OverlayUtil
 import java.nio.file.Paths
 
@@ -83,12 +83,7 @@ class CodeGPTProjectActivity : ProjectActivity {
             .addAction(NotificationAction.createSimpleExpiring(
                 CodeGPTBundle.get("imageAttachmentNotification.action")
             ) {
-                CodeGPTKeys.IMAGE_ATTACHMENT_FILE_PATH.set(project, filePath)
-                project.messageBus
-                    .syncPublisher<AttachImageNotifier>(
-                        AttachImageNotifier.IMAGE_ATTACHMENT_FILE_PATH_TOPIC
-                    )
-                    .imageAttached(filePath)
+                AttachImageAction.attachImage(project, filePath)
             })
             .addAction(NotificationAction.createSimpleExpiring(
                 CodeGPTBundle.get("shared.notification.doNotShowAgain")
@@ -2,12 +2,18 @@ package ee.carlrobert.codegpt.actions
 
 import com.intellij.openapi.actionSystem.AnAction
 import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.fileChooser.FileChooser
 import com.intellij.openapi.fileChooser.FileChooserDescriptor
+import com.intellij.openapi.project.Project
 import ee.carlrobert.codegpt.CodeGPTBundle
 import ee.carlrobert.codegpt.CodeGPTKeys
 import ee.carlrobert.codegpt.Icons
+import ee.carlrobert.codegpt.conversations.ImageAttachmentStore
 import ee.carlrobert.codegpt.toolwindow.chat.ui.textarea.AttachImageNotifier
+import java.io.IOException
+import java.nio.file.Path
 
 class AttachImageAction : AnAction(
     CodeGPTBundle.get("action.attachImage"),
@@ -20,10 +26,7 @@ class AttachImageAction : AnAction(
             if (files.isNotEmpty()) {
                 check(files.size == 1) { "Expected exactly one file to be selected" }
                 e.project?.let { project ->
-                    CodeGPTKeys.IMAGE_ATTACHMENT_FILE_PATH[project] = files.first().path
-                    project.messageBus
-                        .syncPublisher(AttachImageNotifier.IMAGE_ATTACHMENT_FILE_PATH_TOPIC)
-                        .imageAttached(files.first().path)
+                    attachImage(project, files.first().path)
                 }
             }
         }
@@ -37,4 +40,33 @@ class AttachImageAction : AnAction(
         }
         withTitle(CodeGPTBundle.get("imageFileChooser.title"))
     }
-}
\ No newline at end of file
+
+    companion object {
+        private val logger = Logger.getInstance(AttachImageAction::class.java)
+
+        /**
+         * Attaches a downscaled copy of the image to the next message, see [ImageAttachmentStore].
+         */
+        @JvmStatic
+        fun attachImage(project: Project, filePath: String) {
+            val application = ApplicationManager.getApplication()
+            application.executeOnPooledThread {
+                val attachedFilePath = try {
+                    ImageAttachmentStore.getInstance().attach(Path.of(filePath)).toString()
+                } catch (ex: IOException) {
+                    logger.warn("Unable to store the image attachment, using the original", ex)
+                    filePath
+                }
+                application.invokeLater {
+                    if (!project.isDisposed) {
+                        CodeGPTKeys.IMAGE_ATTACHMENT_FILE_PATH[project] = attachedFilePath
+                        // the stored copy is named by its hash, so the user's file is displayed
+                        project.messageBus
+                            .syncPublisher(AttachImageNotifier.IMAGE_ATTACHMENT_FILE_PATH_TOPIC)
+                            .imageAttached(filePath)
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Serves inline completions that are already known without asking the model again.
+ *
+ * Completions are kept in an LRU cache keyed by the file, the hashes of the prefix and suffix
+ * windows and the model with its completion settings, so returning to a caret position that was
+ * just left shows the same suggestion. The latest suggestion of each file is also matched against
+ * the characters typed since: while they are a prefix of it, the rest of the suggestion is served.
+ */
+@Service
+class CodeCompletionCache {
+
+    companion object {
+        private const val MAX_ENTRIES = 512
+        private const val MAX_FILES = 64
+        // enough of the prefix before the suggestion to tell that it wasn't edited meanwhile
+        private const val ANCHOR_LENGTH = 64
+
+        @JvmStatic
+        fun getInstance(): CodeCompletionCache =
+            ApplicationManager.getApplication().getService(CodeCompletionCache::class.java)
+
+        private fun hash(text: String): Long {
+            var hash = -0x340d631b7bdddcdbL
+            for (char in text) {
+                hash = (hash xor char.code.toLong()) * 0x100000001b3L
+            }
+            return hash
+        }
+    }
+
+    private val entries = lruMap<Key, String>(MAX_ENTRIES)
+    private val suggestions = lruMap<String, Suggestion>(MAX_FILES)
+    private val hits = LongAdder()
+    private val typeAheadHits = LongAdder()
+    private val misses = LongAdder()
+
+    /**
+     * Returns the completion to show at the caret, or null if it must be requested.
+     */
+    fun get(filePath: String, details: InfillRequestDetails, caretOffset: Int): String? {
+        val settings = getRequestSettings()
+        synchronized(this) {
+            entries[Key.of(filePath, details, settings)]?.let {
+                hits.increment()
+                return it
+            }
+            getTypeAheadCompletion(filePath, details, caretOffset, settings)?.let {
+                typeAheadHits.increment()
+                return it
+            }
+        }
+        misses.increment()
+        return null
+    }
+
+    fun put(filePath: String, details: InfillRequestDetails, caretOffset: Int, completion: String) {
+        if (completion.isEmpty()) {
+            return
+        }
+        val settings = getRequestSettings()
+        synchronized(this) {
+            entries[Key.of(filePath, details, settings)] = completion
+            suggestions[filePath] = Suggestion(details, caretOffset, completion, settings)
+        }
+    }
+
+    fun getStats() = Stats(hits.sum(), typeAheadHits.sum(), misses.sum())
+
+    private fun getTypeAheadCompletion(
+        filePath: String,
+        details: InfillRequestDetails,
+        caretOffset: Int,
+        settings: RequestSettings
+    ): String? {
+        val suggestion = suggestions[filePath] ?: return null
+        val typedLength = caretOffset - suggestion.caretOffset
+        if (suggestion.settings != settings
+            || typedLength <= 0
+            || typedLength >= suggestion.completion.length
+            || details.suffix != suggestion.details.suffix
+        ) {
+            return null
+        }
+
+        val typed = suggestion.completion.substring(0, typedLength)
+        val anchor = suggestion.details.prefix.takeLast(ANCHOR_LENGTH)
+        if (!details.prefix.endsWith(anchor + typed)) {
+            return null
+        }
+        return suggestion.completion.substring(typedLength)
+    }
+
+    private fun getRequestSettings(): RequestSettings {
+        val selectedService = GeneralSettings.getCurrentState().selectedService
+        if (selectedService != ServiceType.LLAMA_CPP) {
+            val settings = OpenAISettings.getCurrentState()
+            return RequestSettings(
+                selectedService.name,
+                settings.codeCompletionMaxTokens,
+                settings.isCodeCompletionMultiLineEnabled
+            )
+        }
+        val settings = LlamaSettings.getCurrentState()
+        val model = when {
+            !settings.isRunLocalServer -> settings.baseHost
+            settings.isUseCustomModel -> settings.customLlamaModelPath
+            else -> settings.huggingFaceModel.name
+        }
+        return RequestSettings(
+            model,
+            settings.codeCompletionMaxTokens,
+            settings.isCodeCompletionMultiLineEnabled
+        )
+    }
+
+    private fun <K, V> lruMap(maxEntries: Int) =
+        object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>) =
+                size > maxEntries
+        }
+
+    private data class Key(
+        val filePath: String,
+        val prefixHash: Long,
+        val suffixHash: Long,
+        val settings: RequestSettings
+    ) {
+        companion object {
+            fun of(filePath: String, details: InfillRequestDetails, settings: RequestSettings) =
+                Key(filePath, hash(details.prefix), hash(details.suffix), settings)
+        }
+    }
+
+    /**
+     * The model and the settings that shape its completions, which are only reused for the same.
+     */
+    private data class RequestSettings(
+        val model: String,
+        val maxTokens: Int,
+        val multiLineEnabled: Boolean
+    )
+
+    /**
+     * The latest suggestion of a file, where it was requested.
+     */
+    private data class Suggestion(
+        val details: InfillRequestDetails,
+        val caretOffset: Int,
+        val completion: String,
+        val settings: RequestSettings
+    )
+
+    data class Stats(val hits: Long, val typeAheadHits: Long, val misses: Long)
+}
@@ -0,0 +1,181 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.Logger
+import ee.carlrobert.codegpt.completions.CompletionRequestService
+import ee.carlrobert.llm.completion.CompletionEventListener
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.delay
+import okhttp3.sse.EventSource
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+internal typealias CodeCompletionRequester =
+        (InfillRequestDetails, CompletionEventListener<String>) -> EventSource
+
+/**
+ * Decides which inline completion requests actually reach the server.
+ *
+ * Every suggestion first waits for a pause in typing, which is a bit longer than the recent
+ * keystroke interval. A suggestion superseded in the meantime is cancelled by the platform before
+ * its request is sent. Suggestions for the same context share a single request while it's in
+ * flight, and the request is cancelled once nobody waits for it anymore.
+ */
+@Service
+class CodeCompletionScheduler internal constructor(
+    private val requestCompletion: CodeCompletionRequester
+) {
+
+    constructor() : this({ details, listener ->
+        CompletionRequestService.getInstance().getCodeCompletionAsync(details, listener)
+    })
+
+    companion object {
+        private val LOG = Logger.getInstance(CodeCompletionScheduler::class.java)
+
+        private const val MIN_DEBOUNCE_MILLIS = 50L
+        private const val MAX_DEBOUNCE_MILLIS = 300L
+        private const val INITIAL_KEYSTROKE_INTERVAL_MILLIS = 120.0
+        // longer gaps are pauses, not the typing speed
+        private const val MAX_KEYSTROKE_INTERVAL_MILLIS = 1_000L
+        private const val KEYSTROKE_INTERVAL_WEIGHT = 0.3
+
+        @JvmStatic
+        fun getInstance(): CodeCompletionScheduler =
+            ApplicationManager.getApplication().getService(CodeCompletionScheduler::class.java)
+    }
+
+    private val flights = ConcurrentHashMap<InfillRequestDetails, Flight>()
+    private val requested = LongAdder()
+    private val sent = LongAdder()
+    private val debounced = LongAdder()
+    private val deduplicated = LongAdder()
+
+    @Volatile
+    private var keystrokeIntervalMillis = INITIAL_KEYSTROKE_INTERVAL_MILLIS
+
+    @Volatile
+    private var lastKeystrokeNanos = 0L
+
+    /**
+     * Returns the completion of the context, once typing pauses. Cancelling the caller before
+     * then avoids the request altogether.
+     *
+     * @param syntaxChecker ends a multi-line completion, otherwise it ends at the line break
+     */
+    suspend fun complete(
+        details: InfillRequestDetails,
+        syntaxChecker: CodeCompletionSyntaxChecker? = null
+    ): String {
+        requested.increment()
+        try {
+            delay(recordKeystroke())
+        } catch (e: CancellationException) {
+            debounced.increment()
+            throw e
+        }
+
+        var created = false
+        val flight = flights.compute(details) { _, existing ->
+            existing?.takeIf { it.join() } ?: Flight().also { created = true }
+        }!!
+        if (created) {
+            sent.increment()
+            flight.start(details, syntaxChecker)
+            LOG.debug("Sent ${sent.sum()} of ${requested.sum()} code completion requests")
+        } else {
+            deduplicated.increment()
+        }
+
+        try {
+            return flight.result.await()
+        } finally {
+            if (flight.leave()) {
+                flights.remove(details, flight)
+            }
+        }
+    }
+
+    fun getStats() = Stats(requested.sum(), sent.sum(), debounced.sum(), deduplicated.sum())
+
+    /**
+     * Updates the typing speed and returns how long to wait for the next keystroke.
+     */
+    @Synchronized
+    private fun recordKeystroke(): Long {
+        val now = System.nanoTime()
+        val intervalMillis = (now - lastKeystrokeNanos) / 1_000_000
+        if (lastKeystrokeNanos != 0L && intervalMillis < MAX_KEYSTROKE_INTERVAL_MILLIS) {
+            keystrokeIntervalMillis = KEYSTROKE_INTERVAL_WEIGHT * intervalMillis +
+                    (1 - KEYSTROKE_INTERVAL_WEIGHT) * keystrokeIntervalMillis
+        }
+        lastKeystrokeNanos = now
+        return (keystrokeIntervalMillis * 1.2).toLong()
+            .coerceIn(MIN_DEBOUNCE_MILLIS, MAX_DEBOUNCE_MILLIS)
+    }
+
+    private inner class Flight {
+        val result = CompletableDeferred<String>()
+        private var subscribers = 1
+        private var eventSource: EventSource? = null
+
+        fun start(details: InfillRequestDetails, syntaxChecker: CodeCompletionSyntaxChecker?) {
+            val source = try {
+                requestCompletion(
+                    details,
+                    CodeGPTInlineCompletionProvider.CodeCompletionEventListener(syntaxChecker) {
+                        result.complete(it.toString())
+                    })
+            } catch (e: Exception) {
+                result.completeExceptionally(e)
+                return
+            }
+            synchronized(this) {
+                if (subscribers == 0) {
+                    source.cancel()
+                } else {
+                    eventSource = source
+                }
+            }
+        }
+
+        /**
+         * Returns false if the flight was already abandoned and can't be joined.
+         */
+        @Synchronized
+        fun join(): Boolean {
+            if (subscribers == 0) {
+                return false
+            }
+            subscribers++
+            return true
+        }
+
+        /**
+         * Returns true if this was the last subscriber.
+         */
+        @Synchronized
+        fun leave(): Boolean {
+            subscribers--
+            if (subscribers > 0) {
+                return false
+            }
+            if (!result.isCompleted) {
+                eventSource?.cancel()
+            }
+            return true
+        }
+    }
+
+    data class Stats(
+        val requested: Long,
+        val sent: Long,
+        val debounced: Long,
+        val deduplicated: Long
+    ) {
+        val avoided: Long
+            get() = debounced + deduplicated
+    }
+}
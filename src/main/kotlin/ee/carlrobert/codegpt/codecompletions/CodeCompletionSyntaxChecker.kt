@@ -0,0 +1,71 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings
+import ee.carlrobert.codegpt.treesitter.CodeCompletionParser
+import ee.carlrobert.codegpt.treesitter.CodeCompletionParserFactory
+
+/**
+ * Decides where a multi-line completion ends, by parsing it in between the prefix and the suffix.
+ *
+ * The streamed completion is checked at every line break: once the lines received so far add no
+ * syntax errors to those the truncated prefix and suffix already have, the block, statement or
+ * expression they started is complete and the rest of the generation isn't needed.
+ */
+class CodeCompletionSyntaxChecker internal constructor(
+    private val parser: CodeCompletionParser,
+    private val details: InfillRequestDetails
+) {
+
+    companion object {
+        /**
+         * Returns the checker of the context, or null if multi-line completions are disabled or
+         * the language of the file isn't supported.
+         */
+        @JvmStatic
+        fun of(details: InfillRequestDetails): CodeCompletionSyntaxChecker? {
+            if (!isMultiLineEnabled()) {
+                return null
+            }
+            val parser = try {
+                CodeCompletionParserFactory.getParserForFileExtension(details.fileExtension)
+            } catch (e: IllegalArgumentException) {
+                return null
+            }
+            return CodeCompletionSyntaxChecker(parser, details)
+        }
+
+        private fun isMultiLineEnabled(): Boolean {
+            return when (GeneralSettings.getCurrentState().selectedService) {
+                ServiceType.OPENAI -> OpenAISettings.getCurrentState()
+                    .isCodeCompletionMultiLineEnabled
+
+                ServiceType.LLAMA_CPP -> LlamaSettings.getCurrentState()
+                    .isCodeCompletionMultiLineEnabled
+
+                else -> false
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the complete part of the streamed completion, or -1 if more of it is
+     * needed. Only the lines that were fully received are considered.
+     */
+    fun getCompleteLength(completion: CharSequence): Int {
+        val lineEnd = completion.lastIndexOf('\n')
+        if (lineEnd == -1) {
+            return -1
+        }
+        val lines = completion.substring(0, lineEnd).trimEnd()
+        return if (parser.isComplete(details.prefix, details.suffix, lines)) lines.length else -1
+    }
+
+    /**
+     * Returns the longest part of the completion that can be inserted without syntax errors.
+     */
+    fun trim(completion: String): String =
+        parser.parse(details.prefix, details.suffix, completion).trimEnd()
+}
@@ -5,19 +5,17 @@ import com.intellij.codeInsight.inline.completion.elements.InlineCompletionGrayT
 import com.intellij.openapi.application.EDT
 import com.intellij.openapi.diagnostic.Logger
 import ee.carlrobert.codegpt.CodeGPTKeys
-import ee.carlrobert.codegpt.completions.CompletionRequestService
+import ee.carlrobert.codegpt.completions.ConnectionWarmupService
 import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
 import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
 import ee.carlrobert.llm.completion.CompletionEventListener
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.channelFlow
-import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import okhttp3.sse.EventSource
-import java.util.concurrent.atomic.AtomicReference
 
 class CodeGPTInlineCompletionProvider : InlineCompletionProvider {
 
@@ -25,8 +23,6 @@ class CodeGPTInlineCompletionProvider : InlineCompletionProvider {
         private val LOG = Logger.getInstance(CodeGPTInlineCompletionProvider::class.java)
     }
 
-    private val currentCall = AtomicReference<EventSource>(null)
-
     override val id: InlineCompletionProviderID
         get() = InlineCompletionProviderID("CodeGPTInlineCompletionProvider")
 
@@ -37,26 +33,25 @@ class CodeGPTInlineCompletionProvider : InlineCompletionProvider {
         }
 
         return InlineCompletionSuggestion.Default(channelFlow {
-            val infillRequest = withContext(Dispatchers.EDT) {
-                InfillRequestDetails.fromInlineCompletionRequest(request)
+            val (infillRequest, caretOffset) = withContext(Dispatchers.EDT) {
+                InfillRequestDetails.fromInlineCompletionRequest(request) to
+                        request.editor.caretModel.offset
+            }
+            val filePath = request.file.virtualFile?.path ?: request.file.name
+            val cache = CodeCompletionCache.getInstance()
+            val inlineText = cache.get(filePath, infillRequest, caretOffset) ?: run {
+                val syntaxChecker = CodeCompletionSyntaxChecker.of(infillRequest)
+                // suspends until typing pauses, nothing is sent if the suggestion is superseded
+                val completion = CodeCompletionScheduler.getInstance()
+                    .complete(infillRequest, syntaxChecker)
+                val inlineText = syntaxChecker?.trim(completion)
+                    ?: completion.takeWhile { it != '\n' }
+                inlineText.also {
+                    cache.put(filePath, infillRequest, caretOffset, it)
+                }
             }
-            currentCall.set(
-                CompletionRequestService.getInstance().getCodeCompletionAsync(
-                    infillRequest,
-                    CodeCompletionEventListener {
-                        val inlineText = it.takeWhile { message -> message != '\n' }.toString()
-                        request.editor.putUserData(CodeGPTKeys.PREVIOUS_INLAY_TEXT, inlineText)
-                        launch {
-                            try {
-                                trySend(InlineCompletionGrayTextElement(inlineText))
-                            } catch (e: Exception) {
-                                LOG.error("Failed to send inline completion suggestion", e)
-                            }
-                        }
-                    }
-                )
-            )
-            awaitClose { cancelCurrentCall() }
+            request.editor.putUserData(CodeGPTKeys.PREVIOUS_INLAY_TEXT, inlineText)
+            send(InlineCompletionGrayTextElement(inlineText))
         })
     }
 
@@ -67,29 +62,64 @@ class CodeGPTInlineCompletionProvider : InlineCompletionProvider {
             ServiceType.LLAMA_CPP -> LlamaSettings.getCurrentState().isCodeCompletionsEnabled
             else -> false
         }
-        return event is InlineCompletionEvent.DocumentChange && codeCompletionsEnabled
-    }
-
-    private fun cancelCurrentCall() {
-        currentCall.getAndSet(null)?.cancel()
+        val enabled = event is InlineCompletionEvent.DocumentChange && codeCompletionsEnabled
+        if (enabled) {
+            ConnectionWarmupService.getInstance().warmUpAsync(selectedService)
+        }
+        return enabled
     }
 
+    /**
+     * Cancels the stream at the first line break, or once the multi-line completion is
+     * syntactically complete if a syntax checker is given.
+     */
     class CodeCompletionEventListener(
+        private val syntaxChecker: CodeCompletionSyntaxChecker? = null,
         private val completed: (StringBuilder) -> Unit
     ) : CompletionEventListener<String> {
 
+        private val receivedMessage = StringBuilder()
+        private var completeLength = -1
+
         override fun onMessage(message: String?, eventSource: EventSource?) {
-            if (message != null && message.contains('\n')) {
-                eventSource?.cancel()
+            if (message == null || completeLength != -1) {
+                return
+            }
+            if (syntaxChecker == null) {
+                if (message.contains('\n')) {
+                    eventSource?.cancel()
+                }
+                return
+            }
+
+            receivedMessage.append(message)
+            if (message.contains('\n')) {
+                completeLength = syntaxChecker.getCompleteLength(receivedMessage)
+                if (completeLength != -1) {
+                    eventSource?.cancel()
+                }
             }
         }
 
         override fun onComplete(messageBuilder: StringBuilder) {
-            completed(messageBuilder)
+            completed(getCompletion(messageBuilder))
         }
 
         override fun onCancelled(messageBuilder: StringBuilder) {
-            completed(messageBuilder)
+            completed(getCompletion(messageBuilder))
+        }
+
+        override fun onError(error: ErrorDetails, ex: Throwable) {
+            LOG.debug("Code completion failed: ${error.message}", ex)
+            completed(StringBuilder())
+        }
+
+        // the rest of the chunk that completed the suggestion isn't part of it
+        private fun getCompletion(messageBuilder: StringBuilder): StringBuilder {
+            if (completeLength == -1 || completeLength > messageBuilder.length) {
+                return messageBuilder
+            }
+            return StringBuilder(messageBuilder.substring(0, completeLength))
         }
     }
 }
\ No newline at end of file
@@ -2,13 +2,16 @@ package ee.carlrobert.codegpt.codecompletions
 
 import com.intellij.codeInsight.inline.completion.InlineCompletionRequest
 import com.intellij.openapi.editor.Document
-import com.intellij.openapi.util.TextRange
 import ee.carlrobert.codegpt.EncodingManager
 import ee.carlrobert.codegpt.util.file.FileUtil
 import kotlin.math.max
 import kotlin.math.min
 
-class InfillRequestDetails(val prefix: String, val suffix: String, val fileExtension: String) {
+data class InfillRequestDetails(
+    val prefix: String,
+    val suffix: String,
+    val fileExtension: String
+) {
     companion object {
         private const val MAX_OFFSET = 10_000
         private const val MAX_PROMPT_TOKENS = 128
@@ -38,22 +41,12 @@ class InfillRequestDetails(val prefix: String, val suffix: String, val fileExten
             end: Int,
             fileExtension: String
         ): InfillRequestDetails {
-            val prefix: String = truncateText(document, start, caretOffset, false)
-            val suffix: String = truncateText(document, caretOffset, end, true)
+            // a view over the document, nothing is copied until the windows are encoded
+            val text = document.immutableCharSequence.subSequence(start, end)
+            val encodingManager = EncodingManager.getInstance()
+            val prefix = encodingManager.truncatePrefix(text, caretOffset - start, MAX_PROMPT_TOKENS)
+            val suffix = encodingManager.truncateSuffix(text, caretOffset - start, MAX_PROMPT_TOKENS)
             return InfillRequestDetails(prefix, suffix, fileExtension)
         }
-
-        private fun truncateText(
-            document: Document,
-            start: Int,
-            end: Int,
-            fromStart: Boolean
-        ): String {
-            return EncodingManager.getInstance().truncateText(
-                document.getText(TextRange(start, end)),
-                MAX_PROMPT_TOKENS,
-                fromStart
-            )
-        }
     }
 }
\ No newline at end of file
@@ -7,7 +7,11 @@ import com.intellij.util.ui.FormBuilder
 import ee.carlrobert.codegpt.CodeGPTBundle
 import javax.swing.JPanel
 
-class CodeCompletionConfigurationForm(codeCompletionsEnabled: Boolean, maxTokens: Int) {
+class CodeCompletionConfigurationForm(
+    codeCompletionsEnabled: Boolean,
+    maxTokens: Int,
+    multiLineCompletionsEnabled: Boolean
+) {
 
     private val codeCompletionsEnabledCheckBox = JBCheckBox(
         CodeGPTBundle.get("codeCompletionsForm.enableFeatureText"),
@@ -18,6 +22,10 @@ class CodeCompletionConfigurationForm(codeCompletionsEnabled: Boolean, maxTokens
             columns = 12
             value = maxTokens
         }
+    private val multiLineCompletionsEnabledCheckBox = JBCheckBox(
+        CodeGPTBundle.get("codeCompletionsForm.enableMultiLineText"),
+        multiLineCompletionsEnabled
+    )
 
     fun getForm(): JPanel {
         return FormBuilder.createFormBuilder()
@@ -32,6 +40,13 @@ class CodeCompletionConfigurationForm(codeCompletionsEnabled: Boolean, maxTokens
                     CodeGPTBundle.get("codeCompletionsForm.maxTokensComment"), true, 48, true
                 )
             )
+            .addVerticalGap(4)
+            .addComponent(multiLineCompletionsEnabledCheckBox)
+            .addComponent(
+                ComponentPanelBuilder.createCommentComponent(
+                    CodeGPTBundle.get("codeCompletionsForm.multiLineComment"), true, 48, true
+                )
+            )
             .panel
     }
 
@@ -46,4 +61,10 @@ class CodeCompletionConfigurationForm(codeCompletionsEnabled: Boolean, maxTokens
         set(maxTokens) {
             codeCompletionMaxTokensField.value = maxTokens
         }
+
+    var isMultiLineCompletionsEnabled: Boolean
+        get() = multiLineCompletionsEnabledCheckBox.isSelected
+        set(enabled) {
+            multiLineCompletionsEnabledCheckBox.isSelected = enabled
+        }
 }
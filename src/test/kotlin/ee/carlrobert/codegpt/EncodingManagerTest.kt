@@ -0,0 +1,88 @@
+package ee.carlrobert.codegpt
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.conversations.message.Message
+import ee.carlrobert.codegpt.conversations.message.MessageTokenCounts
+import org.assertj.core.api.Assertions.assertThat
+
+class EncodingManagerTest : BasePlatformTestCase() {
+
+  fun testMessageTokenCountsAreStoredOnTheMessage() {
+    val encodingManager = EncodingManager.getInstance()
+    val message = Message("Hello world", "Hi there")
+
+    val tokens = encodingManager.countTokens(message)
+
+    val expectedTokens =
+      encodingManager.countTokens("Hello world") + encodingManager.countTokens("Hi there")
+    assertThat(tokens).isEqualTo(expectedTokens)
+    assertThat(message.tokenCounts.values.single().totalTokens).isEqualTo(tokens)
+  }
+
+  fun testStoredCountsAreUsedUntilTheTextChanges() {
+    val encodingManager = EncodingManager.getInstance()
+    val message = Message("Hello world", "Hi there")
+    encodingManager.countTokens(message)
+    val encodingName = message.tokenCounts.keys.single()
+    message.tokenCounts[encodingName] =
+      MessageTokenCounts.of("Hello world", 100, "Hi there", 200)
+
+    assertThat(encodingManager.countTokens(message)).isEqualTo(300)
+
+    message.response = "Hi"
+
+    assertThat(encodingManager.countTokens(message))
+      .isEqualTo(100 + encodingManager.countTokens("Hi"))
+  }
+
+  fun testStoredCountOfTextWithSameHashButOtherLengthIsStale() {
+    val encodingManager = EncodingManager.getInstance()
+    val message = Message("Hello world", "Hi there")
+    encodingManager.countTokens(message)
+    val encodingName = message.tokenCounts.keys.single()
+    message.tokenCounts[encodingName] = MessageTokenCounts(
+      "Hello world".hashCode(), "Hello".length, 100,
+      "Hi there".hashCode(), "Hi there".length, 200)
+
+    assertThat(encodingManager.countTokens(message))
+      .isEqualTo(encodingManager.countTokens("Hello world") + 200)
+  }
+
+  fun testTotalTokensAreNotPersisted() {
+    val json = ObjectMapper().writeValueAsString(MessageTokenCounts.of("Hello", 1, "Hi", 1))
+
+    assertThat(json).contains("promptLength").doesNotContain("totalTokens")
+  }
+
+  fun testWindowedTruncationMatchesFullTruncation() {
+    val encodingManager = EncodingManager.getInstance()
+    val text = (1..500).joinToString("\n") { "val value$it = compute($it) // line $it" }
+    val offset = text.length / 2
+
+    val prefix = encodingManager.truncatePrefix(text, offset, 128)
+    val suffix = encodingManager.truncateSuffix(text, offset, 128)
+
+    assertThat(prefix)
+      .isEqualTo(encodingManager.truncateText(text.substring(0, offset), 128, false))
+    assertThat(suffix)
+      .isEqualTo(encodingManager.truncateText(text.substring(offset), 128, true))
+    assertThat(encodingManager.truncatePrefix(text, 10, 128)).isEqualTo(text.substring(0, 10))
+  }
+
+  fun testWindowedTruncationDoesNotCutInsideLongIdentifier() {
+    val encodingManager = EncodingManager.getInstance()
+    val identifier = "abcXyz0123_defGhi".repeat(40)
+    val text = "val first = 1\nval $identifier = compute()\nval last = 2\n"
+    val prefixOffset = text.indexOf(" = compute()")
+    val suffixOffset = text.indexOf(identifier)
+
+    val prefix = encodingManager.truncatePrefix(text, prefixOffset, 16)
+    val suffix = encodingManager.truncateSuffix(text, suffixOffset, 16)
+
+    assertThat(prefix)
+      .isEqualTo(encodingManager.truncateText(text.substring(0, prefixOffset), 16, false))
+    assertThat(suffix)
+      .isEqualTo(encodingManager.truncateText(text.substring(suffixOffset), 16, true))
+  }
+}
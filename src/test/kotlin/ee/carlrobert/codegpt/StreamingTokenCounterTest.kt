@@ -0,0 +1,75 @@
+package ee.carlrobert.codegpt
+
+import com.knuddels.jtokkit.Encodings
+import com.knuddels.jtokkit.api.EncodingType
+import ee.carlrobert.codegpt.tokenizer.GgufVocabulary
+import ee.carlrobert.codegpt.tokenizer.SentencePieceTokenizer
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class StreamingTokenCounterTest {
+
+  private val encoding = Encodings.newDefaultEncodingRegistry()
+    .getEncoding(EncodingType.CL100K_BASE)
+
+  @Test
+  fun shouldMatchFullEncodingWhenStreamedInSmallChunks() {
+    val response = """
+            Here is the **updated** method:
+
+            ```java
+            public int getRandomNumber(int bound) {
+                return 1234567 % bound;
+            }
+            ```
+
+            It's deterministic, so don't use it in production!
+            """.trimIndent()
+    val counter = StreamingTokenCounter(encoding::countTokens)
+
+    var streamedCount = 0
+    response.chunked(3).forEach { streamedCount = counter.append(it) }
+
+    assertThat(streamedCount).isEqualTo(encoding.countTokens(response))
+  }
+
+  @Test
+  fun shouldMatchFullEncodingAfterEveryChunk() {
+    val response = "Hello world,\n\n  indented line\nnext 12 apples and 3456 pears\n\n\nend"
+    val counter = StreamingTokenCounter(encoding::countTokens)
+
+    val builder = StringBuilder()
+    response.chunked(2).forEach {
+      builder.append(it)
+      assertThat(counter.append(it)).isEqualTo(encoding.countTokens(builder.toString()))
+    }
+  }
+
+  @Test
+  fun shouldMatchFullSentencePieceEncoding() {
+    val tokens = listOf("<0x0A>", "▁", "h", "i", "t", "▁h", "▁hi", "▁t", "▁th", "▁thi")
+    val scores = FloatArray(tokens.size) { -it.toFloat() }
+    val types = IntArray(tokens.size) { if (it == 0) 6 else 1 }
+    val tokenizer =
+      SentencePieceTokenizer("test", GgufVocabulary("llama", tokens, scores, types, null))
+    val response = "hi hit thi\nhi th hi"
+    val counter =
+      StreamingTokenCounter(tokenizer::countTokens, tokenizer::countContinuationTokens)
+
+    var streamedCount = 0
+    response.chunked(2).forEach { streamedCount = counter.append(it) }
+
+    assertThat(streamedCount).isEqualTo(tokenizer.countTokens(response))
+  }
+
+  @Test
+  fun shouldResetCount() {
+    val counter = StreamingTokenCounter(encoding::countTokens)
+    counter.append("Hello world\nfoo")
+
+    counter.reset()
+
+    assertThat(counter.tokenCount).isZero()
+    assertThat(counter.append("bar")).isEqualTo(encoding.countTokens("bar"))
+  }
+}
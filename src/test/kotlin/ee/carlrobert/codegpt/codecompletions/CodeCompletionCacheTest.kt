@@ -0,0 +1,66 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.settings.service.openai.OpenAISettings
+import org.assertj.core.api.Assertions.assertThat
+
+class CodeCompletionCacheTest : BasePlatformTestCase() {
+
+  private val filePath = "/src/CacheTest.java"
+
+  fun testCompletionIsServedAgainAtTheSamePosition() {
+    val cache = CodeCompletionCache.getInstance()
+    val details = InfillRequestDetails("int total = ", ";\n}", "java")
+
+    cache.put(filePath, details, 12, "first + second")
+
+    assertThat(cache.get(filePath, details, 12)).isEqualTo("first + second")
+    assertThat(cache.get(filePath, details.copy(suffix = ";\n}\n"), 12)).isNull()
+    assertThat(cache.get("/src/Other.java", details, 12)).isNull()
+  }
+
+  fun testRestOfTheSuggestionIsServedWhileTypingIt() {
+    val cache = CodeCompletionCache.getInstance()
+    val details = InfillRequestDetails("String name = ", ";", "java")
+    cache.put(filePath, details, 14, "user.getName()")
+
+    val typeAhead = cache.get(filePath, details.copy(prefix = "String name = user."), 19)
+    val mismatch = cache.get(filePath, details.copy(prefix = "String name = other"), 19)
+    val typedOut = cache.get(filePath, details.copy(prefix = "String name = user.getName()"), 28)
+
+    assertThat(typeAhead).isEqualTo("getName()")
+    assertThat(mismatch).isNull()
+    assertThat(typedOut).isNull()
+  }
+
+  fun testCompletionIsNotServedAfterTheSettingsChange() {
+    val cache = CodeCompletionCache.getInstance()
+    val details = InfillRequestDetails("int count = ", ";", "java")
+    val generalSettings = GeneralSettings.getCurrentState()
+    val openAISettings = OpenAISettings.getCurrentState()
+    val previousService = generalSettings.selectedService
+    val previousMaxTokens = openAISettings.codeCompletionMaxTokens
+    val previousMultiLineEnabled = openAISettings.isCodeCompletionMultiLineEnabled
+    try {
+      generalSettings.selectedService = ServiceType.OPENAI
+      cache.put(filePath, details, 12, "items.size()")
+
+      openAISettings.codeCompletionMaxTokens = previousMaxTokens + 1
+      val afterMaxTokensChange = cache.get(filePath, details, 12)
+      openAISettings.codeCompletionMaxTokens = previousMaxTokens
+      openAISettings.isCodeCompletionMultiLineEnabled = !previousMultiLineEnabled
+      val afterMultiLineChange = cache.get(filePath, details, 12)
+      openAISettings.isCodeCompletionMultiLineEnabled = previousMultiLineEnabled
+
+      assertThat(afterMaxTokensChange).isNull()
+      assertThat(afterMultiLineChange).isNull()
+      assertThat(cache.get(filePath, details, 12)).isEqualTo("items.size()")
+    } finally {
+      generalSettings.selectedService = previousService
+      openAISettings.codeCompletionMaxTokens = previousMaxTokens
+      openAISettings.isCodeCompletionMultiLineEnabled = previousMultiLineEnabled
+    }
+  }
+}
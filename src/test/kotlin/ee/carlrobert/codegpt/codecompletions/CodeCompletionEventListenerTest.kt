@@ -0,0 +1,59 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.codegpt.treesitter.CodeCompletionParserFactory
+import okhttp3.Request
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class CodeCompletionEventListenerTest {
+
+  private val details = InfillRequestDetails(
+    "class Main {\n  public void run(boolean ready) {\n    ",
+    "\n  }\n}",
+    "java"
+  )
+  private val eventSource = object : EventSource {
+    var cancelled = false
+
+    override fun request() = Request.Builder().url("http://localhost").build()
+
+    override fun cancel() {
+      cancelled = true
+    }
+  }
+
+  @Test
+  fun shouldCancelAtFirstLineBreakWithoutSyntaxChecker() {
+    val listener = CodeGPTInlineCompletionProvider.CodeCompletionEventListener {}
+
+    listener.onMessage("if (ready) {\n", eventSource)
+
+    assertThat(eventSource.cancelled).isTrue()
+  }
+
+  @Test
+  fun shouldCancelOnceTheBlockIsComplete() {
+    var completion: String? = null
+    val listener = CodeGPTInlineCompletionProvider.CodeCompletionEventListener(
+      CodeCompletionSyntaxChecker(
+        CodeCompletionParserFactory.getParserForFileExtension("java"),
+        details
+      )
+    ) { completion = it.toString() }
+    val messages = listOf("if (ready) {\n", "      start();\n", "    }\n    stop", "();\n")
+
+    val receivedMessages = StringBuilder()
+    for (message in messages) {
+      listener.onMessage(message, eventSource)
+      receivedMessages.append(message)
+      if (eventSource.cancelled) {
+        break
+      }
+    }
+    listener.onCancelled(receivedMessages)
+
+    assertThat(receivedMessages.toString()).doesNotContain("();")
+    assertThat(completion).isEqualTo("if (ready) {\n      start();\n    }")
+  }
+}
@@ -0,0 +1,51 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.llm.completion.CompletionEventListener
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import okhttp3.Request
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class CodeCompletionSchedulerTest {
+
+  private val details = InfillRequestDetails("PREFIX", "SUFFIX", "java")
+  private val listeners = mutableListOf<CompletionEventListener<String>>()
+  private val scheduler = CodeCompletionScheduler { _, listener ->
+    listeners.add(listener)
+    object : EventSource {
+      override fun request() = Request.Builder().url("http://localhost").build()
+
+      override fun cancel() {
+      }
+    }
+  }
+
+  @Test
+  fun shouldShareTheRequestOfIdenticalContexts() = runBlocking {
+    val first = async { scheduler.complete(details) }
+    val second = async { scheduler.complete(details.copy()) }
+
+    delay(500)
+    listeners.single().onComplete(StringBuilder("COMPLETION"))
+
+    assertThat(first.await()).isEqualTo("COMPLETION")
+    assertThat(second.await()).isEqualTo("COMPLETION")
+    assertThat(scheduler.getStats()).isEqualTo(CodeCompletionScheduler.Stats(2, 1, 0, 1))
+  }
+
+  @Test
+  fun shouldNotSendSupersededRequests() = runBlocking {
+    val superseded = launch(start = CoroutineStart.UNDISPATCHED) { scheduler.complete(details) }
+
+    superseded.cancel()
+    superseded.join()
+
+    assertThat(listeners).isEmpty()
+    assertThat(scheduler.getStats().avoided).isEqualTo(1)
+  }
+}
@@ -7,6 +7,7 @@ import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey
 import ee.carlrobert.codegpt.credentials.CredentialsStore.setCredential
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.llm.client.openai.completion.OpenAIChatCompletionModel
+import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionStandardMessage
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.groups.Tuple
 import testsupport.IntegrationTest
@@ -117,9 +118,22 @@ class CompletionRequestProviderTest : IntegrationTest() {
           false))
 
     assertThat(request.messages)
+      .extracting("role")
+      .containsExactly("system", "system", "user", "assistant", "user")
+    assertThat(request.messages)
+      .element(0)
+      .extracting("content")
+      .isEqualTo(COMPLETION_SYSTEM_PROMPT)
+    val summary = (request.messages[1] as OpenAIChatCompletionStandardMessage).content
+    assertThat(summary.lines())
+      .hasSize(5)
+      .first()
+      .isEqualTo(ContextBudgetPlanner.SUMMARY_HEADER)
+    assertThat(summary.lines().drop(1))
+      .allMatch { it.startsWith("- User: TEST_PROMPT Assistant: zzzz") }
+    assertThat(request.messages.drop(2))
       .extracting("role", "content")
       .containsExactly(
-        Tuple.tuple("system", COMPLETION_SYSTEM_PROMPT),
         Tuple.tuple("user", "TEST_PROMPT"),
         Tuple.tuple("assistant", remainingMessage.response),
         Tuple.tuple("user", "TEST_CHAT_COMPLETION_PROMPT"))
@@ -0,0 +1,101 @@
+package ee.carlrobert.codegpt.completions
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.completions.ContextBudgetPlanner.Budget
+import ee.carlrobert.codegpt.conversations.ConversationService
+import ee.carlrobert.codegpt.conversations.message.Message
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+
+class ContextBudgetPlannerTest : BasePlatformTestCase() {
+
+  fun testHistoryIsKeptWhenItFits() {
+    val conversation = ConversationService.getInstance().startConversation()
+    val history = listOf(Message("First", "Answer"), Message("Second", "Answer"))
+
+    val plan = ContextBudgetPlanner.getInstance()
+      .plan(conversation, history, Budget(1000, 100, 100, 0, 500))
+
+    assertThat(plan.messages()).isEqualTo(history)
+    assertThat(plan.summary()).isNull()
+  }
+
+  fun testOldestTurnsAreReplacedWithSummary() {
+    val conversation = ConversationService.getInstance().startConversation()
+    conversation.discardTokenLimits()
+    val first = Message("How do I read a file?", "Use Files.readString:\n```java\ncode\n```")
+    val second = Message("And write it?", "zz".repeat(500))
+    val third = Message("Thanks", "zz".repeat(1000))
+
+    val plan = ContextBudgetPlanner.getInstance()
+      .plan(conversation, listOf(first, second, third), Budget(2000, 100, 100, 0, 400))
+
+    assertThat(plan.messages()).containsExactly(third)
+    assertThat(plan.summary()!!.lines())
+      .hasSize(3)
+      .startsWith(
+        ContextBudgetPlanner.SUMMARY_HEADER,
+        "- User: How do I read a file? Assistant: Use Files.readString: [code]")
+  }
+
+  fun testSummaryIsExtendedWithNewlyDroppedTurns() {
+    val conversation = ConversationService.getInstance().startConversation()
+    conversation.discardTokenLimits()
+    val planner = ContextBudgetPlanner.getInstance()
+    val history = mutableListOf(
+      Message("First", "zz".repeat(800)),
+      Message("Second", "zz".repeat(800)))
+    planner.plan(conversation, history, Budget(2000, 100, 100, 0, 400))
+    history.add(Message("Third", "zz".repeat(800)))
+
+    val plan = planner.plan(conversation, history, Budget(2000, 100, 100, 0, 400))
+
+    assertThat(plan.messages()).containsExactly(history[2])
+    val summaryLines = plan.summary()!!.lines().drop(1)
+    assertThat(summaryLines).hasSize(2)
+    assertThat(summaryLines[0]).startsWith("- User: First Assistant: zzzz")
+    assertThat(summaryLines[1]).startsWith("- User: Second Assistant: zzzz")
+  }
+
+  fun testCutStaysInPlaceWhileTheKeptTurnsFit() {
+    val conversation = ConversationService.getInstance().startConversation()
+    conversation.discardTokenLimits()
+    val planner = ContextBudgetPlanner.getInstance()
+    val history = (1..5).map { Message("Turn $it", "zz".repeat(300)) }.toMutableList()
+    val firstPlan = planner.plan(conversation, history, Budget(2000, 100, 100, 0, 400))
+    history.add(Message("Turn 6", "zz".repeat(300)))
+
+    val secondPlan = planner.plan(conversation, history, Budget(2000, 100, 100, 0, 400))
+
+    assertThat(firstPlan.messages()).containsExactly(history[3], history[4])
+    assertThat(secondPlan.messages()).containsExactly(history[3], history[4], history[5])
+    assertThat(secondPlan.summary()).isEqualTo(firstPlan.summary())
+  }
+
+  fun testDroppingTurnsRequiresDiscardedTokenLimits() {
+    val conversation = ConversationService.getInstance().startConversation()
+    val history = listOf(Message("First", "zz".repeat(1000)))
+
+    assertThrows(TotalUsageExceededException::class.java) {
+      ContextBudgetPlanner.getInstance()
+        .plan(conversation, history, Budget(1000, 100, 100, 0, 500))
+    }
+  }
+
+  fun testPromptExceedingContextThrows() {
+    val conversation = ConversationService.getInstance().startConversation()
+    conversation.discardTokenLimits()
+
+    assertThrows(TotalUsageExceededException::class.java) {
+      ContextBudgetPlanner.getInstance()
+        .plan(conversation, listOf(), Budget(1000, 100, 1000, 0, 500))
+    }
+  }
+
+  fun testContextSizeOfKnownModels() {
+    assertThat(ContextBudgetPlanner.getContextSize(ServiceType.ANTHROPIC, "claude-3-opus-20240229"))
+      .isEqualTo(200_000)
+    assertThat(ContextBudgetPlanner.getContextSize(ServiceType.OPENAI, "unknown-model")).isNull()
+    assertThat(ContextBudgetPlanner.getContextSize(ServiceType.YOU, null)).isNull()
+  }
+}
@@ -0,0 +1,42 @@
+package ee.carlrobert.codegpt.completions
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettingsState
+import org.assertj.core.api.Assertions.assertThat
+
+class HttpClientRegistryTest : BasePlatformTestCase() {
+
+  private lateinit var previousState: AdvancedSettingsState
+
+  override fun setUp() {
+    super.setUp()
+    previousState = AdvancedSettings.getCurrentState()
+  }
+
+  override fun tearDown() {
+    AdvancedSettings.getInstance().loadState(previousState)
+    super.tearDown()
+  }
+
+  fun testClientIsSharedBetweenProviders() {
+    val openAIHttpClient = CompletionClientProvider.getDefaultClientBuilder().build()
+    val llamaHttpClient = CompletionClientProvider.getDefaultClientBuilder().build()
+
+    assertThat(openAIHttpClient.connectionPool()).isSameAs(llamaHttpClient.connectionPool())
+    assertThat(openAIHttpClient.dispatcher()).isSameAs(llamaHttpClient.dispatcher())
+  }
+
+  fun testClientIsRebuiltWhenAdvancedSettingsChange() {
+    val previousClient = CompletionClientProvider.getDefaultClient()
+    val state = AdvancedSettingsState()
+    state.readTimeout = previousClient.readTimeoutMillis / 1000 + 10
+    AdvancedSettings.getInstance().loadState(state)
+
+    val currentClient = CompletionClientProvider.getDefaultClient()
+
+    assertThat(currentClient).isNotSameAs(previousClient)
+    assertThat(currentClient.readTimeoutMillis).isEqualTo(state.readTimeout * 1000)
+    assertThat(CompletionClientProvider.getDefaultClient()).isSameAs(currentClient)
+  }
+}
@@ -0,0 +1,55 @@
+package ee.carlrobert.codegpt.completions
+
+import ee.carlrobert.codegpt.completions.llama.PromptTemplate.LLAMA
+import ee.carlrobert.codegpt.conversations.ConversationService
+import ee.carlrobert.codegpt.conversations.message.Message
+import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.llm.client.http.RequestEntity
+import ee.carlrobert.llm.client.http.exchange.StreamHttpExchange
+import ee.carlrobert.llm.client.util.JSONUtil.e
+import ee.carlrobert.llm.client.util.JSONUtil.jsonMapResponse
+import java.util.concurrent.atomic.AtomicBoolean
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.IntegrationTest
+
+class LlamaPromptPrefillTest : IntegrationTest() {
+
+  private var runLocalServer = false
+
+  override fun setUp() {
+    super.setUp()
+    runLocalServer = LlamaSettings.getCurrentState().isRunLocalServer
+  }
+
+  override fun tearDown() {
+    LlamaPromptPrefill.getInstance().cancel()
+    LlamaSettings.getCurrentState().isRunLocalServer = runLocalServer
+    super.tearDown()
+  }
+
+  fun testPrefillsThePromptWithoutTheQuestion() {
+    useLlamaService()
+    LlamaSettings.getCurrentState().isRunLocalServer = true
+    ConfigurationSettings.getCurrentState().systemPrompt = "TEST_SYSTEM_PROMPT"
+    val conversation = ConversationService.getInstance().startConversation()
+    conversation.addMessage(Message("Ping", "Pong"))
+    val prefilled = AtomicBoolean()
+    expectLlama(StreamHttpExchange { request: RequestEntity ->
+      assertThat(request.uri.path).isEqualTo("/completion")
+      assertThat(request.body)
+        .extracting("prompt", "n_predict", "cache_prompt")
+        .containsExactly(
+          LLAMA.buildPrompt("TEST_SYSTEM_PROMPT", "", conversation.messages),
+          0,
+          true)
+      prefilled.set(true)
+      listOf(jsonMapResponse(e("content", ""), e("stop", true)))
+    })
+
+    LlamaPromptPrefill.getInstance().schedule(conversation, null)
+    LlamaPromptPrefill.getInstance().schedule(conversation, null)
+
+    waitExpecting { prefilled.get() }
+  }
+}
@@ -0,0 +1,65 @@
+package ee.carlrobert.codegpt.completions
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ObjectNode
+import ee.carlrobert.codegpt.completions.PromptCacheStats.Usage
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class PromptCacheInterceptorTest {
+
+  private val objectMapper = ObjectMapper()
+
+  @Test
+  fun shouldPlaceBreakpointsOnSystemPromptAndLatestUserMessage() {
+    val request = objectMapper.readTree("""
+      {"system": "SYSTEM", "messages": [
+        {"role": "user", "content": "FIRST"},
+        {"role": "assistant", "content": "ANSWER"},
+        {"role": "user", "content": "FILES AND QUESTION"}]}
+      """) as ObjectNode
+
+    val changed = PromptCacheInterceptor.addCacheBreakpoints(request, 10_000)
+
+    assertThat(changed).isTrue()
+    assertThat(request).isEqualTo(objectMapper.readTree("""
+      {"system": [{"type": "text", "text": "SYSTEM", "cache_control": {"type": "ephemeral"}}],
+       "messages": [
+        {"role": "user", "content": "FIRST"},
+        {"role": "assistant", "content": "ANSWER"},
+        {"role": "user", "content": [
+          {"type": "text", "text": "FILES AND QUESTION", "cache_control": {"type": "ephemeral"}}]}]}
+      """))
+  }
+
+  @Test
+  fun shouldNotPlaceBreakpointOnShortPrompts() {
+    val request = objectMapper.readTree("""
+      {"messages": [{"role": "user", "content": "QUESTION"}]}
+      """) as ObjectNode
+
+    val changed = PromptCacheInterceptor.addCacheBreakpoints(request, 100)
+
+    assertThat(changed).isFalse()
+    assertThat(request.path("messages").path(0).path("content").asText()).isEqualTo("QUESTION")
+  }
+
+  @Test
+  fun shouldParseAnthropicAndOpenAIUsage() {
+    val anthropicUsage = PromptCacheInterceptor.parseUsage(objectMapper.readTree("""
+      {"type": "message_start", "message": {"usage": {
+        "input_tokens": 10, "cache_read_input_tokens": 2000, "cache_creation_input_tokens": 50}}}
+      """))
+    val openAIUsage = PromptCacheInterceptor.parseUsage(objectMapper.readTree("""
+      {"choices": [], "usage": {"prompt_tokens": 1500, "prompt_tokens_details": {
+        "cached_tokens": 1280}}}
+      """))
+    val noUsage = PromptCacheInterceptor.parseUsage(objectMapper.readTree("""
+      {"choices": [{"delta": {"content": "Hi"}}], "usage": null}
+      """))
+
+    assertThat(anthropicUsage).isEqualTo(Usage(2060, 2000, 50))
+    assertThat(openAIUsage).isEqualTo(Usage(1500, 1280, 0))
+    assertThat(noUsage).isNull()
+  }
+}
@@ -1,5 +1,6 @@
 package ee.carlrobert.codegpt.completions
 
+import ee.carlrobert.codegpt.completions.llama.PromptTemplate
 import ee.carlrobert.codegpt.completions.llama.PromptTemplate.ALPACA
 import ee.carlrobert.codegpt.completions.llama.PromptTemplate.CHAT_ML
 import ee.carlrobert.codegpt.completions.llama.PromptTemplate.LLAMA
@@ -138,6 +139,18 @@ class PromptTemplateTest {
             """.trimIndent())
   }
 
+  @Test
+  fun shouldKeepThePreviousPromptAsPrefixOfTheNextOne() {
+    PromptTemplate.entries.forEach { template ->
+      val previousPrompt =
+        template.buildPrompt(SYSTEM_PROMPT, "TEST_PREV_PROMPT_2", HISTORY.take(1))
+
+      val nextPrompt = template.buildPrompt(SYSTEM_PROMPT, USER_PROMPT, HISTORY)
+
+      assertThat(nextPrompt).`as`(template.name).startsWith(previousPrompt)
+    }
+  }
+
   companion object {
     private const val SYSTEM_PROMPT = "TEST_SYSTEM_PROMPT"
     private const val USER_PROMPT = "TEST_USER_PROMPT"
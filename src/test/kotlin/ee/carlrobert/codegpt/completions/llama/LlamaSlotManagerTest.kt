@@ -0,0 +1,63 @@
+package ee.carlrobert.codegpt.completions.llama
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettingsState
+import java.util.UUID
+import org.assertj.core.api.Assertions.assertThat
+
+class LlamaSlotManagerTest : BasePlatformTestCase() {
+
+  private var runLocalServer = false
+  private var additionalParameters = ""
+
+  override fun setUp() {
+    super.setUp()
+    runLocalServer = LlamaSettings.getCurrentState().isRunLocalServer
+    additionalParameters = LlamaSettings.getCurrentState().additionalParameters
+  }
+
+  override fun tearDown() {
+    LlamaSettings.getCurrentState().isRunLocalServer = runLocalServer
+    LlamaSettings.getCurrentState().additionalParameters = additionalParameters
+    super.tearDown()
+  }
+
+  fun testSlotCountIsReadFromTheParallelParameter() {
+    val settings = LlamaSettingsState()
+
+    settings.additionalParameters = "--mlock, --parallel, 3"
+    assertThat(LlamaSlotManager.getSlotCount(settings)).isEqualTo(3)
+    settings.additionalParameters = "-np,2"
+    assertThat(LlamaSlotManager.getSlotCount(settings)).isEqualTo(2)
+    settings.additionalParameters = ""
+    assertThat(LlamaSlotManager.getSlotCount(settings)).isEqualTo(1)
+  }
+
+  fun testConversationsArePinnedToTheLeastRecentlyUsedSlot() {
+    val settings = LlamaSettings.getCurrentState()
+    settings.isRunLocalServer = true
+    settings.additionalParameters = "--parallel,3"
+    val slotManager = LlamaSlotManager.getInstance()
+    val first = UUID.randomUUID()
+    val second = UUID.randomUUID()
+    val third = UUID.randomUUID()
+
+    val firstSlot = slotManager.getChatSlot(first)
+    val secondSlot = slotManager.getChatSlot(second)
+    assertThat(slotManager.getChatSlot(first)).isEqualTo(firstSlot)
+    val thirdSlot = slotManager.getChatSlot(third)
+
+    assertThat(listOf(firstSlot, secondSlot)).containsExactlyInAnyOrder(0, 1)
+    assertThat(thirdSlot).isEqualTo(secondSlot)
+    assertThat(slotManager.getChatSlot(first)).isEqualTo(firstSlot)
+    assertThat(slotManager.codeCompletionSlot).isEqualTo(2)
+  }
+
+  fun testSlotsAreNotPinnedOnRemoteServers() {
+    LlamaSettings.getCurrentState().isRunLocalServer = false
+
+    assertThat(LlamaSlotManager.getInstance().getChatSlot(UUID.randomUUID())).isNull()
+    assertThat(LlamaSlotManager.getInstance().codeCompletionSlot).isNull()
+  }
+}
@@ -0,0 +1,17 @@
+package ee.carlrobert.codegpt.completions.llama
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class LlamaSlotSnapshotsTest {
+
+  @Test
+  fun shouldNameSnapshotsAfterModelAndPromptPrefix() {
+    val name = LlamaSlotSnapshots.getSnapshotName("/models/a.gguf", "PREFIX")
+
+    assertThat(name).matches("[0-9a-f]{64}\\.bin")
+    assertThat(LlamaSlotSnapshots.getSnapshotName("/models/a.gguf", "PREFIX")).isEqualTo(name)
+    assertThat(LlamaSlotSnapshots.getSnapshotName("/models/b.gguf", "PREFIX")).isNotEqualTo(name)
+    assertThat(LlamaSlotSnapshots.getSnapshotName("/models/a.gguf", "OTHER")).isNotEqualTo(name)
+  }
+}
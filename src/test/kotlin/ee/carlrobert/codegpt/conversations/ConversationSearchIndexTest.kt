@@ -0,0 +1,96 @@
+package ee.carlrobert.codegpt.conversations
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.CodeGPTPlugin
+import ee.carlrobert.codegpt.conversations.message.Message
+import java.nio.file.Files
+import java.nio.file.Path
+import org.assertj.core.api.Assertions.assertThat
+
+class ConversationSearchIndexTest : BasePlatformTestCase() {
+
+  override fun setUp() {
+    super.setUp()
+    ConversationService.getInstance().clearAll()
+  }
+
+  fun testTokenizeSplitsWordsAndCamelCaseHumps() {
+    val terms = ConversationSearchIndex.tokenize("Fix src/ConversationService.java, a bug")
+
+    assertThat(terms).containsExactly(
+      "fix", "src", "conversationservice", "conversation", "service", "java", "bug")
+  }
+
+  fun testSearchRanksConversationsByRelevance() {
+    val service = ConversationService.getInstance()
+    val kotlinConversation = createConversation(
+      Message("How do coroutines work?", "Kotlin coroutines are light threads. Kotlin rocks."))
+    val javaConversation = createConversation(
+      Message("How do threads work in Java?", "Java threads, unlike Kotlin coroutines, ..."))
+    createConversation(Message("Unrelated", "Nothing to see here"))
+
+    val results = service.searchConversations("kotlin", 10)
+
+    assertThat(results)
+      .extracting("id")
+      .containsExactly(kotlinConversation.id, javaConversation.id)
+  }
+
+  fun testSearchMatchesAllTermsAndLastTermAsPrefix() {
+    val service = ConversationService.getInstance()
+    val message = Message("Refactor the parser")
+    message.referencedFilePaths = listOf("/project/src/CodeCompletionParser.java")
+    val conversation = createConversation(message)
+    createConversation(Message("Refactor the tokenizer"))
+
+    assertThat(service.searchConversations("refactor pars", 10))
+      .extracting("id")
+      .containsExactly(conversation.id)
+    assertThat(service.searchConversations("completion", 10))
+      .extracting("id")
+      .containsExactly(conversation.id)
+  }
+
+  fun testDeletedConversationsAndMessagesAreNotFound() {
+    val service = ConversationService.getInstance()
+    val firstMessage = Message("First question", "about gradle")
+    val conversation = createConversation(firstMessage)
+    val otherConversation = createConversation(Message("Second question", "about maven"))
+
+    conversation.removeMessage(firstMessage.id)
+    service.saveConversation(conversation)
+    service.deleteConversation(otherConversation)
+
+    assertThat(service.searchConversations("gradle", 10)).isEmpty()
+    assertThat(service.searchConversations("maven", 10)).isEmpty()
+  }
+
+  fun testIndexIsWrittenPerConversation() {
+    val index = ConversationSearchIndex.getInstance()
+    val conversation = createConversation(Message("Persisted question", "about segments"))
+    val otherConversation = createConversation(Message("Other question", "about files"))
+    index.flush()
+    val segmentPath = getSegmentPath(conversation)
+    val otherSegmentPath = getSegmentPath(otherConversation)
+    val otherSegmentModified = Files.getLastModifiedTime(otherSegmentPath)
+
+    ConversationService.getInstance().deleteConversation(conversation)
+    index.flush()
+
+    assertThat(segmentPath).doesNotExist()
+    assertThat(Files.readString(otherSegmentPath)).contains("files")
+    assertThat(Files.getLastModifiedTime(otherSegmentPath)).isEqualTo(otherSegmentModified)
+  }
+
+  private fun getSegmentPath(conversation: Conversation): Path {
+    return Path.of(CodeGPTPlugin.getConversationSearchIndexPath(), "${conversation.id}.json")
+  }
+
+  private fun createConversation(message: Message): Conversation {
+    val service = ConversationService.getInstance()
+    val conversation = service.startConversation()
+    conversation.addMessage(message)
+    service.saveConversation(conversation)
+    return conversation
+  }
+}
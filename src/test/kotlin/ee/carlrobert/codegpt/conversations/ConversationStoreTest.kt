@@ -0,0 +1,87 @@
+package ee.carlrobert.codegpt.conversations
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.CodeGPTPlugin
+import ee.carlrobert.codegpt.conversations.message.Message
+import java.nio.file.Files
+import java.nio.file.Path
+import org.assertj.core.api.Assertions.assertThat
+
+class ConversationStoreTest : BasePlatformTestCase() {
+
+  override fun setUp() {
+    super.setUp()
+    clearConversationStore()
+  }
+
+  override fun tearDown() {
+    try {
+      clearConversationStore()
+    } finally {
+      super.tearDown()
+    }
+  }
+
+  fun testSavedConversationIsWrittenToItsOwnFile() {
+    val service = ConversationService.getInstance()
+    val conversation = service.startConversation()
+    conversation.addMessage(Message("TEST_PROMPT", "TEST_RESPONSE"))
+
+    service.saveConversation(conversation)
+    val flushed = ConversationStore.getInstance().flush()
+
+    assertThat(flushed).isTrue()
+    assertThat(Files.readString(getStorePath().resolve("${conversation.id}.json")))
+      .contains("TEST_PROMPT", "TEST_RESPONSE")
+    assertThat(Files.readString(getStorePath().resolve("index.json")))
+      .contains(conversation.id.toString())
+      .doesNotContain("TEST_PROMPT")
+  }
+
+  fun testDeletedConversationFileIsRemoved() {
+    val service = ConversationService.getInstance()
+    val conversation = service.startConversation()
+    val store = ConversationStore.getInstance()
+    store.flush()
+
+    service.deleteConversation(conversation)
+    store.flush()
+
+    assertThat(store.getConversation(conversation.id)).isNull()
+    assertThat(getStorePath().resolve("${conversation.id}.json")).doesNotExist()
+  }
+
+  fun testMigratesLegacyConversations() {
+    val conversation = ConversationService.getInstance().createConversation("chat.completion")
+    conversation.addMessage(Message("LEGACY_PROMPT", "LEGACY_RESPONSE"))
+    val state = ConversationsState()
+    state.conversationsContainer.conversationsMapping =
+      mutableMapOf("chat.completion" to mutableListOf(conversation))
+    state.legacyCurrentConversation = conversation
+
+    ConversationStore.getInstance().migrateLegacyState(state)
+
+    assertThat(ConversationStore.getInstance().getConversation(conversation.id)!!.messages)
+      .flatExtracting("prompt", "response")
+      .containsExactly("LEGACY_PROMPT", "LEGACY_RESPONSE")
+    assertThat(getStorePath().resolve("${conversation.id}.json")).exists()
+    assertThat(state.conversationsContainer.conversationsMapping).isEmpty()
+    assertThat(state.legacyCurrentConversation).isNull()
+  }
+
+  private fun getStorePath(): Path {
+    return Path.of(CodeGPTPlugin.getConversationStorePath())
+  }
+}
+
+/**
+ * Removes the conversations of the previous tests from the store and from disk, since the store
+ * is an application service that reloads its directory.
+ */
+internal fun clearConversationStore() {
+  val store = ConversationStore.getInstance()
+  store.deleteAll()
+  store.flush()
+  FileUtil.delete(Path.of(CodeGPTPlugin.getConversationStorePath()))
+}
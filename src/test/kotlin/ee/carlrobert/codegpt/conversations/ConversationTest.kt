@@ -0,0 +1,52 @@
+package ee.carlrobert.codegpt.conversations
+
+import ee.carlrobert.codegpt.conversations.message.Message
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class ConversationTest {
+
+  @Test
+  fun shouldCreateTitleFromUserMessage() {
+    val conversation = Conversation()
+    val message = Message("PROMPT_WITH_FILE_CONTENTS\n".repeat(1000))
+    message.userMessage = "  How does\n\nthis   work?  "
+
+    conversation.addMessage(message)
+
+    assertThat(conversation.title).isEqualTo("How does this work?")
+  }
+
+  @Test
+  fun shouldBoundTitleLength() {
+    val conversation = Conversation()
+
+    conversation.addMessage(Message("word ".repeat(10_000)))
+
+    assertThat(conversation.title).hasSize(100).endsWith("...")
+  }
+
+  @Test
+  fun shouldRecreateTitleWhenFirstMessageIsRemoved() {
+    val conversation = Conversation()
+    val firstMessage = Message("First")
+    conversation.addMessage(firstMessage)
+    conversation.addMessage(Message("Second"))
+
+    conversation.removeMessage(firstMessage.id)
+
+    assertThat(conversation.title).isEqualTo("Second")
+  }
+
+  @Test
+  fun shouldKeepSnapshotMessagesWhenConversationChanges() {
+    val conversation = Conversation()
+    conversation.addMessage(Message("FIRST_PROMPT"))
+
+    val snapshot = conversation.createSnapshot()
+    conversation.addMessage(Message("SECOND_PROMPT"))
+
+    assertThat(snapshot.messages).extracting("prompt").containsExactly("FIRST_PROMPT")
+    assertThat(snapshot.title).isEqualTo("FIRST_PROMPT")
+  }
+}
@@ -10,6 +10,19 @@ import org.assertj.core.api.Assertions.assertThat
 
 class ConversationsStateTest : BasePlatformTestCase() {
 
+  override fun setUp() {
+    super.setUp()
+    clearConversationStore()
+  }
+
+  override fun tearDown() {
+    try {
+      clearConversationStore()
+    } finally {
+      super.tearDown()
+    }
+  }
+
   fun testStartNewDefaultConversation() {
     GeneralSettings.getCurrentState().selectedService = ServiceType.OPENAI
     OpenAISettings.getCurrentState().model = OpenAIChatCompletionModel.GPT_3_5.code
@@ -86,4 +99,32 @@ class ConversationsStateTest : BasePlatformTestCase() {
     assertThat(ConversationsState.getCurrentConversation()).isNull()
     assertThat(service.sortedConversations.size).isEqualTo(0)
   }
+
+  fun testSavedConversationMovesToTheTop() {
+    val service = ConversationService.getInstance()
+    val firstConversation = service.startConversation()
+    val secondConversation = service.startConversation()
+
+    service.saveConversation(firstConversation)
+
+    assertThat(service.sortedConversations)
+      .extracting("id")
+      .containsExactly(firstConversation.id, secondConversation.id)
+  }
+
+  fun testFindConversationByMessageId() {
+    val service = ConversationService.getInstance()
+    val conversation = service.startConversation()
+    val message = Message("TEST_PROMPT")
+    conversation.addMessage(message)
+    service.saveConversation(conversation)
+
+    assertThat(service.getConversation(conversation.id)).contains(conversation)
+    assertThat(service.findConversationByMessageId(message.id)).contains(conversation)
+
+    service.deleteConversation(conversation)
+
+    assertThat(service.getConversation(conversation.id)).isEmpty()
+    assertThat(service.findConversationByMessageId(message.id)).isEmpty()
+  }
 }
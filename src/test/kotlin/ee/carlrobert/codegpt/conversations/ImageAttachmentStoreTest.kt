@@ -0,0 +1,70 @@
+package ee.carlrobert.codegpt.conversations
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.TimeUnit
+import javax.imageio.ImageIO
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+
+class ImageAttachmentStoreTest : BasePlatformTestCase() {
+
+  fun testAttachedImageIsDownscaledAndStoredByContentHash() {
+    val imageFile = Files.createTempFile("screenshot", ".png")
+    ImageIO.write(BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB), "png", imageFile.toFile())
+    val store = ImageAttachmentStore.getInstance()
+
+    val storedPath = store.attach(imageFile)
+    val attachment = store.get(storedPath.toString())
+
+    val storedImage = ImageIO.read(ByteArrayInputStream(attachment.data))
+    assertThat(storedPath.fileName.toString()).matches("[0-9a-f]{64}\\.png")
+    assertThat(store.attach(imageFile)).isEqualTo(storedPath)
+    assertThat(attachment.mediaType).isEqualTo("image/png")
+    assertThat(storedImage.width).isEqualTo(1365)
+    assertThat(storedImage.height).isEqualTo(768)
+    assertThat(store.get(storedPath.toString())).isSameAs(attachment)
+  }
+
+  fun testUnreferencedImagesAreRemoved() {
+    val store = ImageAttachmentStore.getInstance()
+    val referencedPath = store.attach(createImageFile(Color.RED))
+    val unreferencedPath = store.attach(createImageFile(Color.GREEN))
+    val recentPath = store.attach(createImageFile(Color.BLUE))
+    val storedOn = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1))
+    Files.setLastModifiedTime(referencedPath, storedOn)
+    Files.setLastModifiedTime(unreferencedPath, storedOn)
+    store.get(unreferencedPath.toString())
+
+    store.removeUnreferenced { setOf(referencedPath.toString()) }
+
+    assertThat(referencedPath).exists()
+    assertThat(unreferencedPath).doesNotExist()
+    assertThat(recentPath).exists()
+    assertThatThrownBy { store.get(unreferencedPath.toString()) }
+      .isInstanceOf(NoSuchFileException::class.java)
+  }
+
+  fun testSmallImagesAreKeptAsTheyAre() {
+    assertThat(ImageAttachmentStore.getScale(1024, 768)).isEqualTo(1.0)
+    assertThat(ImageAttachmentStore.getScale(3000, 500)).isEqualTo(1568.0 / 3000)
+  }
+
+  private fun createImageFile(color: Color): Path {
+    val image = BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB)
+    image.graphics.apply {
+      this.color = color
+      fillRect(0, 0, 16, 16)
+      dispose()
+    }
+    val imageFile = Files.createTempFile("screenshot", ".png")
+    ImageIO.write(image, "png", imageFile.toFile())
+    return imageFile
+  }
+}
@@ -0,0 +1,69 @@
+package ee.carlrobert.codegpt.tokenizer
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class GgufTokenizerTest {
+
+  @Test
+  fun shouldReadTheVocabularyFromTheMetadata() {
+    val buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN)
+    buffer.putInt(0x46554747).putInt(3).putLong(0).putLong(4)
+    putString(buffer, "general.name")
+    buffer.putInt(8)
+    putString(buffer, "test")
+    putString(buffer, "tokenizer.ggml.model")
+    buffer.putInt(8)
+    putString(buffer, "llama")
+    putString(buffer, "tokenizer.ggml.tokens")
+    buffer.putInt(9).putInt(8).putLong(2)
+    putString(buffer, "a")
+    putString(buffer, "b")
+    putString(buffer, "tokenizer.ggml.scores")
+    buffer.putInt(9).putInt(6).putLong(2).putFloat(1f).putFloat(2f)
+    buffer.flip()
+
+    val vocabulary = GgufVocabulary.read(buffer)
+
+    assertThat(vocabulary.model()).isEqualTo("llama")
+    assertThat(vocabulary.tokens()).containsExactly("a", "b")
+    assertThat(vocabulary.scores()).containsExactly(1f, 2f)
+  }
+
+  @Test
+  fun shouldMergeSentencePiecesByScoreAndFallBackToBytes() {
+    val tokens = listOf(
+      "<0xC3>", "<0xA9>", "▁", "h", "i", "▁h", "▁hi", "t", "▁t", "▁th")
+    val scores = FloatArray(tokens.size) { -it.toFloat() }
+    val types = IntArray(tokens.size) { if (it < 2) 6 else 1 }
+    val tokenizer =
+      SentencePieceTokenizer("test", GgufVocabulary("llama", tokens, scores, types, null))
+
+    val ids = tokenizer.encode("hi hi é")
+
+    assertThat(ids).containsExactly(6, 6, 2, 0, 1)
+    assertThat(tokenizer.decode(ids, 0, ids.size)).isEqualTo("hi hi é")
+    assertThat(tokenizer.truncate("hi hi é", 1, true)).isEqualTo("hi")
+  }
+
+  @Test
+  fun shouldMergeBytePairsByRank() {
+    val tokens = listOf("h", "e", "l", "o", "Ġ", "he", "ll", "hell", "hello", "Ġhello")
+    val merges = listOf("h e", "l l", "he ll", "hell o", "Ġ hello")
+    val types = IntArray(tokens.size) { 1 }
+    val tokenizer =
+      ByteLevelBpeTokenizer("test", GgufVocabulary("gpt2", tokens, null, types, merges))
+
+    val ids = tokenizer.encode("hello hello")
+
+    assertThat(ids).containsExactly(8, 9)
+    assertThat(tokenizer.decode(ids, 0, ids.size)).isEqualTo("hello hello")
+  }
+
+  private fun putString(buffer: ByteBuffer, value: String) {
+    val bytes = value.toByteArray()
+    buffer.putLong(bytes.size.toLong()).put(bytes)
+  }
+}
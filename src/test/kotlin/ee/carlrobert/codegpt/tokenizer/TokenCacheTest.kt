@@ -0,0 +1,55 @@
+package ee.carlrobert.codegpt.tokenizer
+
+import com.knuddels.jtokkit.Encodings
+import com.knuddels.jtokkit.api.EncodingType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class TokenCacheTest {
+
+  private val encoding =
+    Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE)
+  private val tokenizer = TiktokenTokenizer(encoding)
+  private val text = "The quick brown fox jumps over the lazy dog. ".repeat(10)
+
+  @Test
+  fun shouldReturnCachedCountForUnchangedContent() {
+    val cache = TokenCache()
+
+    val first = cache.countTokens(tokenizer, text)
+    val second = cache.countTokens(tokenizer, String(text.toCharArray()))
+
+    assertThat(first).isEqualTo(encoding.countTokens(text))
+    assertThat(second).isEqualTo(first)
+    assertThat(cache.stats)
+      .extracting("hits", "misses", "size")
+      .containsExactly(1L, 1L, 1)
+    assertThat(cache.stats.hitRate()).isEqualTo(0.5)
+  }
+
+  @Test
+  fun shouldStoreTokenIdsOnlyWhenEncoded() {
+    val cache = TokenCache()
+    cache.countTokens(tokenizer, text)
+
+    val tokens = cache.encode(tokenizer, text)
+    val cachedTokens = cache.encode(tokenizer, text)
+
+    assertThat(tokens).containsExactly(*encoding.encode(text).toArray())
+    assertThat(cachedTokens).isSameAs(tokens)
+    assertThat(cache.stats)
+      .extracting("hits", "misses", "storedTokens")
+      .containsExactly(1L, 2L, tokens.size.toLong())
+  }
+
+  @Test
+  fun shouldNotCacheShortTexts() {
+    val cache = TokenCache()
+
+    cache.countTokens(tokenizer, "short")
+    cache.countTokens(tokenizer, "short")
+
+    assertThat(cache.stats.size()).isZero()
+    assertThat(cache.stats.hits() + cache.stats.misses()).isZero()
+  }
+}
@@ -0,0 +1,91 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+import ee.carlrobert.codegpt.toolwindow.chat.StreamParser.StreamParseResponse
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE_END
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE_START
+import ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.TEXT
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class StreamParserTest {
+
+  @Test
+  fun shouldSplitTextAndCodeBlocks() {
+    val parser = StreamParser()
+
+    val result = parser.parse("Hello\n```java\nclass A {}\n```\nBye") + parser.flush()
+
+    assertThat(result).containsExactly(
+      StreamParseResponse(TEXT, "Hello\n"),
+      StreamParseResponse(CODE_START, "java"),
+      StreamParseResponse(CODE, "class A {}\n"),
+      StreamParseResponse(CODE_END, ""),
+      StreamParseResponse(TEXT, "Bye"))
+  }
+
+  @Test
+  fun shouldProduceSameContentRegardlessOfChunking() {
+    val input = """
+      Intro with ``inline`` code
+      ~~~python extra info
+      print("```")
+      ```
+      ~~~
+        ````
+      nested ``` fence
+        ````
+      ```not`a fence
+      Outro
+      """.trimIndent()
+    val expected = parseWhole(input)
+
+    for (chunkSize in 1..7) {
+      val parser = StreamParser()
+      val result = input.chunked(chunkSize).flatMap { parser.parse(it) } + parser.flush()
+
+      assertThat(merge(result)).isEqualTo(expected)
+    }
+    assertThat(expected).containsExactly(
+      StreamParseResponse(TEXT, "Intro with ``inline`` code\n"),
+      StreamParseResponse(CODE_START, "python"),
+      StreamParseResponse(CODE, "print(\"```\")\n```\n"),
+      StreamParseResponse(CODE_END, ""),
+      StreamParseResponse(CODE_START, ""),
+      StreamParseResponse(CODE, "nested ``` fence\n"),
+      StreamParseResponse(CODE_END, ""),
+      StreamParseResponse(TEXT, "```not`a fence\nOutro"))
+  }
+
+  @Test
+  fun shouldEmitOnlyNewContentPerChunk() {
+    val parser = StreamParser()
+
+    assertThat(parser.parse("```kotlin\nval a")).containsExactly(
+      StreamParseResponse(CODE_START, "kotlin"),
+      StreamParseResponse(CODE, "val a"))
+    assertThat(parser.parse(" = 1\n")).containsExactly(StreamParseResponse(CODE, " = 1\n"))
+    assertThat(parser.parse("``")).isEmpty()
+    assertThat(parser.parse("`")).isEmpty()
+    assertThat(parser.flush()).containsExactly(StreamParseResponse(CODE_END, ""))
+  }
+
+  private fun parseWhole(input: String): List<StreamParseResponse> {
+    val parser = StreamParser()
+    return parser.parse(input) + parser.flush()
+  }
+
+  private fun merge(responses: List<StreamParseResponse>): List<StreamParseResponse> {
+    val merged = mutableListOf<StreamParseResponse>()
+    for (response in responses) {
+      val last = merged.lastOrNull()
+      val mergeable = response.type == TEXT || response.type == CODE
+      if (last != null && last.type == response.type && mergeable) {
+        merged[merged.size - 1] = StreamParseResponse(last.type, last.response + response.response)
+      } else {
+        merged.add(response)
+      }
+    }
+    return merged
+  }
+}
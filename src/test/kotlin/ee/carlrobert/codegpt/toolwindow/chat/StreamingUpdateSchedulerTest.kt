@@ -0,0 +1,33 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+import com.intellij.testFramework.PlatformTestUtil
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import org.assertj.core.api.Assertions.assertThat
+
+class StreamingUpdateSchedulerTest : BasePlatformTestCase() {
+
+  fun testCoalescesPendingChunksIntoSingleUpdate() {
+    val updates = mutableListOf<String>()
+    val scheduler = StreamingUpdateScheduler({ updates.add(it) }, 1000)
+
+    (1..100).forEach { scheduler.offer("$it,") }
+    scheduler.flush()
+    scheduler.flush()
+
+    assertThat(updates).containsExactly((1..100).joinToString("") { "$it," })
+  }
+
+  fun testFlushesChunksOfferedFromBackgroundThreadOnEdt() {
+    val updates = mutableListOf<String>()
+    val scheduler = StreamingUpdateScheduler({ updates.add(it) })
+
+    val thread = Thread { listOf("Hel", "lo", "!").forEach { scheduler.offer(it) } }
+    thread.start()
+    thread.join()
+
+    PlatformTestUtil.waitWithEventsDispatching(
+      "Chunks were not flushed",
+      { updates.joinToString("") == "Hello!" },
+      5)
+  }
+}
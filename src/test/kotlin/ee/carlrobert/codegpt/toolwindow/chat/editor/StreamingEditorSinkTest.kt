@@ -0,0 +1,32 @@
+package ee.carlrobert.codegpt.toolwindow.chat.editor
+
+import com.intellij.openapi.editor.EditorFactory
+import com.intellij.openapi.editor.ex.EditorEx
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import ee.carlrobert.codegpt.util.EditorUtil
+import org.assertj.core.api.Assertions.assertThat
+
+class StreamingEditorSinkTest : BasePlatformTestCase() {
+
+  fun testAppendsChunksAndRestoresHighlighterOnCompletion() {
+    val editor = EditorUtil.createEditor(project, ".java", "class A {") as EditorEx
+    try {
+      val languageHighlighter = editor.highlighter
+      val sink = StreamingEditorSink(editor)
+
+      sink.append("\n  void a() {}")
+      sink.append("\n}\n")
+
+      assertThat(editor.document.text).isEqualTo("class A {\n  void a() {}\n}\n")
+      assertThat(editor.highlighter).isNotSameAs(languageHighlighter)
+
+      sink.complete()
+      sink.complete()
+
+      assertThat(editor.highlighter).isSameAs(languageHighlighter)
+      assertThat(editor.document.text).isEqualTo("class A {\n  void a() {}\n}\n")
+    } finally {
+      EditorFactory.getInstance().releaseEditor(editor)
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui
+
+import ee.carlrobert.codegpt.util.MarkdownUtil
+import javax.swing.JTextPane
+import javax.swing.text.Element
+import javax.swing.text.html.HTMLDocument
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class IncrementalMarkdownRendererTest {
+
+  private val markdown = """
+    # Title
+
+    Some **bold** text
+    spanning lines.
+
+    - item one
+    - item two
+
+      continued
+
+        indented code
+
+    1. loose one
+
+    2. loose two
+
+    3. loose three
+
+    Setext
+    ---
+
+    Last paragraph with `code`
+    """.trimIndent()
+
+  @Test
+  fun shouldRenderSameStructureAsFullRenderRegardlessOfChunking() {
+    val expected = createTextPane()
+    expected.text = MarkdownUtil.convertMdToHtml(markdown)
+
+    for (chunkSize in listOf(1, 2, 3, 8, markdown.length)) {
+      val textPane = createTextPane()
+      val renderer = IncrementalMarkdownRenderer(textPane)
+
+      markdown.chunked(chunkSize).forEach { renderer.append(it) }
+
+      assertThat(getStructure(textPane)).isEqualTo(getStructure(expected))
+      assertThat(getPlainText(textPane)).isEqualTo(getPlainText(expected))
+    }
+  }
+
+  @Test
+  fun shouldKeepListItemSplitAcrossChunksInTheSameList() {
+    val textPane = createTextPane()
+    val renderer = IncrementalMarkdownRenderer(textPane)
+
+    renderer.append("1. a\n\n2")
+    renderer.append(". b\n")
+
+    assertThat(getStructure(textPane)).isEqualTo("ol(li(p) li(p))")
+  }
+
+  @Test
+  fun shouldReplaceContentSetFromOutside() {
+    val textPane = createTextPane()
+    textPane.text = "<html><p>Placeholder</p></html>"
+    val renderer = IncrementalMarkdownRenderer(textPane)
+
+    renderer.append("Hello *world*")
+
+    assertThat(getPlainText(textPane)).isEqualTo("Hello world")
+  }
+
+  private fun createTextPane(): JTextPane {
+    val textPane = JTextPane()
+    textPane.contentType = "text/html"
+    return textPane
+  }
+
+  /**
+   * Returns the block elements of the body, without the wrapper of the open block.
+   */
+  private fun getStructure(textPane: JTextPane): String {
+    val document = textPane.document as HTMLDocument
+    val body = document.defaultRootElement.getElement(document.defaultRootElement.elementCount - 1)
+    return getChildrenStructure(body)
+  }
+
+  private fun getChildrenStructure(element: Element): String {
+    return (0 until element.elementCount)
+      .map { element.getElement(it) }
+      .filter { !it.isLeaf }
+      .map {
+        val children = getChildrenStructure(it)
+        when {
+          it.name == "div" -> children
+          children.isEmpty() -> it.name
+          else -> "${it.name}($children)"
+        }
+      }
+      .filter { it.isNotEmpty() }
+      .joinToString(" ")
+  }
+
+  private fun getPlainText(textPane: JTextPane): String {
+    return textPane.document.getText(0, textPane.document.length).trim()
+  }
+}